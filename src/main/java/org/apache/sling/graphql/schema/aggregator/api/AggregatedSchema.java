@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.api;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.annotation.versioning.ProviderType;
+
+/** An immutable aggregated schema, as provided by {@link SchemaAggregator#getSchema}.
+ *  The aggregator returns the same instance for the same selection as long as its
+ *  fingerprint does not change, so in-process consumers can hold on to it and
+ *  compare instances by identity to find out if they need to rebuild their
+ *  GraphQL runtime.
+ */
+@ProviderType
+public interface AggregatedSchema {
+    /** @return the schema text, same as what {@link SchemaAggregator#aggregate} outputs */
+    @NotNull
+    CharSequence getText();
+
+    /** @return a read-only view of the UTF-8 encoded schema text */
+    @NotNull
+    ByteBuffer getUtf8Bytes();
+
+    /** @return the fingerprint of the schema, see {@link SchemaAggregator#getFingerprint} */
+    @NotNull
+    String getFingerprint();
+
+    /** @return the names and versions of the partials that contributed to this
+     *  schema, like "name" or "name-1.0.0", in output order
+     */
+    @NotNull
+    List<String> getPartials();
+
+    /** @return the generation of the partial providers when this schema was
+     *  built, which is incremented when providers change
+     */
+    long getGeneration();
+
+    /** A segment of the schema text, see {@link #getSegments} */
+    interface Segment {
+        /** @return the partial and section which produced this segment, like "name-1.0.0/QUERY",
+         *  or null for text which is generated by the aggregator
+         */
+        @Nullable
+        String getSource();
+
+        /** @return the text of this segment */
+        @NotNull
+        CharSequence getText();
+    }
+
+    /** @return the schema text split in segments, in output order, which
+     *  allows for finding out which parts of the schema changed between
+     *  two versions. Concatenating their text produces {@link #getText}.
+     */
+    @NotNull
+    List<Segment> getSegments();
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.api;
+
+import org.jetbrains.annotations.NotNull;
+import org.osgi.annotation.versioning.ConsumerType;
+
+/** Supplied by callers of the {@link SchemaAggregator} which want to know
+ *  how long the phases of an aggregation take, for diagnostics, or to
+ *  cancel aggregations which are not needed anymore.
+ */
+@ConsumerType
+public interface AggregationContext {
+    /** Selection of partials by name or regular expression */
+    String PHASE_SELECT = "select";
+
+    /** Resolution of the partials required by the selected ones */
+    String PHASE_RESOLVE = "resolve";
+
+    /** Reading the content of partials */
+    String PHASE_READ = "read";
+
+    /** Writing the aggregated schema */
+    String PHASE_WRITE = "write";
+
+    /** Lookup of a schema which was served from cache */
+    String PHASE_CACHE_HIT = "cache-hit";
+
+    /** Called when a phase of the aggregation completes. Can be called several
+     *  times for the same phase, in which case the durations add up.
+     *
+     *  @param phase one of the PHASE_* constants
+     *
+     *  @param nanos the duration of the phase, in nanoseconds
+     */
+    void recordPhase(@NotNull String phase, long nanos);
+
+    /** Checked between the partials and sections of an aggregation, which
+     *  is abandoned with an {@link java.io.InterruptedIOException} if this
+     *  returns true, for example when the client that requested the
+     *  schema went away.
+     *
+     *  @return true if the aggregation should stop
+     */
+    default boolean isCancelled() {
+        return false;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.api;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+import org.osgi.annotation.versioning.ProviderType;
+
+/** Index of the top-level definitions provided by the registered partials, to find
+ *  which partials provide a given type or field without aggregating schemas.
+ *  Definitions are named like in the aggregated schema: type names like "SlingResource",
+ *  directive names prefixed with @ like "@fetcher", and fields of the QUERY and MUTATION
+ *  sections prefixed with their type name, like "Query.someQuery" or "Mutation.someMutation".
+ */
+@ProviderType
+public interface DefinitionsIndex {
+    /** Find the partials which provide a definition
+     *
+     *  @param definition the definition name, like "SlingResource" or "Query.someQuery"
+     *
+     *  @return the names of the partials which provide that definition, like
+     *      "name" or "name-1.0.0", sorted, empty if there are none
+     */
+    @NotNull
+    Set<String> getProviders(@NotNull String definition);
+
+    /** Find the definitions which are provided by several partials. Different versions of
+     *  the same partial are not considered conflicting.
+     *
+     *  @return the conflicting definitions, mapped to the names of the partials which provide them
+     */
+    @NotNull
+    Map<String, Set<String>> getConflicts();
+
+    /** Find the bundle which provides a partial
+     *
+     *  @param partial the partial name, like "name" or "name-1.0.0"
+     *
+     *  @return the ID of the bundle which provides that partial, -1 if not found
+     */
+    long getBundleId(@NotNull String partial);
+}
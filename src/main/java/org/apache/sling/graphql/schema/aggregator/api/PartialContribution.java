@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.api;
+
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.osgi.annotation.versioning.ProviderType;
+
+/** Describes what a partial contributes to an aggregated schema,
+ *  see {@link SchemaAggregator#getContributions}
+ */
+@ProviderType
+public interface PartialContribution {
+    /** @return the name of the partial, including its version if it has one */
+    @NotNull
+    String getPartialName();
+
+    /** @return true if the partial was selected directly, false if it was
+     *  selected because another partial requires it.
+     */
+    boolean isDirect();
+
+    /** @return the dependency path via which the partial was selected, starting with
+     *  a directly selected partial and ending with the partial which requires this one.
+     *  Empty if this partial was selected directly.
+     */
+    @NotNull
+    List<String> getRequiredBy();
+
+    /** @return the size in bytes, UTF-8 encoded, of each section that this partial
+     *  adds to the schema, keyed by section name like QUERY or TYPES.
+     */
+    @NotNull
+    Map<String, Long> getSectionBytes();
+
+    /** @return the total size in bytes of the sections that this partial adds to the schema */
+    long getTotalBytes();
+}
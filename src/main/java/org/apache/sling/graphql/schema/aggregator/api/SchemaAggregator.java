@@ -20,12 +20,46 @@ package org.apache.sling.graphql.schema.aggregator.api;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.osgi.annotation.versioning.ProviderType;
 
 @ProviderType
 public interface SchemaAggregator {
+    /** OSGi EventAdmin topic of the events sent when the schema
+     *  of a configured selector changes, see also {@link SchemaChangeListener}
+     */
+    String TOPIC_SCHEMA_CHANGED = "org/apache/sling/graphql/schema/aggregator/SCHEMA_CHANGED";
+
+    /** Event property: the selector which addresses the changed schema */
+    String PROPERTY_SELECTOR = "selector";
+
+    /** Event property: the new fingerprint of the changed schema */
+    String PROPERTY_FINGERPRINT = "fingerprint";
+
+    /** Event property: the names of the partials used by the changed schema */
+    String PROPERTY_PARTIALS = "partials";
+
+    /** Options for the {@link #aggregate(Writer, Set, String...)} method */
+    enum Option {
+        /** Omit the source information and header comments, and strip comments and
+         *  redundant whitespace from the output SDL. String values are kept as is.
+         */
+        COMPACT,
+
+        /** Omit the definitions of types which are not reachable from the Query and
+         *  Mutation types, or from directive definitions. Types which implement
+         *  a reachable interface are considered reachable.
+         */
+        PRUNE_UNREACHABLE_TYPES
+    }
+
     /** Aggregate the schemas supplied by partial schema providers which match the exact names
      *  or patterns supplied.
      *
@@ -37,5 +71,168 @@ public interface SchemaAggregator {
      *
      *  @throws IOException if an exact provider name is not found
      */
-    void aggregate(@NotNull Writer target, @NotNull String... providerNamesOrRegexp) throws IOException;
+    default void aggregate(@NotNull Writer target, @NotNull String... providerNamesOrRegexp) throws IOException {
+        aggregate(target, Collections.emptySet(), providerNamesOrRegexp);
+    }
+
+    /** Aggregate the schemas supplied by partial schema providers, like {@link #aggregate(Writer, String...)},
+     *  using the supplied options.
+     *
+     *  @param target where to write the output
+     *
+     *  @param options output options, empty for the default output
+     *
+     *  @param providerNamesOrRegexp selects partials, like for {@link #aggregate(Writer, String...)}
+     *
+     *  @throws IOException if an exact provider name is not found
+     */
+    void aggregate(@NotNull Writer target, @NotNull Set<Option> options, @NotNull String... providerNamesOrRegexp)
+            throws IOException;
+
+    /** Aggregate the schemas supplied by partial schema providers, like {@link #aggregate(Writer, Set, String...)},
+     *  and report the duration of the aggregation phases to the supplied context.
+     *
+     *  @param target where to write the output
+     *
+     *  @param context receives the duration of the aggregation phases
+     *
+     *  @param options output options, empty for the default output
+     *
+     *  @param providerNamesOrRegexp selects partials, like for {@link #aggregate(Writer, String...)}
+     *
+     *  @throws IOException if an exact provider name is not found
+     */
+    default void aggregate(
+            @NotNull Writer target,
+            @NotNull AggregationContext context,
+            @NotNull Set<Option> options,
+            @NotNull String... providerNamesOrRegexp)
+            throws IOException {
+        aggregate(target, options, providerNamesOrRegexp);
+    }
+
+    /** Provide the aggregated schema as an immutable object, for in-process consumers.
+     *  The same instance is returned for the same arguments as long as the
+     *  schema's fingerprint does not change.
+     *
+     *  @param options output options, empty for the default output
+     *
+     *  @param providerNamesOrRegexp selects partials, like for {@link #aggregate(Writer, String...)}
+     *
+     *  @return the schema, with the same text as what {@link #aggregate} would output
+     *
+     *  @throws IOException if an exact provider name is not found
+     */
+    @NotNull
+    AggregatedSchema getSchema(@NotNull Set<Option> options, @NotNull String... providerNamesOrRegexp)
+            throws IOException;
+
+    /** Provide the aggregated schema like {@link #getSchema(Set, String...)}, and report the
+     *  duration of the aggregation phases to the supplied context.
+     *
+     *  @param context receives the duration of the aggregation phases
+     *
+     *  @param options output options, empty for the default output
+     *
+     *  @param providerNamesOrRegexp selects partials, like for {@link #aggregate(Writer, String...)}
+     *
+     *  @return the schema
+     *
+     *  @throws IOException if an exact provider name is not found
+     */
+    @NotNull
+    default AggregatedSchema getSchema(
+            @NotNull AggregationContext context, @NotNull Set<Option> options, @NotNull String... providerNamesOrRegexp)
+            throws IOException {
+        return getSchema(options, providerNamesOrRegexp);
+    }
+
+    /** Provide the aggregated schema like {@link #getSchema(AggregationContext, Set, String...)}
+     *  only if it is cached and up to date, to find out if getting it requires an aggregation.
+     *
+     *  @param context receives the duration of the cache lookup
+     *
+     *  @param options output options, empty for the default output
+     *
+     *  @param providerNamesOrRegexp selects partials, like for {@link #aggregate(Writer, String...)}
+     *
+     *  @return the cached schema, or null if getSchema would aggregate it. The default
+     *      implementation has no cache and always returns null.
+     *
+     *  @throws IOException if an exact provider name is not found
+     */
+    @Nullable
+    default AggregatedSchema getCachedSchema(
+            @NotNull AggregationContext context, @NotNull Set<Option> options, @NotNull String... providerNamesOrRegexp)
+            throws IOException {
+        return null;
+    }
+
+    /** Provide the aggregated schema using the default output options, see {@link #getSchema(Set, String...)}
+     *
+     *  @param providerNamesOrRegexp selects partials, like for {@link #aggregate(Writer, String...)}
+     *
+     *  @return the schema
+     *
+     *  @throws IOException if an exact provider name is not found
+     */
+    @NotNull
+    default AggregatedSchema getSchema(@NotNull String... providerNamesOrRegexp) throws IOException {
+        return getSchema(Collections.emptySet(), providerNamesOrRegexp);
+    }
+
+    /** Provide several aggregated schemas at once, like {@link #getSchema(AggregationContext, Set, String...)}
+     *  for each of them. Implementations can use this to read the partials which are shared by several
+     *  schemas only once.
+     *
+     *  @param context receives the duration of the aggregation phases
+     *
+     *  @param options output options, empty for the default output
+     *
+     *  @param selections the names or patterns of the partials of each schema, like for
+     *      {@link #aggregate(Writer, String...)}, by arbitrary keys such as the servlet selectors
+     *      which address these schemas
+     *
+     *  @return the schemas, by the same keys and in the same order as the selections
+     *
+     *  @throws IOException if an exact provider name is not found
+     */
+    @NotNull
+    default Map<String, AggregatedSchema> getSchemas(
+            @NotNull AggregationContext context,
+            @NotNull Set<Option> options,
+            @NotNull Map<String, String[]> selections)
+            throws IOException {
+        final Map<String, AggregatedSchema> result = new LinkedHashMap<>();
+        for (Map.Entry<String, String[]> e : selections.entrySet()) {
+            result.put(e.getKey(), getSchema(context, options, e.getValue()));
+        }
+        return result;
+    }
+
+    /** Report what each partial contributes to the schema selected by the supplied names,
+     *  to find out which partials make a schema large and why they are selected.
+     *
+     *  @param providerNamesOrRegexp selects partials, like for {@link #aggregate(Writer, String...)}
+     *
+     *  @return the contributions of all the selected partials, in the same order as in the schema
+     *
+     *  @throws IOException if an exact provider name is not found
+     */
+    @NotNull
+    List<PartialContribution> getContributions(@NotNull String... providerNamesOrRegexp) throws IOException;
+
+    /** Compute the fingerprint of the schema that {@link #aggregate} would output for the
+     *  same arguments. This only uses the names and digests of the selected partials,
+     *  without reading their content, so it's a cheap way to find out if a schema changed.
+     *
+     *  @param providerNamesOrRegexp selects partials, like for {@link #aggregate}
+     *
+     *  @return the fingerprint, like "SHA-256: 43e1...", which changes when the selected
+     *      partials or their content change.
+     *
+     *  @throws IOException if an exact provider name is not found
+     */
+    @NotNull
+    String getFingerprint(@NotNull String... providerNamesOrRegexp) throws IOException;
 }
@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.api;
+
+import org.jetbrains.annotations.NotNull;
+import org.osgi.annotation.versioning.ConsumerType;
+
+/** Whiteboard service which is notified when the schema of a selector
+ *  configured in a SchemaAggregatorServlet changes, meaning that the set of
+ *  partials that it uses, or their content, changed.
+ *  This allows consumers to rebuild their GraphQL runtime only when needed,
+ *  instead of polling for schema changes.
+ */
+@ConsumerType
+public interface SchemaChangeListener {
+    /** Called when the schema of a configured selector changes or becomes
+     *  available, and once for each available schema when this listener is
+     *  registered, so that it knows about the current schemas.
+     *
+     *  @param selector the SchemaAggregatorServlet selector which addresses the schema
+     *
+     *  @param fingerprint the new fingerprint of the schema
+     */
+    void schemaChanged(@NotNull String selector, @NotNull String fingerprint);
+}
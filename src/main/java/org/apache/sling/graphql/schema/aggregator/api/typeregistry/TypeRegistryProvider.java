@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.api.typeregistry;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+import graphql.schema.idl.TypeDefinitionRegistry;
+import org.apache.sling.graphql.schema.aggregator.api.SchemaAggregator;
+import org.jetbrains.annotations.NotNull;
+import org.osgi.annotation.versioning.ProviderType;
+
+/** Provides aggregated schemas as graphql-java TypeDefinitionRegistry objects,
+ *  so that consumers do not need to parse the aggregated SDL text.
+ *  Each partial is parsed only once, and the registries of the selected partials
+ *  are merged, with their QUERY and MUTATION sections combined in single Query
+ *  and Mutation types, like in the aggregated SDL.
+ *  This service is only available if graphql-java is present at runtime.
+ */
+@ProviderType
+public interface TypeRegistryProvider {
+    /** Provide the merged TypeDefinitionRegistry for the selected partials.
+     *  The same instance is returned as long as the schema's fingerprint does not
+     *  change: it is shared and must not be modified, use
+     *  {@code new TypeDefinitionRegistry().merge(registry)} to get a modifiable copy.
+     *
+     *  @param providerNamesOrRegexp selects partials, like for
+     *      {@link org.apache.sling.graphql.schema.aggregator.api.SchemaAggregator#aggregate}
+     *
+     *  @return the merged registry
+     *
+     *  @throws IOException if an exact provider name is not found, or if the
+     *      partials cannot be parsed or merged
+     */
+    @NotNull
+    TypeDefinitionRegistry getTypeDefinitionRegistry(@NotNull String... providerNamesOrRegexp) throws IOException;
+
+    /** Validate the aggregated schema of the selected partials, by building a graphql-java
+     *  schema from it. Validation is done once per schema fingerprint, and its result cached.
+     *
+     *  @param providerNamesOrRegexp selects partials, like for
+     *      {@link org.apache.sling.graphql.schema.aggregator.api.SchemaAggregator#aggregate}
+     *
+     *  @return the validation error messages, empty if the schema is valid
+     *
+     *  @throws IOException if an exact provider name is not found
+     */
+    @NotNull
+    List<String> getValidationErrors(@NotNull String... providerNamesOrRegexp) throws IOException;
+
+    /** Validate the aggregated schema text which is output for the selected partials with the
+     *  supplied options, like {@link #getValidationErrors(String...)}. Options like
+     *  {@link SchemaAggregator.Option#PRUNE_UNREACHABLE_TYPES} change the schema, so this
+     *  validates the output itself instead of the merged registry. The result is cached per
+     *  schema fingerprint and options.
+     *
+     *  @param options output options, empty to validate the merged registry
+     *
+     *  @param providerNamesOrRegexp selects partials, like for
+     *      {@link org.apache.sling.graphql.schema.aggregator.api.SchemaAggregator#aggregate}
+     *
+     *  @return the validation error messages, empty if the schema is valid
+     *
+     *  @throws IOException if an exact provider name is not found
+     */
+    @NotNull
+    List<String> getValidationErrors(
+            @NotNull Set<SchemaAggregator.Option> options, @NotNull String... providerNamesOrRegexp) throws IOException;
+
+    /** Provide the result of the standard GraphQL introspection query for the aggregated
+     *  schema of the selected partials, as JSON. This is computed once per schema
+     *  fingerprint, and cached.
+     *
+     *  @param providerNamesOrRegexp selects partials, like for
+     *      {@link org.apache.sling.graphql.schema.aggregator.api.SchemaAggregator#aggregate}
+     *
+     *  @return the introspection result, in the standard GraphQL response format
+     *
+     *  @throws IOException if an exact provider name is not found, or if the schema is invalid
+     */
+    @NotNull
+    String getIntrospectionResult(@NotNull String... providerNamesOrRegexp) throws IOException;
+}
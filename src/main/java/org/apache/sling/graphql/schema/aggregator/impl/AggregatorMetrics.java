@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.util.function.LongSupplier;
+
+/** Facade for the metrics of this module, so that it does not depend on
+ *  a metrics implementation being present. The components use {@link #NOOP}
+ *  if no AggregatorMetrics service is available.
+ */
+public interface AggregatorMetrics {
+    String PREFIX = "sling.graphql.schema.aggregator.";
+
+    /** Time to aggregate a schema */
+    String AGGREGATION_TIME = PREFIX + "aggregation.time";
+
+    /** Number of characters written by an aggregation */
+    String AGGREGATION_SIZE = PREFIX + "aggregation.size";
+
+    /** Number of partials selected for an aggregation */
+    String AGGREGATION_PARTIALS = PREFIX + "aggregation.partials";
+
+    /** Hits and misses of the AggregatedSchema cache */
+    String SCHEMA_CACHE_HITS = PREFIX + "schema.cache.hits";
+
+    String SCHEMA_CACHE_MISSES = PREFIX + "schema.cache.misses";
+
+    /** Time to read and parse a partial, and its size in bytes */
+    String PARTIAL_PARSE_TIME = PREFIX + "partial.parse.time";
+
+    String PARTIAL_SIZE = PREFIX + "partial.size";
+
+    /** Provider bundles and partials added and removed */
+    String BUNDLES_ADDED = PREFIX + "bundles.added";
+
+    String BUNDLES_REMOVED = PREFIX + "bundles.removed";
+
+    String PARTIALS_ADDED = PREFIX + "partials.added";
+
+    String PARTIALS_REMOVED = PREFIX + "partials.removed";
+
+    /** Hits and misses of the graphql-java parsed partials and merged registries caches */
+    String TYPEREGISTRY_PARSE_CACHE_HITS = PREFIX + "typeregistry.parse.cache.hits";
+
+    String TYPEREGISTRY_PARSE_CACHE_MISSES = PREFIX + "typeregistry.parse.cache.misses";
+
+    String TYPEREGISTRY_CACHE_HITS = PREFIX + "typeregistry.cache.hits";
+
+    String TYPEREGISTRY_CACHE_MISSES = PREFIX + "typeregistry.cache.misses";
+
+    /** Schema requests rejected by the servlet's concurrency limit */
+    String AGGREGATIONS_REJECTED = PREFIX + "aggregations.rejected";
+
+    /** Schema requests whose aggregation was cancelled, as the client went away */
+    String AGGREGATIONS_CANCELLED = PREFIX + "aggregations.cancelled";
+
+    /** Size of the partials content kept by the content storage, UTF-8 encoded, and
+     *  number of bytes used to store it, which is smaller if the storage compresses it
+     */
+    String STORAGE_CONTENT_BYTES = PREFIX + "storage.content.bytes";
+
+    String STORAGE_STORED_BYTES = PREFIX + "storage.stored.bytes";
+
+    /** Stored bytes as a percentage of the content bytes, the compression ratio */
+    String STORAGE_STORED_PERCENT = PREFIX + "storage.stored.percent";
+
+    /** @return the name of the timer for the schemas served for a selector */
+    static String servletTime(String selector) {
+        return PREFIX + "servlet." + selector + ".time";
+    }
+
+    AggregatorMetrics NOOP = new AggregatorMetrics() {
+        @Override
+        public void time(String name, long nanos) {
+            // no metrics
+        }
+
+        @Override
+        public void count(String name, long n) {
+            // no metrics
+        }
+
+        @Override
+        public void update(String name, long value) {
+            // no metrics
+        }
+
+        @Override
+        public void gauge(String name, LongSupplier value) {
+            // no metrics
+        }
+    };
+
+    /** @return the supplied metrics, or NOOP if null */
+    static AggregatorMetrics orNoop(AggregatorMetrics m) {
+        return m == null ? NOOP : m;
+    }
+
+    /** Record a duration with the named timer */
+    void time(String name, long nanos);
+
+    /** Increment the named counter by n */
+    void count(String name, long n);
+
+    /** Record a value with the named histogram */
+    void update(String name, long value);
+
+    /** Publish the values of the supplier with the named gauge, replacing
+     *  the supplier previously set for that name if any.
+     */
+    void gauge(String name, LongSupplier value);
+}
@@ -30,10 +30,20 @@ class BundleEntryPartial extends PartialReader implements Comparable<BundleEntry
     private static final Logger log = LoggerFactory.getLogger(BundleEntryPartial.class.getName());
     private final String key;
     private final long bundleId;
+    private final String bundleSymbolicName;
 
-    private BundleEntryPartial(Bundle b, URL bundleEntry) throws IOException {
-        super(PartialInfo.fromURL(bundleEntry), new URLReaderSupplier(bundleEntry));
+    private BundleEntryPartial(Bundle b, URL bundleEntry, ContentStorage storage) throws IOException {
+        super(PartialInfo.fromURL(bundleEntry), new URLReaderSupplier(bundleEntry), storage);
         this.bundleId = b.getBundleId();
+        this.bundleSymbolicName = b.getSymbolicName();
+        this.key = String.format("%s(%d):%s", b.getSymbolicName(), b.getBundleId(), bundleEntry);
+    }
+
+    private BundleEntryPartial(Bundle b, URL bundleEntry, PartialIndex.Entry indexed, ContentStorage storage)
+            throws IOException {
+        super(PartialInfo.fromURL(bundleEntry), new URLReaderSupplier(bundleEntry), indexed, storage);
+        this.bundleId = b.getBundleId();
+        this.bundleSymbolicName = b.getSymbolicName();
         this.key = String.format("%s(%d):%s", b.getSymbolicName(), b.getBundleId(), bundleEntry);
     }
 
@@ -41,15 +51,53 @@ class BundleEntryPartial extends PartialReader implements Comparable<BundleEntry
      *  the supplied Bundle, or null if none can be built.
      */
     static BundleEntryPartial forBundle(Bundle b, String entryPath) throws IOException {
+        return forBundle(b, entryPath, null);
+    }
+
+    /** @return a BundleEntryPartialProvider for the entryPath in
+     *  the supplied Bundle, which keeps its content in the supplied
+     *  storage if not null, or null if none can be built.
+     */
+    static BundleEntryPartial forBundle(Bundle b, String entryPath, ContentStorage storage) throws IOException {
         final URL entry = b.getEntry(entryPath);
         if (entry == null) {
             log.info("Entry {} not found for bundle {}", entryPath, b.getSymbolicName());
             return null;
         } else {
-            return new BundleEntryPartial(b, entry);
+            return new BundleEntryPartial(b, entry, storage);
         }
     }
 
+    /** @return a BundleEntryPartialProvider for the entryPath in the supplied Bundle,
+     *  built from a PartialIndex entry without parsing it, or null if none can be built.
+     *  If the entry's content does not match the index, it is parsed instead.
+     */
+    static BundleEntryPartial forIndexEntry(
+            Bundle b, String entryPath, PartialIndex.Entry indexed, ContentStorage storage) throws IOException {
+        final URL entry = b.getEntry(entryPath);
+        if (entry == null) {
+            log.info("Indexed entry {} not found for bundle {}", entryPath, b.getSymbolicName());
+            return null;
+        }
+        final BundleEntryPartial result;
+        try {
+            result = new BundleEntryPartial(b, entry, indexed, storage);
+        } catch (PartialReader.IndexMismatchException ime) {
+            log.warn(
+                    "Partials index of bundle {} is out of date, parsing {}: {}",
+                    b.getSymbolicName(),
+                    entryPath,
+                    ime.getMessage());
+            return new BundleEntryPartial(b, entry, storage);
+        }
+        if (!result.getPartialInfo().toString().equals(indexed.getPartialName())) {
+            result.releaseContent();
+            throw new IOException(String.format(
+                    "Indexed partial name %s does not match entry %s", indexed.getPartialName(), entryPath));
+        }
+        return result;
+    }
+
     @Override
     public boolean equals(Object other) {
         if (other instanceof BundleEntryPartial) {
@@ -71,6 +119,10 @@ class BundleEntryPartial extends PartialReader implements Comparable<BundleEntry
         return bundleId;
     }
 
+    public String getBundleSymbolicName() {
+        return bundleSymbolicName;
+    }
+
     @Override
     public int compareTo(BundleEntryPartial o) {
         return getPartialInfo().compareTo(o.getPartialInfo());
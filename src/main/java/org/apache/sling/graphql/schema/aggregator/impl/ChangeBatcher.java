@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Batches changes until a quiet period has elapsed without any new change,
+ *  and then notifies listeners once for the whole batch. A batch is
+ *  never delayed by more than MAX_DELAY_FACTOR times the quiet period,
+ *  so that a continuous stream of changes cannot starve listeners.
+ *  A zero quiet period notifies listeners synchronously for each call to changed().
+ */
+class ChangeBatcher implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ChangeBatcher.class.getName());
+    static final int MAX_DELAY_FACTOR = 10;
+
+    private final long quietPeriodMsec;
+    private final ScheduledExecutorService executor;
+    private final List<ProvidersChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    private ScheduledFuture<?> pending;
+    private long batchStartMsec;
+    private int changesCount;
+    private long generation;
+
+    ChangeBatcher(long quietPeriodMsec) {
+        this.quietPeriodMsec = Math.max(0, quietPeriodMsec);
+        this.executor = this.quietPeriodMsec == 0
+                ? null
+                : Executors.newSingleThreadScheduledExecutor(r -> {
+                    final Thread t = new Thread(r, "sling-graphql-schema-aggregator-changes");
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    void addListener(ProvidersChangeListener l) {
+        listeners.add(l);
+    }
+
+    void removeListener(ProvidersChangeListener l) {
+        listeners.remove(l);
+    }
+
+    /** Record changes, which start a new batch or extend the current one
+     *  @param count how many partials were added or removed
+     */
+    void changed(int count) {
+        if (count <= 0) {
+            return;
+        }
+        if (executor == null) {
+            synchronized (this) {
+                changesCount += count;
+            }
+            flush();
+            return;
+        }
+        synchronized (this) {
+            final long now = System.currentTimeMillis();
+            if (changesCount == 0) {
+                batchStartMsec = now;
+            }
+            changesCount += count;
+            final long maxDelay = batchStartMsec + quietPeriodMsec * MAX_DELAY_FACTOR - now;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            pending = executor.schedule(this::flush, Math.min(quietPeriodMsec, maxDelay), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** @return the generation of the last published batch */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    private void flush() {
+        final long batchGeneration;
+        final int batchChanges;
+        synchronized (this) {
+            if (changesCount == 0) {
+                return;
+            }
+            batchGeneration = ++generation;
+            batchChanges = changesCount;
+            changesCount = 0;
+            pending = null;
+        }
+        log.info("Partial providers changed, generation {} has {} changes", batchGeneration, batchChanges);
+        for (ProvidersChangeListener l : listeners) {
+            try {
+                l.providersChanged(batchGeneration, batchChanges);
+            } catch (RuntimeException e) {
+                log.error("Exception in ProvidersChangeListener " + l, e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/** Writer that removes comments and redundant whitespace from the GraphQL SDL
+ *  that's written to it, while streaming. Whitespace runs are replaced by a single
+ *  space or newline, or removed when they are next to a punctuator. The content
+ *  of strings and block strings is kept as is.
+ */
+class CompactSdlWriter extends FilterWriter {
+    private static final String PUNCTUATORS = "!$&()[]{}:=@|,";
+
+    private enum State {
+        NORMAL,
+        COMMENT,
+        QUOTES,
+        STRING,
+        STRING_ESCAPE,
+        BLOCK_STRING
+    }
+
+    private State state = State.NORMAL;
+    private int quotesCount;
+    private int escapedQuotes;
+    private char pendingWhitespace;
+    private char lastWritten;
+
+    CompactSdlWriter(Writer out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        process((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            process(cbuf[i]);
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            process(str.charAt(i));
+        }
+    }
+
+    private void process(char c) throws IOException {
+        switch (state) {
+            case COMMENT:
+                if (c == '\n' || c == '\r') {
+                    state = State.NORMAL;
+                    whitespace(c);
+                }
+                break;
+            case QUOTES:
+                if (c == '"') {
+                    emit(c);
+                    if (++quotesCount == 3) {
+                        state = State.BLOCK_STRING;
+                        quotesCount = 0;
+                        escapedQuotes = 0;
+                    }
+                } else if (quotesCount == 1) {
+                    state = State.STRING;
+                    process(c);
+                } else {
+                    // empty "" string
+                    state = State.NORMAL;
+                    process(c);
+                }
+                break;
+            case STRING:
+                emit(c);
+                if (c == '\\') {
+                    state = State.STRING_ESCAPE;
+                } else if (c == '"' || c == '\n') {
+                    state = State.NORMAL;
+                }
+                break;
+            case STRING_ESCAPE:
+                emit(c);
+                state = State.STRING;
+                break;
+            case BLOCK_STRING:
+                emit(c);
+                if (c == '\\') {
+                    // \""" does not end a block string
+                    escapedQuotes = 3;
+                    quotesCount = 0;
+                } else if (c == '"' && escapedQuotes > 0) {
+                    escapedQuotes--;
+                } else if (c == '"') {
+                    if (++quotesCount == 3) {
+                        state = State.NORMAL;
+                    }
+                } else {
+                    escapedQuotes = 0;
+                    quotesCount = 0;
+                }
+                break;
+            default:
+                if (c == '#') {
+                    state = State.COMMENT;
+                } else if (Character.isWhitespace(c) || c == '\uFEFF') {
+                    whitespace(c);
+                } else {
+                    significant(c);
+                    if (c == '"') {
+                        state = State.QUOTES;
+                        quotesCount = 1;
+                    }
+                }
+        }
+    }
+
+    /** Keep the most significant whitespace of a run: a newline if there's one, else a space */
+    private void whitespace(char c) {
+        if (c == '\n' || c == '\r') {
+            pendingWhitespace = '\n';
+        } else if (pendingWhitespace == 0) {
+            pendingWhitespace = ' ';
+        }
+    }
+
+    private void significant(char c) throws IOException {
+        if (pendingWhitespace != 0
+                && lastWritten != 0
+                && PUNCTUATORS.indexOf(lastWritten) < 0
+                && PUNCTUATORS.indexOf(c) < 0) {
+            out.write(pendingWhitespace);
+        }
+        pendingWhitespace = 0;
+        emit(c);
+    }
+
+    private void emit(char c) throws IOException {
+        out.write(c);
+        lastWritten = c;
+    }
+}
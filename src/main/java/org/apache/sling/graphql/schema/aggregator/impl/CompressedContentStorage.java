@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** ContentStorage which keeps each content Deflate-compressed in a byte
+ *  array, and decompresses it every time it's read. Content which does not
+ *  get smaller when compressed, usually very small sections, is kept as is.
+ */
+final class CompressedContentStorage implements ContentStorage {
+    private final AtomicLong contentBytes = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+
+    @Override
+    public StoredContent store(String content) {
+        final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        final byte[] compressed = compress(bytes);
+        contentBytes.addAndGet(bytes.length);
+        final boolean isCompressed = compressed.length < bytes.length;
+        final byte[] stored = isCompressed ? compressed : bytes;
+        storedBytes.addAndGet(stored.length);
+        final int contentLength = bytes.length;
+        final AtomicBoolean released = new AtomicBoolean();
+        return new StoredContent() {
+            @Override
+            public Reader get() {
+                final InputStream input = new ByteArrayInputStream(stored);
+                return new InputStreamReader(
+                        isCompressed ? new InflaterInputStream(input) : input, StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public long getStoredBytes() {
+                return stored.length;
+            }
+
+            @Override
+            public void release() {
+                if (released.compareAndSet(false, true)) {
+                    contentBytes.addAndGet(-contentLength);
+                    storedBytes.addAndGet(-stored.length);
+                }
+            }
+        };
+    }
+
+    private static byte[] compress(byte[] bytes) {
+        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        final ByteArrayOutputStream result = new ByteArrayOutputStream(bytes.length / 2 + 16);
+        try (DeflaterOutputStream output = new DeflaterOutputStream(result, deflater)) {
+            output.write(bytes);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        } finally {
+            deflater.end();
+        }
+        return result.toByteArray();
+    }
+
+    @Override
+    public long getContentBytes() {
+        return contentBytes.get();
+    }
+
+    @Override
+    public long getStoredBytes() {
+        return storedBytes.get();
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.io.Reader;
+import java.util.function.Supplier;
+
+/** Keeps the content of partial sections in memory, so that it does not
+ *  need to be read again from the provider bundles for every aggregation.
+ */
+interface ContentStorage {
+    /** Supplies Readers which provide stored content */
+    interface StoredContent extends Supplier<Reader> {
+        /** @return the number of bytes used to store this content */
+        long getStoredBytes();
+
+        /** Release this content, which must not be used anymore: it is then
+         *  subtracted from the storage totals. Releasing it again has no effect.
+         */
+        void release();
+    }
+
+    /** Store content
+     *  @return a Supplier of Readers which provide the stored content
+     */
+    StoredContent store(String content);
+
+    /** @return the total size of the content currently stored, UTF-8 encoded */
+    long getContentBytes();
+
+    /** @return the total number of bytes currently used to store content */
+    long getStoredBytes();
+}
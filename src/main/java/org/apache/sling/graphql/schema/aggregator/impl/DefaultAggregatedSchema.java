@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.sling.graphql.schema.aggregator.api.AggregatedSchema;
+import org.jetbrains.annotations.NotNull;
+
+/** Immutable AggregatedSchema, which keeps both the text and its UTF-8 encoding */
+final class DefaultAggregatedSchema implements AggregatedSchema {
+    private final String text;
+    private final byte[] utf8;
+    private final String fingerprint;
+    private final List<String> partials;
+    private final long generation;
+    private final List<Segment> segments;
+
+    DefaultAggregatedSchema(
+            String text, String fingerprint, Collection<Partial> partials, long generation, List<Segment> segments) {
+        this.text = text;
+        this.utf8 = text.getBytes(StandardCharsets.UTF_8);
+        this.fingerprint = fingerprint;
+        final List<String> names = new ArrayList<>(partials.size());
+        partials.forEach(p -> names.add(p.getPartialInfo().toString()));
+        this.partials = Collections.unmodifiableList(names);
+        this.generation = generation;
+        this.segments = segments;
+    }
+
+    @Override
+    public @NotNull CharSequence getText() {
+        return text;
+    }
+
+    @Override
+    public @NotNull ByteBuffer getUtf8Bytes() {
+        return ByteBuffer.wrap(utf8).asReadOnlyBuffer();
+    }
+
+    @Override
+    public @NotNull String getFingerprint() {
+        return fingerprint;
+    }
+
+    @Override
+    public @NotNull List<String> getPartials() {
+        return partials;
+    }
+
+    @Override
+    public long getGeneration() {
+        return generation;
+    }
+
+    @Override
+    public @NotNull List<Segment> getSegments() {
+        return segments;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s[generation=%d, %s, partials=%s]", getClass().getSimpleName(), generation, fingerprint, partials);
+    }
+}
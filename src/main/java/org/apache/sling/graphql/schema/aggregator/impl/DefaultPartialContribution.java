@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.graphql.schema.aggregator.api.PartialContribution;
+import org.jetbrains.annotations.NotNull;
+
+/** Immutable PartialContribution */
+class DefaultPartialContribution implements PartialContribution {
+    private final String partialName;
+    private final List<String> requiredBy;
+    private final Map<String, Long> sectionBytes;
+    private final long totalBytes;
+
+    DefaultPartialContribution(String partialName, List<String> requiredBy, Map<String, Long> sectionBytes) {
+        this.partialName = partialName;
+        this.requiredBy = Collections.unmodifiableList(new ArrayList<>(requiredBy));
+        this.sectionBytes = Collections.unmodifiableMap(new LinkedHashMap<>(sectionBytes));
+        this.totalBytes =
+                sectionBytes.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    @Override
+    public @NotNull String getPartialName() {
+        return partialName;
+    }
+
+    @Override
+    public boolean isDirect() {
+        return requiredBy.isEmpty();
+    }
+
+    @Override
+    public @NotNull List<String> getRequiredBy() {
+        return requiredBy;
+    }
+
+    @Override
+    public @NotNull Map<String, Long> getSectionBytes() {
+        return sectionBytes;
+    }
+
+    @Override
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %s, %d bytes %s", getClass().getSimpleName(), partialName, totalBytes, requiredBy);
+    }
+}
@@ -18,29 +18,78 @@
  */
 package org.apache.sling.graphql.schema.aggregator.impl;
 
+import javax.servlet.Servlet;
+
+import java.io.FilterReader;
+import java.io.FilterWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.sling.graphql.schema.aggregator.api.AggregatedSchema;
+import org.apache.sling.graphql.schema.aggregator.api.AggregationContext;
+import org.apache.sling.graphql.schema.aggregator.api.PartialContribution;
 import org.apache.sling.graphql.schema.aggregator.api.SchemaAggregator;
+import org.apache.sling.graphql.schema.aggregator.api.SchemaChangeListener;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.Version;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.event.EventAdmin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-@Component(service = SchemaAggregator.class)
+@Component(service = {SchemaAggregator.class, DefaultSchemaAggregator.class})
 public class DefaultSchemaAggregator implements SchemaAggregator {
     private static final Logger log = LoggerFactory.getLogger(DefaultSchemaAggregator.class.getName());
     public static final int MAX_REQUIREMENTS_RECURSION_LEVEL = 5;
 
+    /** The schema cache is cleared when it reaches this size, it's meant for a
+     *  limited number of configured selections, not for arbitrary requests.
+     */
+    static final int MAX_CACHED_SCHEMAS = 100;
+
+    /** Used when the caller does not supply an AggregationContext, to avoid measuring phases */
+    static final AggregationContext NO_CONTEXT = (phase, nanos) -> {};
+
+    /** The sections which are copied to the aggregated schema */
+    private static final Partial.SectionName[] OUTPUT_SECTIONS = {
+        Partial.SectionName.PROLOGUE, Partial.SectionName.QUERY, Partial.SectionName.MUTATION, Partial.SectionName.TYPES
+    };
+
     /** Some sections like Query {} are surround by blocks in
      *  the output.
      */
@@ -53,6 +102,122 @@ public class DefaultSchemaAggregator implements SchemaAggregator {
     @Reference
     private ProviderBundleTracker tracker;
 
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private volatile EventAdmin eventAdmin;
+
+    /** Only available if Sling Commons Metrics is present */
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private volatile AggregatorMetrics metrics;
+
+    private final List<SchemaChangeListener> schemaChangeListeners = new CopyOnWriteArrayList<>();
+
+    /** Last schema built for each combination of options and partial names */
+    private final Map<List<Object>, DefaultAggregatedSchema> schemaCache = new ConcurrentHashMap<>();
+
+    /** Reachability analysis, by schema fingerprint */
+    private final Map<String, UnreachableTypesPruner> pruners = new ConcurrentHashMap<>();
+
+    private final AtomicLong schemaCacheHits = new AtomicLong();
+    private final AtomicLong schemaCacheMisses = new AtomicLong();
+
+    private final SchemaChangeNotifier notifier =
+            new SchemaChangeNotifier(this::selectIfAvailable, schemaChangeListeners, () -> eventAdmin);
+
+    /** Counts the characters written to its target */
+    private static final class CountingWriter extends FilterWriter {
+        private long count;
+
+        CountingWriter(Writer target) {
+            super(target);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            super.write(c);
+            count++;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            super.write(cbuf, off, len);
+            count += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            super.write(str, off, len);
+            count += len;
+        }
+    }
+
+    /** Measures the time spent reading from its source */
+    private static final class TimingReader extends FilterReader {
+        private long nanos;
+
+        TimingReader(Reader source) {
+            super(source);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final long start = System.nanoTime();
+            try {
+                return super.read();
+            } finally {
+                nanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            final long start = System.nanoTime();
+            try {
+                return super.read(cbuf, off, len);
+            } finally {
+                nanos += System.nanoTime() - start;
+            }
+        }
+    }
+
+    @Activate
+    public void activate() {
+        notifier.activate();
+        tracker.addChangeListener(notifier);
+    }
+
+    @Deactivate
+    public void deactivate() {
+        tracker.removeChangeListener(notifier);
+        notifier.deactivate();
+    }
+
+    /** Servlets which have selector mappings tell us which schemas to watch for changes */
+    @Reference(
+            service = Servlet.class,
+            cardinality = ReferenceCardinality.MULTIPLE,
+            policy = ReferencePolicy.DYNAMIC,
+            target = "(" + SelectorMappings.MAPPING_PROPERTY + "=*)")
+    void bindMappingServlet(ServiceReference<Servlet> ref) {
+        notifier.addMappings(
+                ref.getProperty(Constants.SERVICE_ID),
+                SelectorMappings.fromProperty(ref.getProperty(SelectorMappings.MAPPING_PROPERTY)));
+    }
+
+    void unbindMappingServlet(ServiceReference<Servlet> ref) {
+        notifier.removeMappings(ref.getProperty(Constants.SERVICE_ID));
+    }
+
+    /** New listeners are notified of the current schemas, so that they can precompute what they need */
+    @Reference(cardinality = ReferenceCardinality.MULTIPLE, policy = ReferencePolicy.DYNAMIC)
+    void bindSchemaChangeListener(SchemaChangeListener listener) {
+        schemaChangeListeners.add(listener);
+        notifier.notifyCurrent(listener);
+    }
+
+    void unbindSchemaChangeListener(SchemaChangeListener listener) {
+        schemaChangeListeners.remove(listener);
+    }
+
     static String capitalize(Partial.SectionName name) {
         if (name == null) {
             return null;
@@ -67,29 +232,84 @@ public class DefaultSchemaAggregator implements SchemaAggregator {
         }
     }
 
-    private void copySection(Set<Partial> selected, Partial.SectionName sectionName, OutputMode mode, Writer target)
+    private void copySection(
+            Set<Partial> selected,
+            Partial.SectionName sectionName,
+            OutputMode mode,
+            Writer target,
+            boolean withSourceInfo,
+            UnreachableTypesPruner pruner,
+            AggregationContext ctx,
+            SchemaSegments segments)
             throws IOException {
+        final Object jfr = JfrEvents.SECTION_COPY.begin();
+        final long start = System.nanoTime();
+        long readNanos = 0;
         String prefixToWrite =
                 (mode == OutputMode.NO_BLOCK) ? null : String.format("\ntype %s {\n", capitalize(sectionName));
         boolean anyOutput = false;
+        int contributing = 0;
         for (Partial p : selected) {
-            final Optional<Partial.Section> section = p.getSection(sectionName);
-            if (section.isPresent()) {
-                anyOutput = true;
-                if (prefixToWrite != null) {
+            checkCancelled(ctx);
+            final long readStart = System.nanoTime();
+            // close the content, storages like the compressed one hold native resources
+            try (Reader content = getContent(p, sectionName, pruner)) {
+                readNanos += System.nanoTime() - readStart;
+                if (content != null) {
+                    anyOutput = true;
+                    contributing++;
+                    if (prefixToWrite != null) {
+                        target.write(prefixToWrite);
+                        prefixToWrite = null;
+                    }
+                    if (segments != null) {
+                        segments.start(SchemaSegments.source(p, sectionName));
+                    }
+                    if (withSourceInfo) {
+                        writeSourceInfo(target, p);
+                    }
+                    if (ctx == NO_CONTEXT) {
+                        IOUtils.copy(content, target);
+                    } else {
+                        final TimingReader timing = new TimingReader(content);
+                        IOUtils.copy(timing, target);
+                        readNanos += timing.nanos;
+                    }
+                    if (segments != null) {
+                        segments.start(null);
+                    }
+                } else if (mode == OutputMode.WITH_BLOCK && prefixToWrite != null) {
                     target.write(prefixToWrite);
                     prefixToWrite = null;
                 }
-                writeSourceInfo(target, p);
-                IOUtils.copy(section.get().getContent(), target);
-            } else if (mode == OutputMode.WITH_BLOCK && prefixToWrite != null) {
-                target.write(prefixToWrite);
-                prefixToWrite = null;
             }
         }
         if ((anyOutput && mode == OutputMode.WITH_BLOCK_IF_NOT_EMPTY) || mode == OutputMode.WITH_BLOCK) {
             target.write(String.format("\n}\n"));
         }
+        if (jfr != null) {
+            JfrEvents.SECTION_COPY.commit(jfr, sectionName.toString(), (long) contributing);
+        }
+        ctx.recordPhase(AggregationContext.PHASE_READ, readNanos);
+        ctx.recordPhase(AggregationContext.PHASE_WRITE, System.nanoTime() - start - readNanos);
+    }
+
+    /** @throws InterruptedIOException if the caller cancelled the aggregation */
+    private static void checkCancelled(AggregationContext ctx) throws InterruptedIOException {
+        if (ctx.isCancelled()) {
+            throw new InterruptedIOException("Aggregation cancelled");
+        }
+    }
+
+    /** @return the content of a section, null if not present or if the pruner removed all of it */
+    private static Reader getContent(Partial p, Partial.SectionName sectionName, UnreachableTypesPruner pruner)
+            throws IOException {
+        if (pruner != null && pruner.filters(sectionName)) {
+            final String pruned = pruner.getContent(p, sectionName);
+            return pruned == null ? null : new StringReader(pruned);
+        }
+        final Optional<Partial.Section> section = p.getSection(sectionName);
+        return section.isPresent() ? section.get().getContent() : null;
     }
 
     private void writeSourceInfo(Writer target, Partial p) throws IOException {
@@ -97,32 +317,166 @@ public class DefaultSchemaAggregator implements SchemaAggregator {
     }
 
     @Override
-    public void aggregate(Writer target, String... providerNamesOrRegexp) throws IOException {
-        final String info =
-                String.format("Schema aggregated by %s\n", getClass().getSimpleName());
-        target.write(String.format("# %s", info));
+    public void aggregate(Writer target, Set<Option> options, String... providerNamesOrRegexp) throws IOException {
+        aggregate(target, NO_CONTEXT, options, providerNamesOrRegexp);
+    }
 
-        // build list of selected providers
-        final Map<PartialInfo, Partial> providers = tracker.getSchemaProviders();
-        if (log.isDebugEnabled()) {
-            log.debug(
-                    "Aggregating schemas, request={}, providers={}",
-                    Arrays.asList(providerNamesOrRegexp),
-                    providers.keySet());
+    @Override
+    public void aggregate(Writer target, AggregationContext ctx, Set<Option> options, String... providerNamesOrRegexp)
+            throws IOException {
+        final long start = System.nanoTime();
+        final Object jfr = JfrEvents.AGGREGATION.begin();
+        final boolean compact = options.contains(Option.COMPACT);
+        final CountingWriter counting = new CountingWriter(target);
+        if (!compact) {
+            writeHeader(counting);
         }
-        final Set<String> missing = new HashSet<>();
-        final Set<Partial> selected = selectProviders(providers, missing, providerNamesOrRegexp);
+        final Set<Partial> selected = select(ctx, providerNamesOrRegexp);
+        write(counting, options, selected, ctx, null);
+        counting.flush();
+        recordAggregation(start, jfr, counting.count, selected.size(), providerNamesOrRegexp);
+    }
 
-        if (!missing.isEmpty()) {
-            log.debug("Requested providers {} not found in {}", missing, providers.keySet());
-            throw new IOException(String.format("Missing providers: %s", missing));
+    private void recordAggregation(
+            long startNanos, Object jfr, long size, int partialsCount, String... providerNamesOrRegexp) {
+        final AggregatorMetrics m = AggregatorMetrics.orNoop(metrics);
+        m.time(AggregatorMetrics.AGGREGATION_TIME, System.nanoTime() - startNanos);
+        m.update(AggregatorMetrics.AGGREGATION_SIZE, size);
+        m.update(AggregatorMetrics.AGGREGATION_PARTIALS, partialsCount);
+        if (jfr != null) {
+            JfrEvents.AGGREGATION.commit(jfr, Arrays.toString(providerNamesOrRegexp), (long) partialsCount, size);
         }
+    }
+
+    @Override
+    public AggregatedSchema getSchema(Set<Option> options, String... providerNamesOrRegexp) throws IOException {
+        return getSchema(NO_CONTEXT, options, providerNamesOrRegexp);
+    }
+
+    @Override
+    public AggregatedSchema getSchema(AggregationContext ctx, Set<Option> options, String... providerNamesOrRegexp)
+            throws IOException {
+        return getSchema(ctx, options, null, providerNamesOrRegexp);
+    }
+
+    /** Aggregate the schemas in a single pass, where the content of the partials
+     *  which are shared by several schemas that are not cached is read only once.
+     */
+    @Override
+    public Map<String, AggregatedSchema> getSchemas(
+            AggregationContext ctx, Set<Option> options, Map<String, String[]> selections) throws IOException {
+        final Map<Partial, Partial> memo = new HashMap<>();
+        final Map<String, AggregatedSchema> result = new LinkedHashMap<>();
+        for (Map.Entry<String, String[]> e : selections.entrySet()) {
+            result.put(e.getKey(), getSchema(ctx, options, memo, e.getValue()));
+        }
+        return result;
+    }
+
+    /** @param memo if not null, the content of partials is read through the MemoizedPartial
+     *      that this holds for them, to share it with other schemas
+     */
+    private AggregatedSchema getSchema(
+            AggregationContext ctx, Set<Option> options, Map<Partial, Partial> memo, String... providerNamesOrRegexp)
+            throws IOException {
+        final List<Object> key = cacheKey(options, providerNamesOrRegexp);
+        final long start = System.nanoTime();
+        final Object jfr = JfrEvents.AGGREGATION.begin();
+        final long generation = tracker.getGeneration();
+        final Set<Partial> selected = select(ctx, providerNamesOrRegexp);
+        final String fingerprint = fingerprint(selected);
+        final DefaultAggregatedSchema cached = lookup(ctx, key, fingerprint);
+        if (cached != null) {
+            return cached;
+        }
+        schemaCacheMisses.incrementAndGet();
+        AggregatorMetrics.orNoop(metrics).count(AggregatorMetrics.SCHEMA_CACHE_MISSES, 1);
+
+        final StringWriter text = new StringWriter();
+        final SchemaSegments segments = new SchemaSegments(text);
+        if (!options.contains(Option.COMPACT)) {
+            writeHeader(text);
+        }
+        write(text, options, memo == null ? selected : memoized(selected, memo), ctx, segments);
+        final String str = text.toString();
+        final DefaultAggregatedSchema built =
+                new DefaultAggregatedSchema(str, fingerprint, selected, generation, segments.getSegments(str));
+        recordAggregation(start, jfr, text.getBuffer().length(), selected.size(), providerNamesOrRegexp);
+        log.debug("Built {}", built);
+        if (schemaCache.size() >= MAX_CACHED_SCHEMAS) {
+            schemaCache.clear();
+        }
+        // if another thread built the same schema concurrently, keep its instance
+        return schemaCache.compute(
+                key, (k, old) -> old != null && old.getFingerprint().equals(fingerprint) ? old : built);
+    }
+
+    @Override
+    public AggregatedSchema getCachedSchema(
+            AggregationContext ctx, Set<Option> options, String... providerNamesOrRegexp) throws IOException {
+        return lookup(ctx, cacheKey(options, providerNamesOrRegexp), fingerprint(select(ctx, providerNamesOrRegexp)));
+    }
+
+    private static List<Object> cacheKey(Set<Option> options, String... providerNamesOrRegexp) {
+        return Arrays.asList(
+                options.isEmpty() ? EnumSet.noneOf(Option.class) : EnumSet.copyOf(options),
+                Arrays.asList(providerNamesOrRegexp));
+    }
+
+    /** @return the cached schema if it has the supplied fingerprint, counted as a cache hit, or null */
+    private DefaultAggregatedSchema lookup(AggregationContext ctx, List<Object> key, String fingerprint) {
+        final long lookupStart = System.nanoTime();
+        final DefaultAggregatedSchema cached = schemaCache.get(key);
+        if (cached == null || !cached.getFingerprint().equals(fingerprint)) {
+            return null;
+        }
+        schemaCacheHits.incrementAndGet();
+        AggregatorMetrics.orNoop(metrics).count(AggregatorMetrics.SCHEMA_CACHE_HITS, 1);
+        ctx.recordPhase(AggregationContext.PHASE_CACHE_HIT, System.nanoTime() - lookupStart);
+        return cached;
+    }
+
+    private static Set<Partial> memoized(Set<Partial> selected, Map<Partial, Partial> memo) {
+        final Set<Partial> result = new LinkedHashSet<>();
+        selected.forEach(p -> result.add(memo.computeIfAbsent(p, MemoizedPartial::new)));
+        return result;
+    }
+
+    private void writeHeader(Writer target) throws IOException {
+        final String info =
+                String.format("Schema aggregated by %s\n", getClass().getSimpleName());
+        target.write(String.format("# %s", info));
+    }
+
+    /** @param segments if not null, records the segments of the output */
+    private void write(
+            Writer target, Set<Option> options, Set<Partial> selected, AggregationContext ctx, SchemaSegments segments)
+            throws IOException {
+        final boolean compact = options.contains(Option.COMPACT);
+        checkCancelled(ctx);
 
         // copy sections that belong in the output SDL
-        copySection(selected, Partial.SectionName.PROLOGUE, OutputMode.NO_BLOCK, target);
-        copySection(selected, Partial.SectionName.QUERY, OutputMode.WITH_BLOCK, target);
-        copySection(selected, Partial.SectionName.MUTATION, OutputMode.WITH_BLOCK_IF_NOT_EMPTY, target);
-        copySection(selected, Partial.SectionName.TYPES, OutputMode.NO_BLOCK, target);
+        final long pruneStart = System.nanoTime();
+        final UnreachableTypesPruner pruner =
+                options.contains(Option.PRUNE_UNREACHABLE_TYPES) ? getPruner(selected) : null;
+        ctx.recordPhase(AggregationContext.PHASE_READ, System.nanoTime() - pruneStart);
+        final Writer out = compact ? new CompactSdlWriter(target) : target;
+        copySection(selected, Partial.SectionName.PROLOGUE, OutputMode.NO_BLOCK, out, !compact, pruner, ctx, segments);
+        copySection(selected, Partial.SectionName.QUERY, OutputMode.WITH_BLOCK, out, !compact, pruner, ctx, segments);
+        copySection(
+                selected,
+                Partial.SectionName.MUTATION,
+                OutputMode.WITH_BLOCK_IF_NOT_EMPTY,
+                out,
+                !compact,
+                pruner,
+                ctx,
+                segments);
+        copySection(selected, Partial.SectionName.TYPES, OutputMode.NO_BLOCK, out, !compact, pruner, ctx, segments);
+        if (compact) {
+            out.flush();
+            return;
+        }
 
         final StringBuilder partialNames = new StringBuilder();
         selected.forEach(p -> {
@@ -136,45 +490,220 @@ public class DefaultSchemaAggregator implements SchemaAggregator {
                 partialNames, getClass().getSimpleName()));
     }
 
+    /** The reachability analysis only depends on the selected partials, so we cache it by fingerprint */
+    private UnreachableTypesPruner getPruner(Set<Partial> selected) throws IOException {
+        final String fingerprint = fingerprint(selected);
+        UnreachableTypesPruner result = pruners.get(fingerprint);
+        if (result == null) {
+            result = new UnreachableTypesPruner(selected);
+            log.debug("{} unreachable type definitions removed from schema {}", result.getRemovedCount(), fingerprint);
+            if (pruners.size() >= MAX_CACHED_SCHEMAS) {
+                pruners.clear();
+            }
+            pruners.put(fingerprint, result);
+        }
+        return result;
+    }
+
+    @Override
+    public List<PartialContribution> getContributions(String... providerNamesOrRegexp) throws IOException {
+        final Set<String> missing = new HashSet<>();
+        final Map<Partial, List<String>> paths = new HashMap<>();
+        final Set<Partial> selected =
+                selectProviders(tracker.getSchemaProviders(), missing, NO_CONTEXT, paths, providerNamesOrRegexp);
+        if (!missing.isEmpty()) {
+            throw new IOException(String.format("Missing providers: %s", missing));
+        }
+        final List<PartialContribution> result = new ArrayList<>();
+        for (Partial p : selected) {
+            final Map<String, Long> sectionBytes = new LinkedHashMap<>();
+            for (Partial.SectionName name : OUTPUT_SECTIONS) {
+                final Optional<Partial.Section> section = p.getSection(name);
+                if (section.isPresent()) {
+                    try (Reader r = section.get().getContent()) {
+                        sectionBytes.put(name.toString(), utf8Length(r));
+                    }
+                }
+            }
+            result.add(new DefaultPartialContribution(p.getPartialInfo().toString(), paths.get(p), sectionBytes));
+        }
+        return result;
+    }
+
+    /** @return the number of bytes that the content of r takes when UTF-8 encoded */
+    static long utf8Length(Reader r) throws IOException {
+        final char[] buffer = new char[4096];
+        long result = 0;
+        int n;
+        while ((n = r.read(buffer)) > 0) {
+            for (int i = 0; i < n; i++) {
+                final char c = buffer[i];
+                if (c < 0x80) {
+                    result += 1;
+                } else if (c < 0x800) {
+                    result += 2;
+                } else if (Character.isHighSurrogate(c)) {
+                    // a surrogate pair is a 4 bytes code point
+                    result += 4;
+                } else if (!Character.isLowSurrogate(c)) {
+                    result += 3;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** @return statistics about our caches, for diagnostics */
+    Map<String, Long> getCacheStatistics() {
+        final Map<String, Long> result = new LinkedHashMap<>();
+        result.put("schemaCacheSize", (long) schemaCache.size());
+        result.put("schemaCacheHits", schemaCacheHits.get());
+        result.put("schemaCacheMisses", schemaCacheMisses.get());
+        result.put("prunersCacheSize", (long) pruners.size());
+        return result;
+    }
+
+    /** @return the selectors of the schemas which use each partial, for the selectors
+     *  which are watched for changes, meaning those of the SchemaAggregatorServlets.
+     */
+    Map<PartialInfo, Set<String>> getSelectorsByPartial() {
+        final Map<PartialInfo, Set<String>> result = new HashMap<>();
+        new TreeMap<>(notifier.getWatchedSelectors()).forEach((sel, names) -> {
+            final Collection<Partial> selected = selectIfAvailable(names);
+            if (selected != null) {
+                selected.forEach(p -> result.computeIfAbsent(p.getPartialInfo(), k -> new TreeSet<>())
+                        .add(sel));
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public String getFingerprint(String... providerNamesOrRegexp) throws IOException {
+        return fingerprint(select(providerNamesOrRegexp));
+    }
+
+    /** Build the list of selected providers
+     *  @throws IOException if any are missing
+     */
+    Set<Partial> select(String... providerNamesOrRegexp) throws IOException {
+        return select(NO_CONTEXT, providerNamesOrRegexp);
+    }
+
+    private Set<Partial> select(AggregationContext ctx, String... providerNamesOrRegexp) throws IOException {
+        final Object jfr = JfrEvents.SELECTION.begin();
+        final NavigableMap<PartialInfo, Partial> providers = tracker.getSchemaProviders();
+        if (log.isDebugEnabled()) {
+            log.debug(
+                    "Selecting partials, request={}, providers={}",
+                    Arrays.asList(providerNamesOrRegexp),
+                    providers.keySet());
+        }
+        final Set<String> missing = new HashSet<>();
+        final Set<Partial> selected = selectProviders(providers, missing, ctx, providerNamesOrRegexp);
+
+        if (!missing.isEmpty()) {
+            log.debug("Requested providers {} not found in {}", missing, providers.keySet());
+            throw new IOException(String.format("Missing providers: %s", missing));
+        }
+        if (jfr != null) {
+            JfrEvents.SELECTION.commit(jfr, Arrays.toString(providerNamesOrRegexp), (long) selected.size());
+        }
+        return selected;
+    }
+
+    /** @return the selected partials, or null if any are missing */
+    private Collection<Partial> selectIfAvailable(String... providerNamesOrRegexp) {
+        try {
+            return select(providerNamesOrRegexp);
+        } catch (IOException | RuntimeException e) {
+            log.debug("Selection failed for {}", Arrays.asList(providerNamesOrRegexp), e);
+            return null;
+        }
+    }
+
+    /** @return a fingerprint of the schema built from the supplied partials, computed
+     *  from their names and digests only, in the same format as the partial digests.
+     */
+    static String fingerprint(Collection<Partial> selected) {
+        final MessageDigest md = DigestUtils.getSha256Digest();
+        for (Partial p : selected) {
+            md.update(p.getPartialInfo().toString().getBytes(StandardCharsets.UTF_8));
+            md.update((byte) '\n');
+            md.update(p.getDigest().getBytes(StandardCharsets.UTF_8));
+            md.update((byte) '\n');
+        }
+        return "SHA-256: " + Hex.encodeHexString(md.digest());
+    }
+
+    /** Select partials and resolve their requirements, recording the time spent on
+     *  each in the supplied context.
+     */
     Set<Partial> selectProviders(
-            Map<PartialInfo, Partial> providers, Set<String> missing, String... providerNamesOrRegexp) {
+            NavigableMap<PartialInfo, Partial> providers,
+            Set<String> missing,
+            AggregationContext ctx,
+            String... providerNamesOrRegexp) {
+        return selectProviders(providers, missing, ctx, null, providerNamesOrRegexp);
+    }
+
+    /** Select partials like {@link #selectProviders(NavigableMap, Set, AggregationContext, String...)}
+     *  and, if paths is not null, save in it the shortest requirements path via which each
+     *  partial was selected, empty for partials which are selected directly.
+     */
+    private Set<Partial> selectProviders(
+            NavigableMap<PartialInfo, Partial> providers,
+            Set<String> missing,
+            AggregationContext ctx,
+            Map<Partial, List<String>> paths,
+            String... providerNamesOrRegexp) {
+        final long start = System.nanoTime();
+        final long[] resolveNanos = new long[1];
         final Set<Partial> result = new LinkedHashSet<>();
         for (String str : providerNamesOrRegexp) {
             final Pattern p = toRegexp(str);
             if (p != null) {
-                log.debug("Selecting providers matching {}", p);
-                providers.entrySet().stream()
-                        .filter(e -> p.matcher(e.getKey().getName()).matches())
-                        .sorted(Comparator.comparing(e -> e.getValue().getPartialInfo()))
-                        .forEach(e -> addWithRequirements(providers, result, missing, e.getValue(), 0));
+                // providers are sorted by PartialInfo, so only the range of names which
+                // start with the regexp's literal prefix (if any) needs to be scanned
+                final String prefix = literalPrefix(p.pattern());
+                log.debug("Selecting providers matching {}, literal prefix [{}]", p, prefix);
+                final Map<PartialInfo, Partial> candidates = prefix.isEmpty()
+                        ? providers
+                        : providers.subMap(
+                                new PartialInfo(prefix, Version.emptyVersion),
+                                true,
+                                new PartialInfo(prefix + Character.MAX_VALUE, Version.emptyVersion),
+                                false);
+                candidates.forEach((info, partial) -> {
+                    if (p.matcher(info.getName()).matches()) {
+                        final long resolveStart = System.nanoTime();
+                        addWithRequirements(result, missing, partial, paths, Collections.emptyList());
+                        resolveNanos[0] += System.nanoTime() - resolveStart;
+                    }
+                });
             } else {
                 log.debug("Selecting provider with key={}", str);
-                Optional<PartialInfo> fromString =
-                        PartialInfo.fromRequiresSection(str).stream().findFirst();
-                if (fromString.isPresent()) {
-                    PartialInfo selected = fromString.get();
-                    final Partial psp = providers.get(selected);
-                    if (psp == null) {
-                        missing.add(str);
-                        continue;
-                    }
-                    addWithRequirements(providers, result, missing, psp, 0);
-                } else {
+                final PartialRequirement req = PartialRequirement.parse(str);
+                final Partial psp = req == null ? null : tracker.resolve(req);
+                if (psp == null) {
                     missing.add(str);
+                    continue;
                 }
+                final long resolveStart = System.nanoTime();
+                addWithRequirements(result, missing, psp, paths, Collections.emptyList());
+                resolveNanos[0] += System.nanoTime() - resolveStart;
             }
         }
+        ctx.recordPhase(AggregationContext.PHASE_RESOLVE, resolveNanos[0]);
+        ctx.recordPhase(AggregationContext.PHASE_SELECT, System.nanoTime() - start - resolveNanos[0]);
         return result;
     }
 
     private void addWithRequirements(
-            Map<PartialInfo, Partial> providers,
-            Set<Partial> addTo,
-            Set<String> missing,
-            Partial p,
-            int recursionLevel) {
+            Set<Partial> addTo, Set<String> missing, Partial p, Map<Partial, List<String>> paths, List<String> path) {
 
         // simplistic cycle detection
+        final int recursionLevel = path.size();
         if (recursionLevel > MAX_REQUIREMENTS_RECURSION_LEVEL) {
             throw new RuntimeException(String.format(
                     "Requirements depth over %d, requirements cycle suspected at partial %s",
@@ -182,12 +711,21 @@ public class DefaultSchemaAggregator implements SchemaAggregator {
         }
 
         addTo.add(p);
-        for (PartialInfo req : p.getRequiredPartialNames()) {
-            final Partial preq = providers.get(req);
+        if (paths != null) {
+            paths.merge(p, path, (a, b) -> b.size() < a.size() ? b : a);
+        }
+        final Set<PartialRequirement> requirements = p.getRequiredPartialNames();
+        if (requirements.isEmpty()) {
+            return;
+        }
+        final List<String> requirementPath = new ArrayList<>(path);
+        requirementPath.add(p.getPartialInfo().toString());
+        for (PartialRequirement req : requirements) {
+            final Partial preq = tracker.resolve(req);
             if (preq == null) {
                 missing.add(req.toString());
             } else {
-                addWithRequirements(providers, addTo, missing, preq, recursionLevel + 1);
+                addWithRequirements(addTo, missing, preq, paths, requirementPath);
             }
         }
     }
@@ -198,4 +736,38 @@ public class DefaultSchemaAggregator implements SchemaAggregator {
         }
         return null;
     }
+
+    /** @return the literal text that all strings matched by the supplied
+     *  regexp start with, empty if there's none or if we're not sure.
+     */
+    static String literalPrefix(String regexp) {
+        if (regexp.indexOf('|') >= 0) {
+            return "";
+        }
+        final StringBuilder result = new StringBuilder();
+        int i = 0;
+        while (i < regexp.length()) {
+            final int lengthBefore = result.length();
+            final char c = regexp.charAt(i);
+            if (c == '\\') {
+                // only escaped punctuation is literal, \d, \Q etc. are not
+                if (i + 1 >= regexp.length() || Character.isLetterOrDigit(regexp.charAt(i + 1))) {
+                    break;
+                }
+                result.append(regexp.charAt(i + 1));
+                i += 2;
+            } else if ("[](){}.*+?^$".indexOf(c) >= 0) {
+                break;
+            } else {
+                result.append(c);
+                i++;
+            }
+            // A quantifier that allows zero occurrences makes the last character optional
+            if (i < regexp.length() && "?*{".indexOf(regexp.charAt(i)) >= 0) {
+                result.setLength(lengthBefore);
+                break;
+            }
+        }
+        return result.toString();
+    }
 }
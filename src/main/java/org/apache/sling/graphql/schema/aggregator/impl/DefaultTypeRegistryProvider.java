@@ -0,0 +1,353 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.GraphQLError;
+import graphql.introspection.IntrospectionQuery;
+import graphql.language.FieldDefinition;
+import graphql.language.ObjectTypeDefinition;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.idl.SchemaParser;
+import graphql.schema.idl.TypeDefinitionRegistry;
+import graphql.schema.idl.UnExecutableSchemaGenerator;
+import graphql.schema.idl.errors.SchemaProblem;
+import org.apache.commons.io.IOUtils;
+import org.apache.sling.graphql.schema.aggregator.api.AggregatedSchema;
+import org.apache.sling.graphql.schema.aggregator.api.SchemaAggregator;
+import org.apache.sling.graphql.schema.aggregator.api.typeregistry.TypeRegistryProvider;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Parses each partial once per digest into graphql-java TypeDefinitionRegistry
+ *  objects, and merges those for the selected partials. This component
+ *  only works if graphql-java is present, which is an optional dependency:
+ *  it requires the service that GraphQLJavaWiring only registers in that case.
+ */
+@Component(service = TypeRegistryProvider.class)
+public class DefaultTypeRegistryProvider implements TypeRegistryProvider, ProvidersChangeListener {
+    private static final Logger log = LoggerFactory.getLogger(DefaultTypeRegistryProvider.class.getName());
+
+    /** Keeps this component inactive, without loading its class, if graphql-java is not wired */
+    @Reference
+    private GraphQLJavaWiring.Available graphQLJava;
+
+    @Reference
+    private ProviderBundleTracker tracker;
+
+    /** The implementation, so that the fingerprint and the registry are built from the same selection */
+    @Reference
+    private DefaultSchemaAggregator aggregator;
+
+    /** Only available if Sling Commons Metrics is present */
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private volatile AggregatorMetrics metrics;
+
+    /** Parsed partials, by digest */
+    private final Map<String, ParsedPartial> parsedPartials = new ConcurrentHashMap<>();
+
+    /** Last merged registry for each selection */
+    private final Map<List<String>, MergedRegistry> mergedRegistries = new ConcurrentHashMap<>();
+
+    /** Validation errors, by schema fingerprint, followed by the output options if any */
+    private final Map<String, List<String>> validationErrors = new ConcurrentHashMap<>();
+
+    /** Introspection results, by schema fingerprint */
+    private final Map<String, String> introspectionResults = new ConcurrentHashMap<>();
+
+    /** The sections of a partial, parsed */
+    static class ParsedPartial {
+        final TypeDefinitionRegistry types;
+        final List<FieldDefinition> queryFields;
+        final List<FieldDefinition> mutationFields;
+
+        ParsedPartial(
+                TypeDefinitionRegistry types, List<FieldDefinition> queryFields, List<FieldDefinition> mutationFields) {
+            this.types = types;
+            this.queryFields = queryFields;
+            this.mutationFields = mutationFields;
+        }
+    }
+
+    private static class MergedRegistry {
+        final String fingerprint;
+        final TypeDefinitionRegistry registry;
+
+        MergedRegistry(String fingerprint, TypeDefinitionRegistry registry) {
+            this.fingerprint = fingerprint;
+            this.registry = registry;
+        }
+    }
+
+    @Activate
+    public void activate() {
+        tracker.addChangeListener(this);
+    }
+
+    @Deactivate
+    public void deactivate() {
+        tracker.removeChangeListener(this);
+        parsedPartials.clear();
+        mergedRegistries.clear();
+        validationErrors.clear();
+        introspectionResults.clear();
+    }
+
+    @Override
+    public TypeDefinitionRegistry getTypeDefinitionRegistry(String... providerNamesOrRegexp) throws IOException {
+        final Set<Partial> selected = aggregator.select(providerNamesOrRegexp);
+        final String fingerprint = DefaultSchemaAggregator.fingerprint(selected);
+        final List<String> key = Arrays.asList(providerNamesOrRegexp);
+        final MergedRegistry cached = mergedRegistries.get(key);
+        if (cached != null && cached.fingerprint.equals(fingerprint)) {
+            AggregatorMetrics.orNoop(metrics).count(AggregatorMetrics.TYPEREGISTRY_CACHE_HITS, 1);
+            return cached.registry;
+        }
+        AggregatorMetrics.orNoop(metrics).count(AggregatorMetrics.TYPEREGISTRY_CACHE_MISSES, 1);
+        final TypeDefinitionRegistry registry = merge(selected);
+        if (mergedRegistries.size() >= DefaultSchemaAggregator.MAX_CACHED_SCHEMAS) {
+            mergedRegistries.clear();
+        }
+        // if another thread merged the same schema concurrently, keep its instance
+        return mergedRegistries.compute(
+                        key,
+                        (k, old) -> old != null && old.fingerprint.equals(fingerprint)
+                                ? old
+                                : new MergedRegistry(fingerprint, registry))
+                .registry;
+    }
+
+    @Override
+    public List<String> getValidationErrors(String... providerNamesOrRegexp) throws IOException {
+        // missing partials are not a validation error
+        final String fingerprint = aggregator.getFingerprint(providerNamesOrRegexp);
+        final List<String> cached = validationErrors.get(fingerprint);
+        if (cached != null) {
+            return cached;
+        }
+        List<String> errors;
+        try {
+            UnExecutableSchemaGenerator.makeUnExecutableSchema(getTypeDefinitionRegistry(providerNamesOrRegexp));
+            errors = Collections.emptyList();
+        } catch (SchemaProblem e) {
+            errors = getMessages(e);
+        } catch (IOException e) {
+            if (!fingerprint.equals(aggregator.getFingerprint(providerNamesOrRegexp))) {
+                // partials changed while validating, that's not a validation error
+                throw e;
+            }
+            // partials which cannot be parsed or merged
+            errors = Collections.singletonList(e.getMessage());
+        }
+        return cacheValidationErrors(fingerprint, providerNamesOrRegexp, errors);
+    }
+
+    @Override
+    public List<String> getValidationErrors(Set<SchemaAggregator.Option> options, String... providerNamesOrRegexp)
+            throws IOException {
+        if (options.isEmpty()) {
+            return getValidationErrors(providerNamesOrRegexp);
+        }
+        final AggregatedSchema schema = aggregator.getSchema(options, providerNamesOrRegexp);
+        final String key = schema.getFingerprint() + " " + new TreeSet<>(options);
+        final List<String> cached = validationErrors.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        List<String> errors;
+        try {
+            UnExecutableSchemaGenerator.makeUnExecutableSchema(
+                    new SchemaParser().parse(schema.getText().toString()));
+            errors = Collections.emptyList();
+        } catch (SchemaProblem e) {
+            errors = getMessages(e);
+        }
+        return cacheValidationErrors(key, providerNamesOrRegexp, errors);
+    }
+
+    private static List<String> getMessages(SchemaProblem e) {
+        final List<String> result = new ArrayList<>();
+        for (GraphQLError err : e.getErrors()) {
+            result.add(err.getMessage());
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private List<String> cacheValidationErrors(String key, String[] providerNamesOrRegexp, List<String> errors) {
+        if (!errors.isEmpty()) {
+            log.warn("Schema {} for {} is invalid: {}", key, Arrays.asList(providerNamesOrRegexp), errors);
+        }
+        if (validationErrors.size() >= DefaultSchemaAggregator.MAX_CACHED_SCHEMAS) {
+            validationErrors.clear();
+        }
+        validationErrors.put(key, errors);
+        return errors;
+    }
+
+    @Override
+    public String getIntrospectionResult(String... providerNamesOrRegexp) throws IOException {
+        final String fingerprint = aggregator.getFingerprint(providerNamesOrRegexp);
+        final String cached = introspectionResults.get(fingerprint);
+        if (cached != null) {
+            return cached;
+        }
+        final GraphQLSchema schema;
+        try {
+            schema = UnExecutableSchemaGenerator.makeUnExecutableSchema(
+                    getTypeDefinitionRegistry(providerNamesOrRegexp));
+        } catch (SchemaProblem e) {
+            throw new IOException(String.format("Invalid schema %s: %s", fingerprint, e.getMessage()), e);
+        }
+        final ExecutionResult result =
+                GraphQL.newGraphQL(schema).build().execute(IntrospectionQuery.INTROSPECTION_QUERY);
+        if (!result.getErrors().isEmpty()) {
+            throw new IOException(
+                    String.format("Introspection of schema %s failed: %s", fingerprint, result.getErrors()));
+        }
+        final String json = JsonWriter.toJson(result.toSpecification());
+        log.debug("Computed introspection result for schema {}, {} characters", fingerprint, json.length());
+        if (introspectionResults.size() >= DefaultSchemaAggregator.MAX_CACHED_SCHEMAS) {
+            introspectionResults.clear();
+        }
+        introspectionResults.put(fingerprint, json);
+        return json;
+    }
+
+    /** Drop the parsed partials which are not provided anymore */
+    @Override
+    public void providersChanged(long generation, int changesCount) {
+        final Set<String> digests = new HashSet<>();
+        tracker.getSchemaProviders().values().forEach(p -> digests.add(p.getDigest()));
+        parsedPartials.keySet().retainAll(digests);
+    }
+
+    int getParsedPartialsCount() {
+        return parsedPartials.size();
+    }
+
+    private TypeDefinitionRegistry merge(Collection<Partial> selected) throws IOException {
+        final TypeDefinitionRegistry result = new TypeDefinitionRegistry();
+        final List<FieldDefinition> query = new ArrayList<>();
+        final List<FieldDefinition> mutation = new ArrayList<>();
+        for (Partial p : selected) {
+            final ParsedPartial parsed = parse(p);
+            try {
+                result.merge(parsed.types);
+            } catch (SchemaProblem e) {
+                throw new IOException(
+                        String.format("Cannot merge partial %s: %s", p.getPartialInfo(), e.getMessage()), e);
+            }
+            query.addAll(parsed.queryFields);
+            mutation.addAll(parsed.mutationFields);
+        }
+
+        // Like the aggregated SDL, always have a Query but only a Mutation if not empty
+        add(result, Partial.SectionName.QUERY, query);
+        if (!mutation.isEmpty()) {
+            add(result, Partial.SectionName.MUTATION, mutation);
+        }
+        return result;
+    }
+
+    private static void add(TypeDefinitionRegistry registry, Partial.SectionName section, List<FieldDefinition> fields)
+            throws IOException {
+        final Optional<GraphQLError> error = registry.add(ObjectTypeDefinition.newObjectTypeDefinition()
+                .name(DefaultSchemaAggregator.capitalize(section))
+                .fieldDefinitions(fields)
+                .build());
+        if (error.isPresent()) {
+            throw new IOException(error.get().getMessage());
+        }
+    }
+
+    ParsedPartial parse(Partial p) throws IOException {
+        final ParsedPartial existing = parsedPartials.get(p.getDigest());
+        if (existing != null) {
+            AggregatorMetrics.orNoop(metrics).count(AggregatorMetrics.TYPEREGISTRY_PARSE_CACHE_HITS, 1);
+            return existing;
+        }
+        AggregatorMetrics.orNoop(metrics).count(AggregatorMetrics.TYPEREGISTRY_PARSE_CACHE_MISSES, 1);
+        log.debug("Parsing partial {}", p.getPartialInfo());
+        final ParsedPartial result;
+        try {
+            final String types =
+                    compact(p, Partial.SectionName.PROLOGUE) + "\n" + compact(p, Partial.SectionName.TYPES);
+            result = new ParsedPartial(
+                    types.trim().isEmpty() ? new TypeDefinitionRegistry() : new SchemaParser().parse(types),
+                    parseFields(p, Partial.SectionName.QUERY),
+                    parseFields(p, Partial.SectionName.MUTATION));
+        } catch (SchemaProblem e) {
+            throw new IOException(String.format("Cannot parse partial %s: %s", p.getPartialInfo(), e.getMessage()), e);
+        }
+        parsedPartials.put(p.getDigest(), result);
+        return result;
+    }
+
+    /** Parse the fields of a QUERY or MUTATION section, by wrapping them in a type like in the aggregated SDL */
+    private static List<FieldDefinition> parseFields(Partial p, Partial.SectionName section) throws IOException {
+        final String fields = compact(p, section);
+        if (fields.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final String typeName = DefaultSchemaAggregator.capitalize(section);
+        final String sdl = String.format("type %s {\n%s\n}", typeName, fields);
+        return new SchemaParser()
+                .parse(sdl)
+                .getType(typeName, ObjectTypeDefinition.class)
+                .map(ObjectTypeDefinition::getFieldDefinitions)
+                .orElse(Collections.emptyList());
+    }
+
+    /** @return the compacted content of a section, which is empty if it only contains comments */
+    private static String compact(Partial p, Partial.SectionName name) throws IOException {
+        final Optional<Partial.Section> section = p.getSection(name);
+        if (!section.isPresent()) {
+            return "";
+        }
+        final StringWriter result = new StringWriter();
+        try (Reader r = section.get().getContent()) {
+            final CompactSdlWriter w = new CompactSdlWriter(result);
+            IOUtils.copy(r, w);
+            w.flush();
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Registers an Available service if graphql-java, which is an optional dependency,
+ *  is wired to this bundle. Components which use graphql-java reference that service,
+ *  so that their classes are only loaded, and their services provided, if it's present.
+ */
+@Component(immediate = true)
+public class GraphQLJavaWiring {
+    private static final Logger log = LoggerFactory.getLogger(GraphQLJavaWiring.class.getName());
+
+    /** The graphql-java package which indicates that it's wired */
+    static final String GRAPHQL_PACKAGE = "graphql.language";
+
+    /** Service which is only registered if graphql-java is wired */
+    public static final class Available {}
+
+    private ServiceRegistration<Available> registration;
+
+    @Activate
+    public void activate(BundleContext ctx) {
+        if (isWired(ctx.getBundle())) {
+            registration = ctx.registerService(Available.class, new Available(), null);
+        } else {
+            log.info("graphql-java is not present, TypeRegistryProvider service not available");
+        }
+    }
+
+    @Deactivate
+    public void deactivate() {
+        if (registration != null) {
+            registration.unregister();
+            registration = null;
+        }
+    }
+
+    /** @return true if the supplied bundle imports the graphql-java packages */
+    static boolean isWired(Bundle bundle) {
+        final BundleWiring wiring = bundle.adapt(BundleWiring.class);
+        return wiring != null
+                && wiring.getRequiredWires(PackageNamespace.PACKAGE_NAMESPACE).stream()
+                        .anyMatch(w -> GRAPHQL_PACKAGE.equals(
+                                w.getCapability().getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE)));
+    }
+}
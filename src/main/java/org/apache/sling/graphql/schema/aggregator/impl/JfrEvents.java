@@ -0,0 +1,263 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Java Flight Recorder events for the work done by this module.
+ *
+ *  This module is built for Java 8, where the jdk.jfr API is not available
+ *  at compile time, so the events are defined at runtime with jdk.jfr.EventFactory
+ *  and used via method handles. Without JFR, all events are disabled.
+ *
+ *  To keep the overhead negligible when no recording is active, callers use
+ *  {@link EventKind#begin} which returns null if the event is not enabled, and
+ *  only compute the event's values and call {@link EventKind#commit} otherwise.
+ */
+final class JfrEvents {
+    private static final Logger log = LoggerFactory.getLogger(JfrEvents.class.getName());
+
+    static final String PREFIX = "org.apache.sling.graphql.schema.aggregator.";
+
+    private static final String[] CATEGORY = {"Apache Sling", "GraphQL Schema Aggregator"};
+
+    /** Method handles to the jdk.jfr API, all null if it's not available */
+    private static final MethodHandle NEW_EVENT;
+
+    private static final MethodHandle IS_ENABLED;
+    private static final MethodHandle EVENT_BEGIN;
+    private static final MethodHandle EVENT_SET;
+    private static final MethodHandle EVENT_COMMIT;
+
+    private static final Factory FACTORY;
+
+    /** Creates the event types, implemented with the jdk.jfr API or as disabled events */
+    private interface Factory {
+        Object[] create(String name, String label, List<Field> fields) throws Throwable;
+    }
+
+    static {
+        MethodHandle newEvent = null;
+        MethodHandle isEnabled = null;
+        MethodHandle begin = null;
+        MethodHandle set = null;
+        MethodHandle commit = null;
+        Factory factory = (name, label, fields) -> null;
+        try {
+            // the system classloader sees the jdk.jfr module even if it's not exported to OSGi bundles
+            final ClassLoader cl = ClassLoader.getSystemClassLoader();
+            final Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory", false, cl);
+            final Class<?> event = Class.forName("jdk.jfr.Event", false, cl);
+            final Class<?> eventType = Class.forName("jdk.jfr.EventType", false, cl);
+            final Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement", false, cl);
+            final Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor", false, cl);
+            final Class<?> nameAnnotation = Class.forName("jdk.jfr.Name", false, cl);
+            final Class<?> labelAnnotation = Class.forName("jdk.jfr.Label", false, cl);
+            final Class<?> categoryAnnotation = Class.forName("jdk.jfr.Category", false, cl);
+
+            final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            final MethodHandle newAnnotation = lookup.findConstructor(
+                    annotationElement, MethodType.methodType(void.class, Class.class, Object.class));
+            final MethodHandle newValueDescriptor = lookup.findConstructor(
+                    valueDescriptor, MethodType.methodType(void.class, Class.class, String.class, List.class));
+            final MethodHandle create = lookup.findStatic(
+                    eventFactory, "create", MethodType.methodType(eventFactory, List.class, List.class));
+            final MethodHandle getEventType =
+                    lookup.findVirtual(eventFactory, "getEventType", MethodType.methodType(eventType));
+            newEvent = lookup.findVirtual(eventFactory, "newEvent", MethodType.methodType(event))
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            isEnabled = lookup.findVirtual(eventType, "isEnabled", MethodType.methodType(boolean.class))
+                    .asType(MethodType.methodType(boolean.class, Object.class));
+            begin = lookup.findVirtual(event, "begin", MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(void.class, Object.class));
+            set = lookup.findVirtual(event, "set", MethodType.methodType(void.class, int.class, Object.class))
+                    .asType(MethodType.methodType(void.class, Object.class, int.class, Object.class));
+            commit = lookup.findVirtual(event, "commit", MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(void.class, Object.class));
+
+            factory = (name, label, fields) -> {
+                final List<Object> annotations = Arrays.asList(
+                        newAnnotation.invoke(nameAnnotation, PREFIX + name),
+                        newAnnotation.invoke(labelAnnotation, label),
+                        newAnnotation.invoke(categoryAnnotation, CATEGORY));
+                final List<Object> descriptors = new ArrayList<>();
+                for (Field f : fields) {
+                    final List<Object> fieldAnnotations =
+                            Collections.singletonList(newAnnotation.invoke(labelAnnotation, f.label));
+                    descriptors.add(newValueDescriptor.invoke(f.type, f.name, fieldAnnotations));
+                }
+                final Object ef = create.invoke(annotations, descriptors);
+                return new Object[] {ef, getEventType.invoke(ef)};
+            };
+        } catch (Throwable t) {
+            log.debug("JFR is not available, events are disabled: {}", t.toString());
+            newEvent = null;
+        }
+        NEW_EVENT = newEvent;
+        IS_ENABLED = isEnabled;
+        EVENT_BEGIN = begin;
+        EVENT_SET = set;
+        EVENT_COMMIT = commit;
+        FACTORY = factory;
+    }
+
+    /** A field of an event */
+    static final class Field {
+        private final Class<?> type;
+        private final String name;
+        private final String label;
+
+        private Field(Class<?> type, String name, String label) {
+            this.type = type;
+            this.name = name;
+            this.label = label;
+        }
+    }
+
+    static Field stringField(String name, String label) {
+        return new Field(String.class, name, label);
+    }
+
+    static Field longField(String name, String label) {
+        return new Field(long.class, name, label);
+    }
+
+    /** A type of event, with a fixed list of fields */
+    static final class EventKind {
+        private final String name;
+        private final int fieldsCount;
+        private final Object eventFactory;
+        private final Object eventType;
+
+        EventKind(String name, String label, Field... fields) {
+            this.name = PREFIX + name;
+            this.fieldsCount = fields.length;
+            Object[] created = null;
+            if (NEW_EVENT != null) {
+                try {
+                    created = FACTORY.create(name, label, Arrays.asList(fields));
+                } catch (Throwable t) {
+                    log.warn("Cannot create JFR event type " + this.name, t);
+                }
+            }
+            this.eventFactory = created == null ? null : created[0];
+            this.eventType = created == null ? null : created[1];
+        }
+
+        String getName() {
+            return name;
+        }
+
+        /** @return a started event, or null if this event is not enabled,
+         *  which is the case when no Flight Recording uses it.
+         */
+        Object begin() {
+            if (eventType == null) {
+                return null;
+            }
+            try {
+                if (!(boolean) IS_ENABLED.invokeExact(eventType)) {
+                    return null;
+                }
+                final Object event = (Object) NEW_EVENT.invokeExact(eventFactory);
+                EVENT_BEGIN.invokeExact(event);
+                return event;
+            } catch (Throwable t) {
+                log.debug("JFR event {} failed", name, t);
+                return null;
+            }
+        }
+
+        /** Set the event's fields, in the order in which they were defined, and commit it.
+         *  Does nothing if event is null.
+         */
+        void commit(Object event, Object... values) {
+            if (event == null) {
+                return;
+            }
+            if (values.length != fieldsCount) {
+                throw new IllegalArgumentException(
+                        String.format("Expecting %d values for event %s, got %d", fieldsCount, name, values.length));
+            }
+            try {
+                for (int i = 0; i < values.length; i++) {
+                    EVENT_SET.invokeExact(event, i, values[i]);
+                }
+                EVENT_COMMIT.invokeExact(event);
+            } catch (Throwable t) {
+                log.debug("JFR event {} failed", name, t);
+            }
+        }
+    }
+
+    static final EventKind SELECTION = new EventKind(
+            "Selection",
+            "Partials Selection",
+            stringField("request", "Requested Partials"),
+            longField("partials", "Selected Partials"));
+
+    static final EventKind SECTION_COPY = new EventKind(
+            "SectionCopy",
+            "Section Copy",
+            stringField("section", "Section"),
+            longField("partials", "Contributing Partials"));
+
+    static final EventKind AGGREGATION = new EventKind(
+            "Aggregation",
+            "Schema Aggregation",
+            stringField("request", "Requested Partials"),
+            longField("partials", "Selected Partials"),
+            longField("size", "Output Characters"));
+
+    static final EventKind PARTIAL_PARSE = new EventKind(
+            "PartialParse", "Partial Parsing", stringField("partial", "Partial"), longField("sections", "Sections"));
+
+    static final EventKind PARTIAL_DIGEST = new EventKind(
+            "PartialDigest", "Partial Digest", stringField("partial", "Partial"), longField("size", "Size (bytes)"));
+
+    static final EventKind BUNDLE_ADDED = new EventKind(
+            "BundleAdded",
+            "Provider Bundle Added",
+            stringField("bundle", "Bundle"),
+            longField("bundleId", "Bundle ID"),
+            longField("partials", "Partials Added"));
+
+    static final EventKind BUNDLE_REMOVED = new EventKind(
+            "BundleRemoved",
+            "Provider Bundle Removed",
+            stringField("bundle", "Bundle"),
+            longField("bundleId", "Bundle ID"),
+            longField("partials", "Partials Removed"));
+
+    private JfrEvents() {}
+
+    /** @return true if the JFR API is available */
+    static boolean isAvailable() {
+        return NEW_EVENT != null;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+/** Minimal JSON serializer for the Maps, Lists, Strings, Numbers and Booleans
+ *  that graphql-java results and our reports are made of.
+ */
+public final class JsonWriter {
+    private JsonWriter() {}
+
+    public static String toJson(Object value) {
+        final StringBuilder sb = new StringBuilder();
+        try {
+            write(value, sb);
+        } catch (IOException e) {
+            // cannot happen with a StringBuilder
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    public static void write(Object value, Appendable out) throws IOException {
+        if (value == null) {
+            out.append("null");
+        } else if (value instanceof Map) {
+            out.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                writeString(String.valueOf(e.getKey()), out);
+                out.append(':');
+                write(e.getValue(), out);
+            }
+            out.append('}');
+        } else if (value instanceof Iterable) {
+            out.append('[');
+            final Iterator<?> it = ((Iterable<?>) value).iterator();
+            while (it.hasNext()) {
+                write(it.next(), out);
+                if (it.hasNext()) {
+                    out.append(',');
+                }
+            }
+            out.append(']');
+        } else if (value instanceof Object[]) {
+            final Object[] array = (Object[]) value;
+            out.append('[');
+            for (int i = 0; i < array.length; i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                write(array[i], out);
+            }
+            out.append(']');
+        } else if (value instanceof Boolean || (value instanceof Number && isFinite((Number) value))) {
+            out.append(value.toString());
+        } else {
+            writeString(value.toString(), out);
+        }
+    }
+
+    /** NaN and Infinity are not valid JSON numbers, those are written as strings */
+    private static boolean isFinite(Number n) {
+        if (n instanceof Double || n instanceof Float) {
+            return !Double.isNaN(n.doubleValue()) && !Double.isInfinite(n.doubleValue());
+        }
+        return true;
+    }
+
+    private static void writeString(String s, Appendable out) throws IOException {
+        out.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.NotNull;
+
+/** Partial which reads the content of each section of another one at most once,
+ *  so that schemas which are aggregated together can share it. Meant to be used
+ *  by a single thread for the duration of such an aggregation.
+ */
+class MemoizedPartial implements Partial {
+    private final Partial delegate;
+    private final Map<SectionName, Optional<Section>> sections = new EnumMap<>(SectionName.class);
+
+    private static class MemoizedSection implements Section {
+        private final Section delegate;
+        private String content;
+
+        MemoizedSection(Section delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public SectionName getName() {
+            return delegate.getName();
+        }
+
+        @Override
+        public String getDescription() {
+            return delegate.getDescription();
+        }
+
+        @Override
+        public Reader getContent() throws IOException {
+            if (content == null) {
+                try (Reader r = delegate.getContent()) {
+                    content = IOUtils.toString(r);
+                }
+            }
+            return new StringReader(content);
+        }
+    }
+
+    MemoizedPartial(Partial delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public @NotNull PartialInfo getPartialInfo() {
+        return delegate.getPartialInfo();
+    }
+
+    @Override
+    public @NotNull Optional<Section> getSection(SectionName name) {
+        return sections.computeIfAbsent(name, n -> delegate.getSection(n).map(MemoizedSection::new));
+    }
+
+    @Override
+    public @NotNull Set<PartialRequirement> getRequiredPartialNames() {
+        return delegate.getRequiredPartialNames();
+    }
+
+    @Override
+    public @NotNull String getDigest() {
+        return delegate.getDigest();
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+}
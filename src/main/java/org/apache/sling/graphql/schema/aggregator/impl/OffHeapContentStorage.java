@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** ContentStorage which keeps content as UTF-8 in direct ByteBuffers, outside
+ *  of the Java heap. Content is appended to shared chunks of CHUNK_SIZE bytes,
+ *  and provided as read-only slices of those. Each chunk counts the content that
+ *  it holds and stops being accounted for once all of it is released, which also
+ *  drops the storage's reference to it so that its memory is freed once no
+ *  Reader uses it anymore.
+ */
+final class OffHeapContentStorage implements ContentStorage {
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    /** Larger content gets its own buffer, to avoid wasting chunk space */
+    static final int MAX_SHARED_SIZE = CHUNK_SIZE / 4;
+
+    private final AtomicLong contentBytes = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private Chunk chunk;
+
+    /** A buffer shared by several contents, and the number of those not released yet */
+    private static final class Chunk {
+        final ByteBuffer buffer;
+        int liveContents;
+
+        Chunk(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    @Override
+    public StoredContent store(String content) {
+        final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_SHARED_SIZE) {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+            buffer.put(bytes);
+            buffer.flip();
+            storedBytes.addAndGet(bytes.length);
+            contentBytes.addAndGet(bytes.length);
+            return new OffHeapContent(buffer.asReadOnlyBuffer(), null);
+        }
+        synchronized (this) {
+            if (chunk == null || chunk.buffer.remaining() < bytes.length) {
+                chunk = new Chunk(ByteBuffer.allocateDirect(CHUNK_SIZE));
+                storedBytes.addAndGet(CHUNK_SIZE);
+            }
+            final ByteBuffer slice = chunk.buffer.slice();
+            slice.limit(bytes.length);
+            chunk.buffer.put(bytes);
+            chunk.liveContents++;
+            contentBytes.addAndGet(bytes.length);
+            return new OffHeapContent(slice.slice().asReadOnlyBuffer(), chunk);
+        }
+    }
+
+    private synchronized void release(OffHeapContent content) {
+        contentBytes.addAndGet(-content.view.capacity());
+        if (content.chunk == null) {
+            storedBytes.addAndGet(-content.view.capacity());
+        } else if (--content.chunk.liveContents == 0) {
+            storedBytes.addAndGet(-CHUNK_SIZE);
+            if (chunk == content.chunk) {
+                chunk = null;
+            }
+        }
+    }
+
+    private final class OffHeapContent implements StoredContent {
+        private final ByteBuffer view;
+        private final Chunk chunk;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        OffHeapContent(ByteBuffer view, Chunk chunk) {
+            this.view = view;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public Reader get() {
+            return new InputStreamReader(new ByteBufferInputStream(view.duplicate()), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public long getStoredBytes() {
+            return view.capacity();
+        }
+
+        @Override
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                OffHeapContentStorage.this.release(this);
+            }
+        }
+    }
+
+    @Override
+    public long getContentBytes() {
+        return contentBytes.get();
+    }
+
+    @Override
+    public long getStoredBytes() {
+        return storedBytes.get();
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
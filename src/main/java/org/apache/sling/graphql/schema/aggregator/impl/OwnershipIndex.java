@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.NotNull;
+
+/** Index of the top-level definitions provided by partials: type names, directive
+ *  names prefixed with @ and QUERY and MUTATION fields prefixed with "Query."
+ *  or "Mutation.", mapped to the partials which provide them.
+ */
+final class OwnershipIndex {
+    private static final List<Partial.SectionName> TYPE_SECTIONS =
+            Arrays.asList(Partial.SectionName.PROLOGUE, Partial.SectionName.TYPES);
+
+    private static final List<Partial.SectionName> FIELD_SECTIONS =
+            Arrays.asList(Partial.SectionName.QUERY, Partial.SectionName.MUTATION);
+
+    private final Map<String, Set<PartialInfo>> owners = new ConcurrentHashMap<>();
+    private final Map<PartialInfo, Set<String>> definitionsByPartial = new ConcurrentHashMap<>();
+
+    /** Index the definitions of a partial
+     *  @return the definitions of p which are also provided by partials with other names
+     */
+    Set<String> add(Partial p) throws IOException {
+        final PartialInfo info = p.getPartialInfo();
+        final Set<String> definitions = definitionsOf(p);
+        final Set<String> conflicts = new LinkedHashSet<>();
+        definitionsByPartial.put(info, definitions);
+        for (String d : definitions) {
+            final Set<PartialInfo> set = owners.computeIfAbsent(d, k -> new ConcurrentSkipListSet<>());
+            set.add(info);
+            if (hasConflict(set)) {
+                conflicts.add(d);
+            }
+        }
+        return conflicts;
+    }
+
+    void remove(PartialInfo info) {
+        final Set<String> definitions = definitionsByPartial.remove(info);
+        if (definitions != null) {
+            for (String d : definitions) {
+                owners.computeIfPresent(d, (k, set) -> {
+                    set.remove(info);
+                    return set.isEmpty() ? null : set;
+                });
+            }
+        }
+    }
+
+    /** @return the partials which provide the supplied definition, sorted */
+    @NotNull
+    Set<PartialInfo> getOwners(String definition) {
+        final Set<PartialInfo> result = owners.get(definition);
+        return result == null ? Collections.emptySet() : Collections.unmodifiableSet(result);
+    }
+
+    /** @return the definitions which are provided by partials with different names, sorted */
+    @NotNull
+    Map<String, Set<PartialInfo>> getConflicts() {
+        final Map<String, Set<PartialInfo>> result = new TreeMap<>();
+        owners.forEach((definition, set) -> {
+            if (hasConflict(set)) {
+                result.put(definition, Collections.unmodifiableSet(set));
+            }
+        });
+        return result;
+    }
+
+    /** Several versions of the same partial usually provide the same definitions, that's not a conflict */
+    private static boolean hasConflict(Set<PartialInfo> set) {
+        String name = null;
+        for (PartialInfo info : set) {
+            if (name == null) {
+                name = info.getName();
+            } else if (!name.equals(info.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static Set<String> definitionsOf(Partial p) throws IOException {
+        final Set<String> result = new LinkedHashSet<>();
+        for (Partial.SectionName s : TYPE_SECTIONS) {
+            for (SdlDefinitions.Definition d : SdlDefinitions.parse(read(p, s))) {
+                if (!d.isExtension() && d.getName() != null) {
+                    result.add(d.getName());
+                }
+            }
+        }
+        for (Partial.SectionName s : FIELD_SECTIONS) {
+            final String prefix = DefaultSchemaAggregator.capitalize(s) + ".";
+            SdlDefinitions.fieldNames(read(p, s)).forEach(f -> result.add(prefix + f));
+        }
+        return result;
+    }
+
+    private static String read(Partial p, Partial.SectionName s) throws IOException {
+        final Optional<Partial.Section> section = p.getSection(s);
+        if (!section.isPresent()) {
+            return "";
+        }
+        try (Reader r = section.get().getContent()) {
+            return IOUtils.toString(r);
+        }
+    }
+}
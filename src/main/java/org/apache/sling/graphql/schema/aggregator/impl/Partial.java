@@ -61,9 +61,9 @@ public interface Partial {
     @NotNull
     Optional<Section> getSection(SectionName name);
 
-    /** Names of the Partials on which this one depends */
+    /** Requirements on the Partials on which this one depends, in their declaration order */
     @NotNull
-    Set<PartialInfo> getRequiredPartialNames();
+    Set<PartialRequirement> getRequiredPartialNames();
 
     /**
      * <p>
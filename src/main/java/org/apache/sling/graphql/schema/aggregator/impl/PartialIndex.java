@@ -0,0 +1,266 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/** Index of the partials found in a folder, created at build time with the
+ *  same PartialReader rules that are used at runtime. The ProviderBundleTracker
+ *  loads this index, if present in a provider bundle, instead of enumerating and
+ *  parsing the bundle's partials, and creating it at build time reports syntax
+ *  errors before the bundle is deployed.
+ *
+ *  The index is a UTF-8 text file with tab-separated fields, where a "partial"
+ *  line is followed by the "section" lines of that partial:
+ *  <pre>
+ *  version	1
+ *  partial	entry name	partial name	size in bytes	digest
+ *  section	section name	start	length	description
+ *  </pre>
+ *  Section start and length are in characters of the partial's content, with
+ *  line endings normalized to LF.
+ */
+public class PartialIndex {
+    /** Name of the index file, in the folder that the Sling-GraphQL-Schema header points to */
+    public static final String INDEX_NAME = "partials.index";
+
+    static final int FORMAT_VERSION = 1;
+    private static final String VERSION = "version";
+    private static final String PARTIAL = "partial";
+    private static final String SECTION = "section";
+    private static final String SEP = "\t";
+
+    private final List<Entry> entries;
+
+    /** A section of an indexed partial */
+    static class IndexedSection {
+        private final Partial.SectionName name;
+        private final String description;
+        private final int start;
+        private final int length;
+
+        IndexedSection(Partial.SectionName name, String description, int start, int length) {
+            this.name = name;
+            this.description = description;
+            this.start = start;
+            this.length = length;
+        }
+
+        Partial.SectionName getName() {
+            return name;
+        }
+
+        String getDescription() {
+            return description;
+        }
+
+        int getStart() {
+            return start;
+        }
+
+        int getLength() {
+            return length;
+        }
+    }
+
+    /** An indexed partial */
+    static class Entry {
+        private final String entryName;
+        private final String partialName;
+        private final long size;
+        private final String digest;
+        private final List<IndexedSection> sections = new ArrayList<>();
+
+        Entry(String entryName, String partialName, long size, String digest) {
+            this.entryName = entryName;
+            this.partialName = partialName;
+            this.size = size;
+            this.digest = digest;
+        }
+
+        /** @return the name of the partial's file, in the indexed folder */
+        String getEntryName() {
+            return entryName;
+        }
+
+        String getPartialName() {
+            return partialName;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        String getDigest() {
+            return digest;
+        }
+
+        List<IndexedSection> getSections() {
+            return Collections.unmodifiableList(sections);
+        }
+    }
+
+    private PartialIndex(List<Entry> entries) {
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    List<Entry> getEntries() {
+        return entries;
+    }
+
+    /** @return the path of the index in a bundle, for the supplied Sling-GraphQL-Schema header value */
+    static String getIndexPath(String providersPath) {
+        return providersPath.endsWith("/") ? providersPath + INDEX_NAME : providersPath + "/" + INDEX_NAME;
+    }
+
+    /** Parse the partials found in a folder and index them. Only files which
+     *  match PartialInfo.PARTIAL_FILE_NAME_PATTERN are considered partials.
+     *  @throws IOException listing all the partials which cannot be parsed, if any
+     */
+    static PartialIndex build(File folder) throws IOException {
+        final File[] files = folder.listFiles(f -> f.isFile()
+                && PartialInfo.PARTIAL_FILE_NAME_PATTERN.matcher(f.getName()).matches());
+        if (files == null) {
+            throw new IOException("Not a folder: " + folder.getAbsolutePath());
+        }
+        Arrays.sort(files);
+        final List<Entry> entries = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+        for (File f : files) {
+            try {
+                final PartialReader r = new PartialReader(PartialInfo.fromPath(f.toPath()), () -> open(f));
+                final Entry e = new Entry(f.getName(), r.getPartialInfo().toString(), r.getSize(), r.getDigest());
+                for (Partial.SectionName name : Partial.SectionName.values()) {
+                    final Optional<Partial.Section> s = r.getSection(name);
+                    if (s.isPresent()) {
+                        final PartialReader.ParsedSection ps = (PartialReader.ParsedSection) s.get();
+                        e.sections.add(new IndexedSection(
+                                name,
+                                ps.getDescription(),
+                                ps.getStart(),
+                                r.getSectionSizes().get(name)));
+                    }
+                }
+                entries.add(e);
+            } catch (IOException | UncheckedIOException e) {
+                errors.add(String.format("%s: %s", f.getName(), e.getMessage()));
+            }
+        }
+        if (!errors.isEmpty()) {
+            throw new IOException(String.format("Invalid partials in %s: %s", folder.getAbsolutePath(), errors));
+        }
+        return new PartialIndex(entries);
+    }
+
+    private static Reader open(File f) {
+        try {
+            return new InputStreamReader(Files.newInputStream(f.toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void write(OutputStream out) throws IOException {
+        final Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        w.write(String.format("# Partials index generated by %s%n", getClass().getName()));
+        w.write(String.join(SEP, VERSION, String.valueOf(FORMAT_VERSION)) + "\n");
+        for (Entry e : entries) {
+            w.write(String.join(SEP, PARTIAL, e.entryName, e.partialName, String.valueOf(e.size), e.digest) + "\n");
+            for (IndexedSection s : e.sections) {
+                w.write(String.join(
+                                SEP,
+                                SECTION,
+                                s.name.toString(),
+                                String.valueOf(s.start),
+                                String.valueOf(s.length),
+                                s.description.replace('\t', ' '))
+                        + "\n");
+            }
+        }
+        w.flush();
+    }
+
+    static PartialIndex read(InputStream in) throws IOException {
+        final List<Entry> entries = new ArrayList<>();
+        final BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        Entry current = null;
+        boolean versionFound = false;
+        String line;
+        int lineNumber = 0;
+        while ((line = r.readLine()) != null) {
+            lineNumber++;
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final String[] f = line.split(SEP, -1);
+            try {
+                if (VERSION.equals(f[0])) {
+                    if (Integer.parseInt(f[1]) != FORMAT_VERSION) {
+                        throw new IOException("Unsupported partials index version " + f[1]);
+                    }
+                    versionFound = true;
+                } else if (PARTIAL.equals(f[0])) {
+                    current = new Entry(f[1], f[2], Long.parseLong(f[3]), f[4]);
+                    entries.add(current);
+                } else if (SECTION.equals(f[0]) && current != null) {
+                    current.sections.add(new IndexedSection(
+                            Partial.SectionName.valueOf(f[1]), f[4], Integer.parseInt(f[2]), Integer.parseInt(f[3])));
+                } else {
+                    throw new IOException("Unexpected line");
+                }
+            } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException(String.format("Invalid partials index line %d: %s", lineNumber, line), e);
+            }
+        }
+        if (!versionFound) {
+            throw new IOException("Partials index version not found");
+        }
+        return new PartialIndex(entries);
+    }
+
+    /** Index the partials found in the supplied folder, and write the index in
+     *  that folder. Meant to be used at build time, see PartialIndexTool.
+     *  @return the number of partials indexed
+     *  @throws IOException listing all the partials which cannot be parsed, if any,
+     *      in which case the index is not written
+     */
+    public static int writeIndex(File folder) throws IOException {
+        final PartialIndex index = build(folder);
+        try (OutputStream out = Files.newOutputStream(new File(folder, INDEX_NAME).toPath())) {
+            index.write(out);
+        }
+        return index.entries.size();
+    }
+}
@@ -20,10 +20,7 @@ package org.apache.sling.graphql.schema.aggregator.impl;
 
 import java.net.URL;
 import java.nio.file.Path;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.Objects;
-import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -35,12 +32,18 @@ import org.osgi.framework.Version;
  */
 public final class PartialInfo implements Comparable<PartialInfo> {
 
-    private static final String PARTIAL_NAME_AND_VERSION_REGEX = "([a-z][a-zA-Z0-9_\\.]*)(-(\\d\\.\\d\\.\\d))?";
+    /** Partial names, also used by {@link PartialRequirement} */
+    static final String PARTIAL_NAME_REGEX = "[a-z][a-zA-Z0-9_\\.]*";
+
+    /** Partial versions are major.minor.micro, each with one or more digits */
+    static final String PARTIAL_VERSION_REGEX = "\\d+\\.\\d+\\.\\d+";
+
+    private static final String PARTIAL_NAME_AND_VERSION_REGEX =
+            "(" + PARTIAL_NAME_REGEX + ")(-(" + PARTIAL_VERSION_REGEX + "))?";
 
     public static final String PARTIAL_FILE_EXTENSION = "txt";
     public static final Pattern PARTIAL_FILE_NAME_PATTERN =
             Pattern.compile(PARTIAL_NAME_AND_VERSION_REGEX + "\\." + PARTIAL_FILE_EXTENSION);
-    public static final Pattern PARTIAL_REQUIRE_HEADER_PATTERN = Pattern.compile(PARTIAL_NAME_AND_VERSION_REGEX);
     public static final int PARTIAL_NAME_GROUP = 1;
     public static final int PARTIAL_VERSION_GROUP = 3;
 
@@ -151,26 +154,4 @@ public final class PartialInfo implements Comparable<PartialInfo> {
         }
         return PartialInfo.EMPTY;
     }
-
-    /**
-     * Parses the partial names provided in a {@code REQUIRES} section of a {@link Partial}.
-     *
-     * @param requires the value of the {@code REQUIRES} section
-     * @return a set of {@link PartialInfo}
-     */
-    public static @NotNull Set<PartialInfo> fromRequiresSection(@NotNull String requires) {
-        if (!requires.isEmpty()) {
-            Set<PartialInfo> partialInfos = new HashSet<>();
-            for (String partial : requires.split(",")) {
-                Matcher matcher = PARTIAL_REQUIRE_HEADER_PATTERN.matcher(partial.trim());
-                if (matcher.matches()) {
-                    partialInfos.add(new PartialInfo(
-                            matcher.group(PARTIAL_NAME_GROUP),
-                            Version.parseVersion(matcher.group(PARTIAL_VERSION_GROUP))));
-                }
-            }
-            return Collections.unmodifiableSet(partialInfos);
-        }
-        return Collections.emptySet();
-    }
 }
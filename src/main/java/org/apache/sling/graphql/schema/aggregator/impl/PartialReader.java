@@ -48,8 +48,12 @@ public class PartialReader implements Partial {
 
     private final Map<SectionName, Section> sections = new EnumMap<>(SectionName.class);
     private final PartialInfo partialInfo;
-    private final Set<PartialInfo> requiredPartialNames;
+    private final Set<PartialRequirement> requiredPartialNames;
     private final String digest;
+    private final long size;
+    private final long parseNanos;
+    private final Map<SectionName, Integer> sectionSizes = new EnumMap<>(SectionName.class);
+    private long retainedBytes;
 
     /** The PARTIAL section is the only required one */
     public static final String PARTIAL_SECTION = "PARTIAL";
@@ -60,6 +64,13 @@ public class PartialReader implements Partial {
         }
     }
 
+    /** Signals that a partial's source does not match its PartialIndex entry */
+    static class IndexMismatchException extends IOException {
+        IndexMismatchException(String reason) {
+            super(reason);
+        }
+    }
+
     static class ParsedSection implements Partial.Section {
         private final Supplier<Reader> sectionSource;
         private final SectionName name;
@@ -85,6 +96,11 @@ public class PartialReader implements Partial {
             return description;
         }
 
+        /** @return the index of the first character of this section in the normalized source */
+        int getStart() {
+            return startCharIndex;
+        }
+
         @Override
         public Reader getContent() throws IOException {
             final Reader r = sectionSource.get();
@@ -174,24 +190,121 @@ public class PartialReader implements Partial {
     }
 
     public PartialReader(@NotNull PartialInfo partialInfo, @NotNull Supplier<Reader> source) throws IOException {
+        this(partialInfo, source, null);
+    }
+
+    /** If storage is not null, the content of the sections is read once and kept
+     *  in it, instead of being read again from the source when it's used.
+     */
+    PartialReader(@NotNull PartialInfo partialInfo, @NotNull Supplier<Reader> source, ContentStorage storage)
+            throws IOException {
+        final long start = System.nanoTime();
         this.partialInfo = partialInfo;
         // Normalize line endings to LF regardless of how the file was checked out (e.g. CRLF on
         // Windows), so parsing, section content and the digest are all consistent across platforms.
-        final Supplier<Reader> normalizedSource = normalizeLineEndings(source);
+        final Supplier<Reader> normalizedSource;
+        final String text;
+        if (storage == null) {
+            normalizedSource = normalizeLineEndings(source);
+            text = null;
+        } else {
+            text = IOUtils.toString(normalizeLineEndings(source).get());
+            normalizedSource = () -> new StringReader(text);
+        }
+        final Object parseEvent = JfrEvents.PARTIAL_PARSE.begin();
         parse(normalizedSource);
-        this.digest = "SHA-256: "
-                + Hex.encodeHexString(DigestUtils.updateDigest(
-                                DigestUtils.getSha256Digest(),
-                                IOUtils.toByteArray(normalizedSource.get(), StandardCharsets.UTF_8))
-                        .digest());
+        if (parseEvent != null) {
+            JfrEvents.PARTIAL_PARSE.commit(parseEvent, partialInfo.toString(), (long) sections.size());
+        }
+        final Object digestEvent = JfrEvents.PARTIAL_DIGEST.begin();
+        final byte[] bytes = IOUtils.toByteArray(normalizedSource.get(), StandardCharsets.UTF_8);
+        this.size = bytes.length;
+        this.digest = digest(bytes);
+        if (digestEvent != null) {
+            JfrEvents.PARTIAL_DIGEST.commit(digestEvent, partialInfo.toString(), size);
+        }
+        if (storage != null) {
+            sections.replaceAll((name, s) -> store((ParsedSection) s, text, storage));
+        }
+        this.parseNanos = System.nanoTime() - start;
         final Partial.Section requirements = sections.get(SectionName.REQUIRES);
         if (requirements == null) {
             requiredPartialNames = Collections.emptySet();
         } else {
-            requiredPartialNames = PartialInfo.fromRequiresSection(requirements.getDescription());
+            requiredPartialNames = PartialRequirement.fromRequiresSection(requirements.getDescription());
         }
     }
 
+    /** Build a partial from the results of a previous parse, recorded at build time
+     *  in a PartialIndex, without parsing its source. The source is read once to check
+     *  its size, digest and section offsets against the index entry, and to keep the
+     *  content of its sections in storage if that's not null.
+     *  @throws IndexMismatchException if the source does not match the index entry
+     */
+    PartialReader(
+            @NotNull PartialInfo partialInfo,
+            @NotNull Supplier<Reader> source,
+            @NotNull PartialIndex.Entry indexed,
+            ContentStorage storage)
+            throws IOException {
+        final long start = System.nanoTime();
+        this.partialInfo = partialInfo;
+        final Supplier<Reader> normalizedSource = normalizeLineEndings(source);
+        final String text = IOUtils.toString(normalizedSource.get());
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length != indexed.getSize()) {
+            throw new IndexMismatchException(String.format(
+                    "Size of %s is %d bytes, index says %d", partialInfo, bytes.length, indexed.getSize()));
+        }
+        if (!digest(bytes).equals(indexed.getDigest())) {
+            throw new IndexMismatchException(String.format("Digest of %s does not match the index", partialInfo));
+        }
+        for (PartialIndex.IndexedSection is : indexed.getSections()) {
+            if (is.getStart() < 0 || is.getLength() < 0 || (long) is.getStart() + is.getLength() > text.length()) {
+                throw new IndexMismatchException(
+                        String.format("Indexed section %s is outside of %s", is.getName(), partialInfo));
+            }
+            sections.put(
+                    is.getName(),
+                    new ParsedSection(
+                            normalizedSource,
+                            is.getName(),
+                            is.getDescription(),
+                            is.getStart(),
+                            is.getStart() + is.getLength()));
+            sectionSizes.put(is.getName(), is.getLength());
+        }
+        if (!sections.containsKey(SectionName.PARTIAL)) {
+            throw new IndexMismatchException(String.format("Missing required %s section in index", PARTIAL_SECTION));
+        }
+        this.size = indexed.getSize();
+        this.digest = indexed.getDigest();
+        if (storage != null) {
+            sections.replaceAll((name, s) -> store((ParsedSection) s, text, storage));
+        }
+        this.parseNanos = System.nanoTime() - start;
+        final Partial.Section requirements = sections.get(SectionName.REQUIRES);
+        if (requirements == null) {
+            requiredPartialNames = Collections.emptySet();
+        } else {
+            requiredPartialNames = PartialRequirement.fromRequiresSection(requirements.getDescription());
+        }
+    }
+
+    private Section store(ParsedSection s, String text, ContentStorage storage) {
+        final int start = Math.min(s.startCharIndex, text.length());
+        final String content = text.substring(start, Math.max(start, Math.min(s.endCharIndex, text.length())));
+        final ContentStorage.StoredContent stored = storage.store(content);
+        retainedBytes += stored.getStoredBytes();
+        return new ParsedSection(stored, s.name, s.description, 0, content.length());
+    }
+
+    private static String digest(byte[] bytes) {
+        return "SHA-256: "
+                + Hex.encodeHexString(DigestUtils.updateDigest(DigestUtils.getSha256Digest(), bytes)
+                        .digest());
+    }
+
     private static Supplier<Reader> normalizeLineEndings(Supplier<Reader> source) {
         return () -> {
             try (Reader r = source.get()) {
@@ -240,6 +353,10 @@ public class PartialReader implements Partial {
         // Add last section
         addSectionIfNameIsSet(
                 source, toSectionName(sectionName), sectionDescription, lastSectionStart, Integer.MAX_VALUE);
+        for (Section s : sections.values()) {
+            final ParsedSection ps = (ParsedSection) s;
+            sectionSizes.put(ps.name, Math.max(0, Math.min(ps.endCharIndex, charCount) - ps.startCharIndex));
+        }
 
         // And validate
         if (!sections.containsKey(SectionName.PARTIAL)) {
@@ -282,7 +399,7 @@ public class PartialReader implements Partial {
     }
 
     @Override
-    public @NotNull Set<PartialInfo> getRequiredPartialNames() {
+    public @NotNull Set<PartialRequirement> getRequiredPartialNames() {
         return Collections.unmodifiableSet(requiredPartialNames);
     }
 
@@ -290,4 +407,39 @@ public class PartialReader implements Partial {
     public @NotNull String getDigest() {
         return digest;
     }
+
+    /** @return the size of the partial's normalized content, UTF-8 encoded */
+    long getSize() {
+        return size;
+    }
+
+    /** @return the time it took to read, parse and store this partial */
+    long getParseNanos() {
+        return parseNanos;
+    }
+
+    /** @return the size in characters of each section of this partial */
+    Map<SectionName, Integer> getSectionSizes() {
+        return Collections.unmodifiableMap(sectionSizes);
+    }
+
+    /** @return the number of bytes used to keep this partial's content in memory,
+     *  zero if it's read from its source when needed.
+     */
+    long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    /** Release the storage which keeps the content of this partial's sections,
+     *  once it's not used anymore. Does nothing if that content is read from its source.
+     */
+    void releaseContent() {
+        for (Section s : sections.values()) {
+            final Supplier<Reader> source = ((ParsedSection) s).sectionSource;
+            if (source instanceof ContentStorage.StoredContent) {
+                ((ContentStorage.StoredContent) source).release();
+            }
+        }
+        retainedBytes = 0;
+    }
 }
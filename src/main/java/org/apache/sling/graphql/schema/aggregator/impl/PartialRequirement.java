@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.framework.Version;
+import org.osgi.framework.VersionRange;
+
+/**
+ * A reference to a partial, as used in REQUIRES sections and in selector mappings. The following forms are supported:
+ * <ul>
+ *     <li>{@code name} or {@code name-1.2.3}: the partial with exactly that name and version</li>
+ *     <li>{@code name-*}: the highest version of the partial with that name</li>
+ *     <li>{@code name-[1.0.0,2.0.0)}: the highest version of the partial with that name, within
+ *     the supplied OSGi version range</li>
+ * </ul>
+ */
+public final class PartialRequirement {
+
+    private static final String LATEST = "*";
+    private static final Pattern REQUIREMENT_PATTERN = Pattern.compile("(" + PartialInfo.PARTIAL_NAME_REGEX + ")(-("
+            + PartialInfo.PARTIAL_VERSION_REGEX + "|\\*|[\\[\\(][^\\]\\)]*[\\]\\)]))?");
+    private static final int NAME_GROUP = 1;
+    private static final int VERSION_GROUP = 3;
+
+    /** Splits a comma-separated list of requirements, ignoring the commas found in version ranges */
+    public static final Pattern LIST_SEPARATOR = Pattern.compile(",(?![^\\[\\(]*[\\]\\)])");
+
+    private final String name;
+
+    /** null means "latest version" */
+    private final VersionRange range;
+
+    private PartialRequirement(@NotNull String name, @Nullable VersionRange range) {
+        this.name = Objects.requireNonNull(name, "name must not be null");
+        this.range = range;
+    }
+
+    /** Requirement that matches exactly the supplied partial */
+    static @NotNull PartialRequirement exactly(@NotNull PartialInfo info) {
+        return new PartialRequirement(
+                info.getName(),
+                new VersionRange(
+                        VersionRange.LEFT_CLOSED, info.getVersion(), info.getVersion(), VersionRange.RIGHT_CLOSED));
+    }
+
+    /**
+     * Returns the name of the required partial.
+     *
+     * @return the name of the required partial
+     */
+    public @NotNull String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the range of acceptable versions.
+     *
+     * @return the range of acceptable versions, or {@code null} if the latest version is required
+     */
+    public @Nullable VersionRange getRange() {
+        return range;
+    }
+
+    /** @return the required version, if this requirement matches a single version only */
+    public @Nullable Version getExactVersion() {
+        return range != null && range.isExact() ? range.getLeft() : null;
+    }
+
+    /** @return true if the supplied partial satisfies this requirement */
+    public boolean matches(@NotNull PartialInfo info) {
+        return name.equals(info.getName()) && (range == null || range.includes(info.getVersion()));
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, range);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof PartialRequirement) {
+            PartialRequirement other = (PartialRequirement) obj;
+            return Objects.equals(name, other.name) && Objects.equals(range, other.range);
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        if (range == null) {
+            return name + "-" + LATEST;
+        }
+        final Version exact = getExactVersion();
+        if (exact != null) {
+            return name + (exact.equals(Version.emptyVersion) ? "" : "-" + exact);
+        }
+        return name + "-" + range;
+    }
+
+    /**
+     * Parses a single requirement.
+     *
+     * @param str the requirement, like {@code name}, {@code name-1.0.0}, {@code name-*} or {@code name-[1.0.0,2.0.0)}
+     * @return the parsed requirement, or {@code null} if {@code str} is not a valid requirement
+     */
+    public static @Nullable PartialRequirement parse(@NotNull String str) {
+        final Matcher matcher = REQUIREMENT_PATTERN.matcher(str.trim());
+        if (!matcher.matches()) {
+            return null;
+        }
+        final String name = matcher.group(NAME_GROUP);
+        final String version = matcher.group(VERSION_GROUP);
+        if (LATEST.equals(version)) {
+            return new PartialRequirement(name, null);
+        } else if (version != null && (version.startsWith("[") || version.startsWith("("))) {
+            try {
+                return new PartialRequirement(name, new VersionRange(version));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return exactly(new PartialInfo(name, Version.parseVersion(version)));
+    }
+
+    /**
+     * Parses the partial requirements provided in a {@code REQUIRES} section of a {@link Partial}.
+     *
+     * @param requires the value of the {@code REQUIRES} section
+     * @return the valid requirements found in {@code requires}, in their declaration order
+     */
+    public static @NotNull Set<PartialRequirement> fromRequiresSection(@NotNull String requires) {
+        if (!requires.isEmpty()) {
+            final Set<PartialRequirement> result = new LinkedHashSet<>();
+            for (String str : LIST_SEPARATOR.split(requires)) {
+                final PartialRequirement req = parse(str);
+                if (req != null) {
+                    result.add(req);
+                }
+            }
+            return Collections.unmodifiableSet(result);
+        }
+        return Collections.emptySet();
+    }
+}
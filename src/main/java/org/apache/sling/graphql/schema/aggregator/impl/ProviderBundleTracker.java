@@ -19,21 +19,41 @@
 package org.apache.sling.graphql.schema.aggregator.impl;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
 
+import org.apache.sling.graphql.schema.aggregator.api.DefinitionsIndex;
 import org.osgi.annotation.bundle.Capability;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
+import org.osgi.framework.Version;
+import org.osgi.framework.VersionRange;
 import org.osgi.framework.wiring.BundleRevision;
 import org.osgi.framework.wiring.BundleWire;
 import org.osgi.framework.wiring.BundleWiring;
 import org.osgi.namespace.extender.ExtenderNamespace;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.osgi.service.metatype.annotations.Option;
 import org.osgi.util.tracker.BundleTracker;
 import org.osgi.util.tracker.BundleTrackerCustomizer;
 import org.slf4j.Logger;
@@ -41,22 +61,102 @@ import org.slf4j.LoggerFactory;
 
 /** Tracks bundles which provide partial schemas and collects the corresponding set of schemas.
  */
-@Component(service = {ProviderBundleTracker.class})
+@Component(service = {ProviderBundleTracker.class, DefinitionsIndex.class})
+@Designate(ocd = ProviderBundleTracker.Config.class)
 @Capability(namespace = ExtenderNamespace.EXTENDER_NAMESPACE, name = "sling.graphql-schema-aggregator", version = "0.1")
-public class ProviderBundleTracker implements BundleTrackerCustomizer<Object> {
+public class ProviderBundleTracker implements BundleTrackerCustomizer<Object>, DefinitionsIndex {
+
+    @ObjectClassDefinition(
+            name = "Apache Sling GraphQL Schema Aggregator Provider Bundle Tracker",
+            description = "Tracks bundles which provide partial GraphQL schemas")
+    public @interface Config {
+        @AttributeDefinition(
+                name = "Quiet period (msec)",
+                description = "Changes to the set of partials are batched until no change happened during this period, "
+                        + "to notify downstream caches once per deployment or refresh instead of once per bundle. "
+                        + "Zero notifies each change immediately.")
+        long quiet_period_msec() default 1000;
+
+        @AttributeDefinition(
+                name = "Content storage",
+                description = "Where the content of partials is kept between aggregations. BUNDLE reads it "
+                        + "from the provider bundles every time, OFF_HEAP keeps it as UTF-8 in direct "
+                        + "buffers outside of the Java heap, COMPRESSED keeps it compressed on the heap.",
+                options = {
+                    @Option(label = "Read from bundles", value = "BUNDLE"),
+                    @Option(label = "Off-heap buffers", value = "OFF_HEAP"),
+                    @Option(label = "Compressed in memory", value = "COMPRESSED")
+                })
+        String content_storage() default "BUNDLE";
+    }
 
     public static final String SCHEMA_PATH_HEADER = "Sling-GraphQL-Schema";
 
     private final Logger log = LoggerFactory.getLogger(getClass().getName());
-    private final Map<PartialInfo, BundleEntryPartial> schemaProviders = new ConcurrentHashMap<>();
+
+    /** Sorted by PartialInfo, so that selections are ordered without sorting, and
+     *  name prefixes can be selected with range scans.
+     */
+    private final NavigableMap<PartialInfo, BundleEntryPartial> schemaProviders = new ConcurrentSkipListMap<>();
+
+    /** Index of the schemaProviders by name, then version, to resolve "latest" and version range requirements */
+    private final Map<String, NavigableMap<Version, BundleEntryPartial>> providersByName = new ConcurrentHashMap<>();
+
+    /** Which partials provide which types and fields */
+    private final OwnershipIndex ownershipIndex = new OwnershipIndex();
+
+    /** Only available if Sling Commons Metrics is present */
+    private volatile AggregatorMetrics metrics;
 
     private BundleContext bundleContext;
+    private BundleTracker<?> bundleTracker;
+    private ChangeBatcher changes;
+
+    /** Keeps the content of partials if set, otherwise it's read from their bundles */
+    private volatile ContentStorage contentStorage;
 
     @Activate
-    public void activate(BundleContext bundleContext) {
+    public void activate(BundleContext bundleContext, Config cfg) {
         this.bundleContext = bundleContext;
-        BundleTracker<?> bt = new BundleTracker<>(bundleContext, Bundle.ACTIVE, this);
-        bt.open();
+        this.changes = new ChangeBatcher(cfg.quiet_period_msec());
+        if ("OFF_HEAP".equals(cfg.content_storage())) {
+            contentStorage = new OffHeapContentStorage();
+        } else if ("COMPRESSED".equals(cfg.content_storage())) {
+            contentStorage = new CompressedContentStorage();
+        } else if (cfg.content_storage() != null && !"BUNDLE".equals(cfg.content_storage())) {
+            log.warn("Invalid content storage '{}', reading partials from their bundles", cfg.content_storage());
+        }
+        bundleTracker = new BundleTracker<>(bundleContext, Bundle.ACTIVE, this);
+        bundleTracker.open();
+    }
+
+    @Deactivate
+    public void deactivate() {
+        bundleTracker.close();
+        changes.close();
+    }
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    void bindMetrics(AggregatorMetrics m) {
+        metrics = m;
+        m.gauge(AggregatorMetrics.STORAGE_CONTENT_BYTES, () -> storageSize(ContentStorage::getContentBytes));
+        m.gauge(AggregatorMetrics.STORAGE_STORED_BYTES, () -> storageSize(ContentStorage::getStoredBytes));
+        m.gauge(AggregatorMetrics.STORAGE_STORED_PERCENT, () -> {
+            final long content = storageSize(ContentStorage::getContentBytes);
+            return content == 0 ? 0 : storageSize(ContentStorage::getStoredBytes) * 100 / content;
+        });
+    }
+
+    void unbindMetrics(AggregatorMetrics m) {
+        if (metrics == m) {
+            metrics = null;
+        }
+    }
+
+    /** @return the supplied size of the content storage, zero if partials are read from their bundles */
+    private long storageSize(ToLongFunction<ContentStorage> size) {
+        final ContentStorage s = contentStorage;
+        return s == null ? 0 : size.applyAsLong(s);
     }
 
     @Override
@@ -72,44 +172,141 @@ public class ProviderBundleTracker implements BundleTrackerCustomizer<Object> {
                 log.debug("Bundle {} has no {} header, ignored", bundle.getSymbolicName(), SCHEMA_PATH_HEADER);
             } else {
                 // For now we only support file entries which are directly under providersPath
-                final Enumeration<String> paths = bundle.getEntryPaths(providersPath);
-                if (paths != null) {
-                    while (paths.hasMoreElements()) {
-                        final String path = paths.nextElement();
-                        try {
-                            addIfNotPresent(BundleEntryPartial.forBundle(bundle, path));
-                        } catch (IOException ioe) {
-                            // TODO save errors and refuse to work if any happended?
-                            log.error("Error reading partial " + path, ioe);
+                final Object jfr = JfrEvents.BUNDLE_ADDED.begin();
+                final AggregatorMetrics m = AggregatorMetrics.orNoop(metrics);
+                final PartialIndex index = readIndex(bundle, providersPath);
+                int added = 0;
+                if (index != null) {
+                    final String prefix = providersPath.endsWith("/") ? providersPath : providersPath + "/";
+                    for (PartialIndex.Entry e : index.getEntries()) {
+                        final String path = prefix + e.getEntryName();
+                        added += add(() -> BundleEntryPartial.forIndexEntry(bundle, path, e, contentStorage), path, m);
+                    }
+                } else {
+                    final Enumeration<String> paths = bundle.getEntryPaths(providersPath);
+                    if (paths != null) {
+                        while (paths.hasMoreElements()) {
+                            final String path = paths.nextElement();
+                            added += add(() -> BundleEntryPartial.forBundle(bundle, path, contentStorage), path, m);
                         }
                     }
                 }
+                changes.changed(added);
+                if (jfr != null) {
+                    JfrEvents.BUNDLE_ADDED.commit(jfr, bundle.getSymbolicName(), bundle.getBundleId(), (long) added);
+                }
+                if (added > 0) {
+                    m.count(AggregatorMetrics.BUNDLES_ADDED, 1);
+                    m.count(AggregatorMetrics.PARTIALS_ADDED, added);
+                }
+                if (added > 0 && contentStorage != null) {
+                    log.debug(
+                            "Content storage holds {} bytes of partials content in {} bytes",
+                            contentStorage.getContentBytes(),
+                            contentStorage.getStoredBytes());
+                }
             }
         }
         return bundle;
     }
 
-    private void addIfNotPresent(BundleEntryPartial a) {
+    /** Supplies a partial, like the BundleEntryPartial factory methods */
+    private interface PartialFactory {
+        BundleEntryPartial create() throws IOException;
+    }
+
+    /** Create a partial and add it if not present yet
+     *  @return 1 if the partial was added, 0 otherwise
+     */
+    private int add(PartialFactory factory, String path, AggregatorMetrics m) {
+        try {
+            final long start = System.nanoTime();
+            final BundleEntryPartial p = factory.create();
+            if (p != null) {
+                m.time(AggregatorMetrics.PARTIAL_PARSE_TIME, System.nanoTime() - start);
+                m.update(AggregatorMetrics.PARTIAL_SIZE, p.getSize());
+            }
+            return addIfNotPresent(p) ? 1 : 0;
+        } catch (IOException ioe) {
+            // TODO save errors and refuse to work if any happended?
+            log.error("Error reading partial " + path, ioe);
+            return 0;
+        }
+    }
+
+    /** @return the build-time index of the bundle's partials, or null if it has none or it's invalid */
+    private PartialIndex readIndex(Bundle bundle, String providersPath) {
+        final URL url = bundle.getEntry(PartialIndex.getIndexPath(providersPath));
+        if (url == null) {
+            return null;
+        }
+        try (InputStream is = url.openStream()) {
+            final PartialIndex result = PartialIndex.read(is);
+            log.debug(
+                    "Using index of {} partials for bundle {}",
+                    result.getEntries().size(),
+                    bundle.getSymbolicName());
+            return result;
+        } catch (IOException ioe) {
+            log.warn("Invalid partials index " + url + ", partials will be parsed", ioe);
+            return null;
+        }
+    }
+
+    /** @return true if the partial was added */
+    private boolean addIfNotPresent(BundleEntryPartial a) {
         if (a != null) {
             if (schemaProviders.containsKey(a.getPartialInfo())) {
                 log.warn(
                         "Partial provider for partial {} already present, new one will be ignored", a.getPartialInfo());
+                a.releaseContent();
             } else {
                 log.info("Registering {}", a);
                 schemaProviders.put(a.getPartialInfo(), a);
+                providersByName
+                        .computeIfAbsent(a.getPartialInfo().getName(), k -> new ConcurrentSkipListMap<>())
+                        .put(a.getPartialInfo().getVersion(), a);
+                try {
+                    final Set<String> conflicts = ownershipIndex.add(a);
+                    if (!conflicts.isEmpty()) {
+                        log.warn("{} provides definitions which other partials also provide: {}", a, conflicts);
+                    }
+                } catch (IOException ioe) {
+                    log.warn("Cannot index the definitions of " + a, ioe);
+                }
+                return true;
             }
         }
+        return false;
     }
 
     @Override
     public void removedBundle(Bundle bundle, BundleEvent event, Object object) {
+        final Object jfr = JfrEvents.BUNDLE_REMOVED.begin();
         final long id = bundle.getBundleId();
+        final AtomicInteger removed = new AtomicInteger();
         schemaProviders.forEach((key, value) -> {
             if (id == value.getBundleId()) {
                 log.info("Removing {}", value);
                 schemaProviders.remove(key);
+                value.releaseContent();
+                ownershipIndex.remove(key);
+                providersByName.computeIfPresent(key.getName(), (name, versions) -> {
+                    versions.remove(key.getVersion(), value);
+                    return versions.isEmpty() ? null : versions;
+                });
+                removed.incrementAndGet();
             }
         });
+        changes.changed(removed.get());
+        if (jfr != null && removed.get() > 0) {
+            JfrEvents.BUNDLE_REMOVED.commit(jfr, bundle.getSymbolicName(), id, (long) removed.get());
+        }
+        if (removed.get() > 0) {
+            final AggregatorMetrics m = AggregatorMetrics.orNoop(metrics);
+            m.count(AggregatorMetrics.BUNDLES_REMOVED, 1);
+            m.count(AggregatorMetrics.PARTIALS_REMOVED, removed.get());
+        }
     }
 
     @Override
@@ -117,7 +314,83 @@ public class ProviderBundleTracker implements BundleTrackerCustomizer<Object> {
         // do nothing
     }
 
-    Map<PartialInfo, Partial> getSchemaProviders() {
-        return Collections.unmodifiableMap(schemaProviders);
+    /** Register a listener that's notified once per batch of changes to our partials */
+    void addChangeListener(ProvidersChangeListener l) {
+        changes.addListener(l);
+    }
+
+    void removeChangeListener(ProvidersChangeListener l) {
+        changes.removeListener(l);
+    }
+
+    /** @return the generation of the partials, incremented once per batch of changes */
+    long getGeneration() {
+        return changes.getGeneration();
+    }
+
+    /** @return the storage which keeps the content of partials, or null if they're read from their bundles */
+    ContentStorage getContentStorage() {
+        return contentStorage;
+    }
+
+    NavigableMap<PartialInfo, Partial> getSchemaProviders() {
+        return Collections.unmodifiableNavigableMap(schemaProviders);
+    }
+
+    /** @return the highest version of the partial that satisfies the supplied
+     *  requirement, or null if there's none.
+     */
+    Partial resolve(PartialRequirement req) {
+        final NavigableMap<Version, BundleEntryPartial> versions = providersByName.get(req.getName());
+        if (versions == null) {
+            return null;
+        }
+        final VersionRange range = req.getRange();
+        final Map.Entry<Version, BundleEntryPartial> found;
+        if (range != null && range.isEmpty()) {
+            return null;
+        } else if (range == null) {
+            found = versions.lastEntry();
+        } else if (range.isExact()) {
+            return versions.get(range.getLeft());
+        } else if (range.getRight() == null) {
+            found = versions.tailMap(range.getLeft(), range.getLeftType() == VersionRange.LEFT_CLOSED)
+                    .lastEntry();
+        } else {
+            found = versions.subMap(
+                            range.getLeft(),
+                            range.getLeftType() == VersionRange.LEFT_CLOSED,
+                            range.getRight(),
+                            range.getRightType() == VersionRange.RIGHT_CLOSED)
+                    .lastEntry();
+        }
+        return found == null ? null : found.getValue();
+    }
+
+    @Override
+    public Set<String> getProviders(String definition) {
+        final Set<String> result = new LinkedHashSet<>();
+        ownershipIndex.getOwners(definition).forEach(info -> result.add(info.toString()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Set<String>> getConflicts() {
+        final Map<String, Set<String>> result = new LinkedHashMap<>();
+        ownershipIndex.getConflicts().forEach((definition, owners) -> {
+            final Set<String> names = new LinkedHashSet<>();
+            owners.forEach(info -> names.add(info.toString()));
+            result.put(definition, names);
+        });
+        return result;
+    }
+
+    @Override
+    public long getBundleId(String partial) {
+        final PartialRequirement req = PartialRequirement.parse(partial);
+        final Version version = req == null ? null : req.getExactVersion();
+        final BundleEntryPartial p =
+                version == null ? null : schemaProviders.get(new PartialInfo(req.getName(), version));
+        return p == null ? -1 : p.getBundleId();
     }
 }
@@ -0,0 +1,32 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+/** Notified by the {@link ProviderBundleTracker} when its set of
+ *  partials changes. Changes are batched, so a single notification
+ *  is sent for a burst of bundle events.
+ */
+@FunctionalInterface
+interface ProvidersChangeListener {
+    /** Called once per batch of changes
+     *  @param generation incremented for each batch
+     *  @param changesCount how many partials were added or removed in this batch
+     */
+    void providersChanged(long generation, int changesCount);
+}
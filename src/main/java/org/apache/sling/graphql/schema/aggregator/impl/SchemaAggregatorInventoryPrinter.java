@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.felix.inventory.Format;
+import org.apache.felix.inventory.InventoryPrinter;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+/** Felix inventory printer, also visible in the web console, which lists
+ *  the registered partials with their size, memory and parsing cost, and
+ *  the selectors which use them. Felix Inventory is an optional dependency,
+ *  this component is only active if it's present.
+ */
+@Component(
+        service = InventoryPrinter.class,
+        property = {
+            InventoryPrinter.NAME + "=" + SchemaAggregatorInventoryPrinter.NAME,
+            InventoryPrinter.TITLE + "=" + SchemaAggregatorInventoryPrinter.TITLE,
+            InventoryPrinter.FORMAT + "=TEXT",
+            InventoryPrinter.FORMAT + "=JSON"
+        })
+public class SchemaAggregatorInventoryPrinter implements InventoryPrinter {
+    static final String NAME = "graphql-schema-aggregator";
+    static final String TITLE = "Sling GraphQL Schema Aggregator";
+
+    @Reference
+    private ProviderBundleTracker tracker;
+
+    @Reference
+    private DefaultSchemaAggregator aggregator;
+
+    @Override
+    public void print(PrintWriter out, Format format, boolean isZip) {
+        final Map<String, Object> inventory = getInventory();
+        if (Format.JSON.equals(format)) {
+            try {
+                JsonWriter.write(inventory, out);
+            } catch (IOException e) {
+                // PrintWriter does not throw IOExceptions
+                throw new IllegalStateException(e);
+            }
+        } else {
+            printText(inventory, out);
+        }
+    }
+
+    Map<String, Object> getInventory() {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        final Map<PartialInfo, Set<String>> usage = aggregator.getSelectorsByPartial();
+        final List<Object> partials = new ArrayList<>();
+        long totalSize = 0;
+        long totalRetained = 0;
+        for (Partial p : tracker.getSchemaProviders().values()) {
+            final Map<String, Object> info = new LinkedHashMap<>();
+            info.put("name", p.getPartialInfo().getName());
+            info.put("version", p.getPartialInfo().getVersion().toString());
+            if (p instanceof BundleEntryPartial) {
+                final BundleEntryPartial bep = (BundleEntryPartial) p;
+                info.put("bundle", String.format("%s (%d)", bep.getBundleSymbolicName(), bep.getBundleId()));
+            }
+            info.put("digest", p.getDigest());
+            if (p instanceof PartialReader) {
+                final PartialReader pr = (PartialReader) p;
+                final Map<String, Object> sections = new LinkedHashMap<>();
+                pr.getSectionSizes().forEach((name, size) -> sections.put(name.toString(), size));
+                info.put("sizeBytes", pr.getSize());
+                info.put("sectionSizesChars", sections);
+                info.put("retainedBytes", pr.getRetainedBytes());
+                info.put("parseTimeMsec", toMsec(pr.getParseNanos()));
+                totalSize += pr.getSize();
+                totalRetained += pr.getRetainedBytes();
+            }
+            info.put(
+                    "usedBySelectors", new ArrayList<>(usage.getOrDefault(p.getPartialInfo(), Collections.emptySet())));
+            partials.add(info);
+        }
+
+        final Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("partials", partials.size());
+        summary.put("totalSizeBytes", totalSize);
+        summary.put("totalRetainedBytes", totalRetained);
+        summary.put("generation", tracker.getGeneration());
+        final ContentStorage storage = tracker.getContentStorage();
+        summary.put(
+                "contentStorage",
+                storage == null ? "BUNDLE" : storage.getClass().getSimpleName());
+        if (storage != null) {
+            summary.put("storageContentBytes", storage.getContentBytes());
+            summary.put("storageStoredBytes", storage.getStoredBytes());
+        }
+        result.put("summary", summary);
+        result.put("caches", aggregator.getCacheStatistics());
+        result.put("partials", partials);
+        return result;
+    }
+
+    /** @return the supplied duration in milliseconds, rounded to microseconds */
+    private static double toMsec(long nanos) {
+        return Math.round(nanos / 1e3) / 1e3;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void printText(Map<String, Object> inventory, PrintWriter out) {
+        out.println(TITLE);
+        out.println();
+        printMap("Summary", (Map<String, Object>) inventory.get("summary"), out, "");
+        printMap("Caches", (Map<String, Object>) inventory.get("caches"), out, "");
+        out.println("Partials");
+        for (Object p : (List<Object>) inventory.get("partials")) {
+            final Map<String, Object> info = (Map<String, Object>) p;
+            out.println();
+            out.printf("  %s-%s%n", info.get("name"), info.get("version"));
+            info.forEach((key, value) -> {
+                if (value instanceof Map) {
+                    printMap(key, (Map<String, Object>) value, out, "    ");
+                } else if (!"name".equals(key) && !"version".equals(key)) {
+                    out.printf("    %s: %s%n", key, value);
+                }
+            });
+        }
+    }
+
+    private static void printMap(String title, Map<String, ?> values, PrintWriter out, String indent) {
+        out.printf("%s%s%n", indent, title);
+        values.forEach((key, value) -> out.printf("%s  %s: %s%n", indent, key, value));
+        if (indent.isEmpty()) {
+            out.println();
+        }
+    }
+}
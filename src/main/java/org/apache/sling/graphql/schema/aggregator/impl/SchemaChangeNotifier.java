@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.apache.sling.graphql.schema.aggregator.api.SchemaAggregator;
+import org.apache.sling.graphql.schema.aggregator.api.SchemaChangeListener;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Watches the schemas of the configured selectors, and notifies
+ *  SchemaChangeListeners and EventAdmin when their fingerprint changes,
+ *  including when a selector's schema is first available. Listeners
+ *  which are added later are notified of the current schemas.
+ *  Listeners are called without holding this object's lock, as they
+ *  might do expensive work like precomputing introspection results.
+ */
+class SchemaChangeNotifier implements ProvidersChangeListener {
+    private static final Logger log = LoggerFactory.getLogger(SchemaChangeNotifier.class.getName());
+
+    /** Selects the partials for a list of names or regexps, null if that fails */
+    private final Function<String[], Collection<Partial>> selector;
+
+    private final Collection<SchemaChangeListener> listeners;
+    private final Supplier<EventAdmin> eventAdmin;
+
+    /** Selector mappings, keyed by their source, usually a servlet's service ID */
+    private final Map<Object, Map<String, String[]>> mappings = new ConcurrentHashMap<>();
+
+    /** Last known fingerprint for each selector */
+    private final Map<String, String> fingerprints = new HashMap<>();
+
+    private boolean active;
+
+    /** A schema change which is published once the lock is released */
+    private static class Change {
+        final String selector;
+        final String fingerprint;
+        final Collection<Partial> selected;
+
+        Change(String selector, String fingerprint, Collection<Partial> selected) {
+            this.selector = selector;
+            this.fingerprint = fingerprint;
+            this.selected = selected;
+        }
+    }
+
+    SchemaChangeNotifier(
+            Function<String[], Collection<Partial>> selector,
+            Collection<SchemaChangeListener> listeners,
+            Supplier<EventAdmin> eventAdmin) {
+        this.selector = selector;
+        this.listeners = listeners;
+        this.eventAdmin = eventAdmin;
+    }
+
+    /** Start watching, and notify the schemas which are available */
+    void activate() {
+        final List<Change> changes = new ArrayList<>();
+        synchronized (this) {
+            active = true;
+            mappings.values().forEach(m -> checkAll(m, changes));
+        }
+        publish(changes);
+    }
+
+    synchronized void deactivate() {
+        active = false;
+        fingerprints.clear();
+    }
+
+    /** Watch the supplied selector mappings, and notify their schemas which are available */
+    void addMappings(Object source, Map<String, String[]> selectorMappings) {
+        final List<Change> changes = new ArrayList<>();
+        synchronized (this) {
+            mappings.put(source, selectorMappings);
+            if (active) {
+                checkAll(selectorMappings, changes);
+            }
+        }
+        publish(changes);
+    }
+
+    /** Notify a listener which was just added of the current schema of each watched selector */
+    void notifyCurrent(SchemaChangeListener listener) {
+        final Map<String, String> current;
+        synchronized (this) {
+            current = new HashMap<>(fingerprints);
+        }
+        current.forEach((sel, fingerprint) -> call(listener, sel, fingerprint));
+    }
+
+    synchronized void removeMappings(Object source) {
+        final Map<String, String[]> removed = mappings.remove(source);
+        if (removed != null) {
+            removed.keySet().stream()
+                    .filter(sel -> mappings.values().stream().noneMatch(m -> m.containsKey(sel)))
+                    .forEach(fingerprints::remove);
+        }
+    }
+
+    /** @return the selectors which are currently watched */
+    synchronized Map<String, String[]> getWatchedSelectors() {
+        final Map<String, String[]> result = new HashMap<>();
+        mappings.values().forEach(result::putAll);
+        return result;
+    }
+
+    @Override
+    public void providersChanged(long generation, int changesCount) {
+        final List<Change> changes = new ArrayList<>();
+        synchronized (this) {
+            if (active) {
+                mappings.values().forEach(m -> checkAll(m, changes));
+            }
+        }
+        publish(changes);
+    }
+
+    /** Publish changes outside of the lock, unless they were superseded */
+    private void publish(List<Change> changes) {
+        for (Change c : changes) {
+            if (isCurrent(c)) {
+                publish(c.selector, c.fingerprint, c.selected);
+            } else {
+                log.debug("Schema for selector {} changed again, not publishing {}", c.selector, c.fingerprint);
+            }
+        }
+    }
+
+    /** @return false if a concurrent change superseded the supplied one */
+    private synchronized boolean isCurrent(Change c) {
+        return c.fingerprint.equals(fingerprints.get(c.selector));
+    }
+
+    private void checkAll(Map<String, String[]> selectorMappings, List<Change> changes) {
+        selectorMappings.forEach((sel, names) -> {
+            final Change c = check(sel, names);
+            if (c != null) {
+                changes.add(c);
+            }
+        });
+    }
+
+    /** Record the current fingerprint of a selector's schema
+     *  @return the change to publish, or null if there's none
+     */
+    private Change check(String sel, String[] names) {
+        final Collection<Partial> selected = selector.apply(names);
+        if (selected == null) {
+            log.debug("Schema for selector {} is not available", sel);
+            fingerprints.remove(sel);
+            return null;
+        }
+        final String fingerprint = DefaultSchemaAggregator.fingerprint(selected);
+        final String previous = fingerprints.put(sel, fingerprint);
+        return fingerprint.equals(previous) ? null : new Change(sel, fingerprint, selected);
+    }
+
+    private void publish(String sel, String fingerprint, Collection<Partial> selected) {
+        log.info("Schema for selector {} changed, new fingerprint is {}", sel, fingerprint);
+        for (SchemaChangeListener l : listeners) {
+            call(l, sel, fingerprint);
+        }
+        final EventAdmin ea = eventAdmin.get();
+        if (ea != null) {
+            final Map<String, Object> props = new HashMap<>();
+            props.put(SchemaAggregator.PROPERTY_SELECTOR, sel);
+            props.put(SchemaAggregator.PROPERTY_FINGERPRINT, fingerprint);
+            props.put(
+                    SchemaAggregator.PROPERTY_PARTIALS,
+                    selected.stream().map(p -> p.getPartialInfo().toString()).toArray(String[]::new));
+            ea.postEvent(new Event(SchemaAggregator.TOPIC_SCHEMA_CHANGED, props));
+        }
+    }
+
+    private static void call(SchemaChangeListener l, String sel, String fingerprint) {
+        try {
+            l.schemaChanged(sel, fingerprint);
+        } catch (RuntimeException e) {
+            log.error("Exception in SchemaChangeListener " + l, e);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.io.StringWriter;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.sling.graphql.schema.aggregator.api.AggregatedSchema;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/** Records the boundaries of the segments of a schema while it's written,
+ *  attributing each segment to the partial section which produced it, or
+ *  to the aggregator for the text that it generates.
+ */
+class SchemaSegments {
+    private final StringBuffer buffer;
+    private final List<String> sources = new ArrayList<>();
+    private final List<Integer> starts = new ArrayList<>();
+
+    private static class Segment implements AggregatedSchema.Segment {
+        private final String source;
+        private final CharSequence text;
+
+        Segment(String source, CharSequence text) {
+            this.source = source;
+            this.text = text;
+        }
+
+        @Override
+        public @Nullable String getSource() {
+            return source;
+        }
+
+        @Override
+        public @NotNull CharSequence getText() {
+            return text;
+        }
+    }
+
+    SchemaSegments(StringWriter target) {
+        this.buffer = target.getBuffer();
+        start(null);
+    }
+
+    /** @return the source of a segment produced by a partial section */
+    static String source(Partial p, Partial.SectionName section) {
+        return p.getPartialInfo() + "/" + section;
+    }
+
+    /** Start a new segment at the current end of the text
+     *  @param source null for text generated by the aggregator
+     */
+    void start(String source) {
+        final int position = buffer.length();
+        final int last = starts.size() - 1;
+        if (last >= 0 && starts.get(last) == position) {
+            // previous segment is empty
+            sources.set(last, source);
+        } else if (last < 0 || source != null || sources.get(last) != null) {
+            sources.add(source);
+            starts.add(position);
+        }
+    }
+
+    /** @return the segments of the complete text, which must be what our target received */
+    List<AggregatedSchema.Segment> getSegments(String text) {
+        final List<AggregatedSchema.Segment> result = new ArrayList<>(starts.size());
+        for (int i = 0; i < starts.size(); i++) {
+            final int end = i + 1 < starts.size() ? starts.get(i + 1) : text.length();
+            if (end > starts.get(i)) {
+                result.add(new Segment(sources.get(i), CharBuffer.wrap(text, starts.get(i), end)));
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+}
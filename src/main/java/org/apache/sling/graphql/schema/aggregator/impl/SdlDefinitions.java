@@ -0,0 +1,358 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/** Minimal scanner for GraphQL SDL text, which finds top-level definitions and
+ *  the names that they reference, without requiring a full GraphQL parser.
+ *  The results are approximate: names which are not type or directive references,
+ *  like enum values, can be included in the references, so users of this class
+ *  must only use them in ways where that's harmless, like when computing
+ *  which types are reachable.
+ */
+final class SdlDefinitions {
+
+    /** Keywords which start a top-level definition */
+    private static final Set<String> DEFINITION_KEYWORDS = new HashSet<>(
+            Arrays.asList("type", "interface", "union", "enum", "input", "scalar", "directive", "schema", "extend"));
+
+    /** Keywords which are never references */
+    private static final Set<String> OTHER_KEYWORDS = new HashSet<>(Arrays.asList("implements", "on", "repeatable"));
+
+    static final String DIRECTIVE_PREFIX = "@";
+
+    private SdlDefinitions() {}
+
+    /** A top-level definition */
+    static final class Definition {
+        private final String keyword;
+        private final String name;
+        private final boolean extension;
+        private final int start;
+        private final int end;
+        private final Set<String> references;
+        private final Set<String> interfaces;
+
+        Definition(
+                String keyword,
+                String name,
+                boolean extension,
+                int start,
+                int end,
+                Set<String> references,
+                Set<String> interfaces) {
+            this.keyword = keyword;
+            this.name = name;
+            this.extension = extension;
+            this.start = start;
+            this.end = end;
+            this.references = Collections.unmodifiableSet(references);
+            this.interfaces = Collections.unmodifiableSet(interfaces);
+        }
+
+        /** @return the definition keyword, like "type" or "directive", without "extend" */
+        @NotNull
+        String getKeyword() {
+            return keyword;
+        }
+
+        /** @return the defined name, prefixed with @ for directives, null for schema definitions */
+        @Nullable
+        String getName() {
+            return name;
+        }
+
+        boolean isExtension() {
+            return extension;
+        }
+
+        /** @return offset of this definition's text in the SDL, which includes the
+         *  comments and whitespace found after the previous definition
+         */
+        int getStart() {
+            return start;
+        }
+
+        /** @return offset of the end of this definition's text in the SDL */
+        int getEnd() {
+            return end;
+        }
+
+        /** @return the type and directive names referenced by this definition */
+        @NotNull
+        Set<String> getReferences() {
+            return references;
+        }
+
+        /** @return the names of the interfaces that this definition implements */
+        @NotNull
+        Set<String> getInterfaces() {
+            return interfaces;
+        }
+
+        @Override
+        public String toString() {
+            return (extension ? "extend " : "") + keyword + " " + name;
+        }
+    }
+
+    enum TokenType {
+        NAME,
+        STRING,
+        NUMBER,
+        PUNCTUATOR
+    }
+
+    static final class Token {
+        final TokenType type;
+        final String text;
+        final int start;
+        final int end;
+
+        Token(TokenType type, String text, int start, int end) {
+            this.type = type;
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+
+        boolean is(String str) {
+            return type != TokenType.STRING && text.equals(str);
+        }
+
+        @Override
+        public String toString() {
+            return type + ":" + text;
+        }
+    }
+
+    /** Split SDL text in tokens, ignoring comments and whitespace */
+    static @NotNull List<Token> tokenize(@NotNull String sdl) {
+        final List<Token> result = new ArrayList<>();
+        int i = 0;
+        final int n = sdl.length();
+        while (i < n) {
+            final char c = sdl.charAt(i);
+            if (c == '#') {
+                while (i < n && sdl.charAt(i) != '\n' && sdl.charAt(i) != '\r') {
+                    i++;
+                }
+            } else if (Character.isWhitespace(c) || c == ',' || c == '\uFEFF') {
+                i++;
+            } else if (c == '"') {
+                final int start = i;
+                i = skipString(sdl, i);
+                result.add(new Token(TokenType.STRING, "", start, i));
+            } else if (c == '_' || Character.isLetter(c)) {
+                final int start = i;
+                while (i < n && (sdl.charAt(i) == '_' || Character.isLetterOrDigit(sdl.charAt(i)))) {
+                    i++;
+                }
+                result.add(new Token(TokenType.NAME, sdl.substring(start, i), start, i));
+            } else if (c == '-' || Character.isDigit(c)) {
+                final int start = i++;
+                while (i < n && (Character.isLetterOrDigit(sdl.charAt(i)) || ".+-".indexOf(sdl.charAt(i)) >= 0)) {
+                    i++;
+                }
+                result.add(new Token(TokenType.NUMBER, sdl.substring(start, i), start, i));
+            } else if (sdl.startsWith("...", i)) {
+                result.add(new Token(TokenType.PUNCTUATOR, "...", i, i + 3));
+                i += 3;
+            } else {
+                result.add(new Token(TokenType.PUNCTUATOR, String.valueOf(c), i, i + 1));
+                i++;
+            }
+        }
+        return result;
+    }
+
+    /** @return the offset after the string or block string that starts at offset i */
+    private static int skipString(String sdl, int i) {
+        final int n = sdl.length();
+        if (sdl.startsWith("\"\"\"", i)) {
+            i += 3;
+            while (i < n && !sdl.startsWith("\"\"\"", i)) {
+                i += sdl.startsWith("\\\"\"\"", i) ? 4 : 1;
+            }
+            return Math.min(n, i + 3);
+        }
+        i++;
+        while (i < n && sdl.charAt(i) != '"' && sdl.charAt(i) != '\n') {
+            i += sdl.charAt(i) == '\\' ? 2 : 1;
+        }
+        return Math.min(n, i + 1);
+    }
+
+    /** Find the top-level definitions in SDL text, like the PROLOGUE and TYPES sections of partials */
+    static @NotNull List<Definition> parse(@NotNull String sdl) {
+        final List<Token> tokens = tokenize(sdl);
+        final List<Integer> starts = new ArrayList<>();
+        int depth = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            final Token t = tokens.get(i);
+            if (depth == 0 && startsDefinition(tokens, i)) {
+                starts.add(i);
+                // skip the description and "extend", so that the keywords which follow
+                // them do not start another definition
+                if (t.type == TokenType.STRING) {
+                    i++;
+                }
+                if (tokens.get(i).is("extend") && i + 1 < tokens.size()) {
+                    i++;
+                }
+            }
+            depth += depthChange(t);
+        }
+
+        final List<Definition> result = new ArrayList<>();
+        int previousEnd = 0;
+        for (int s = 0; s < starts.size(); s++) {
+            final int from = starts.get(s);
+            final int to = s + 1 < starts.size() ? starts.get(s + 1) : tokens.size();
+            final Definition d = toDefinition(tokens.subList(from, to), previousEnd);
+            if (d != null) {
+                result.add(d);
+                previousEnd = d.getEnd();
+            }
+        }
+        return result;
+    }
+
+    /** Find the names referenced by SDL text, like the field definitions of QUERY and MUTATION sections */
+    static @NotNull Set<String> references(@NotNull String sdl) {
+        final Set<String> result = new LinkedHashSet<>();
+        addReferences(tokenize(sdl), result, 0);
+        return result;
+    }
+
+    /** Find the names of the fields defined by SDL text, like the QUERY and MUTATION sections */
+    static @NotNull Set<String> fieldNames(@NotNull String sdl) {
+        final Set<String> result = new LinkedHashSet<>();
+        final List<Token> tokens = tokenize(sdl);
+        int depth = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            final Token t = tokens.get(i);
+            if (depth == 0
+                    && t.type == TokenType.NAME
+                    && i + 1 < tokens.size()
+                    && (tokens.get(i + 1).is(":") || tokens.get(i + 1).is("("))
+                    && (i == 0 || !tokens.get(i - 1).is(DIRECTIVE_PREFIX))) {
+                result.add(t.text);
+            }
+            depth += depthChange(t);
+        }
+        return result;
+    }
+
+    private static boolean startsDefinition(List<Token> tokens, int i) {
+        final Token t = tokens.get(i);
+        if (t.type == TokenType.STRING) {
+            return i + 1 < tokens.size() && startsDefinition(tokens, i + 1);
+        }
+        return t.type == TokenType.NAME && DEFINITION_KEYWORDS.contains(t.text);
+    }
+
+    private static int depthChange(Token t) {
+        if (t.type != TokenType.PUNCTUATOR) {
+            return 0;
+        }
+        switch (t.text) {
+            case "{":
+            case "(":
+            case "[":
+                return 1;
+            case "}":
+            case ")":
+            case "]":
+                return -1;
+            default:
+                return 0;
+        }
+    }
+
+    private static Definition toDefinition(List<Token> tokens, int previousEnd) {
+        int i = 0;
+        if (tokens.get(i).type == TokenType.STRING) {
+            i++;
+        }
+        boolean extension = false;
+        if (i < tokens.size() && tokens.get(i).is("extend")) {
+            extension = true;
+            i++;
+        }
+        if (i >= tokens.size() || tokens.get(i).type != TokenType.NAME) {
+            return null;
+        }
+        final String keyword = tokens.get(i++).text;
+        String name = null;
+        if ("directive".equals(keyword)) {
+            if (i + 1 < tokens.size() && tokens.get(i).is(DIRECTIVE_PREFIX)) {
+                name = DIRECTIVE_PREFIX + tokens.get(i + 1).text;
+                i += 2;
+            }
+        } else if (!"schema".equals(keyword) && i < tokens.size() && tokens.get(i).type == TokenType.NAME) {
+            name = tokens.get(i++).text;
+        }
+
+        final Set<String> interfaces = new LinkedHashSet<>();
+        if (i < tokens.size() && tokens.get(i).is("implements")) {
+            for (int j = i + 1; j < tokens.size(); j++) {
+                final Token t = tokens.get(j);
+                if (t.type == TokenType.NAME) {
+                    interfaces.add(t.text);
+                } else if (!t.is("&")) {
+                    break;
+                }
+            }
+        }
+
+        final Set<String> references = new LinkedHashSet<>();
+        addReferences(tokens, references, i);
+        if (name != null) {
+            references.remove(name);
+        }
+        return new Definition(
+                keyword, name, extension, previousEnd, tokens.get(tokens.size() - 1).end, references, interfaces);
+    }
+
+    /** Add names which are not keywords, or field and argument names (followed by : or (), to result */
+    private static void addReferences(List<Token> tokens, Set<String> result, int from) {
+        for (int i = from; i < tokens.size(); i++) {
+            final Token t = tokens.get(i);
+            if (t.is(DIRECTIVE_PREFIX) && i + 1 < tokens.size() && tokens.get(i + 1).type == TokenType.NAME) {
+                result.add(DIRECTIVE_PREFIX + tokens.get(++i).text);
+            } else if (t.type == TokenType.NAME && !OTHER_KEYWORDS.contains(t.text)) {
+                final Token next = i + 1 < tokens.size() ? tokens.get(i + 1) : null;
+                if (next == null || !(next.is(":") || next.is("("))) {
+                    result.add(t.text);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Parses the selectors to partials mappings of the SchemaAggregatorServlet, which
+ *  are also used to find out which schemas to watch for changes.
+ */
+public final class SelectorMappings {
+    private static final Logger log = LoggerFactory.getLogger(SelectorMappings.class.getName());
+
+    /** Name of the configuration and service property which holds the mappings */
+    public static final String MAPPING_PROPERTY = "selectors.to.partials.mapping";
+
+    private SelectorMappings() {}
+
+    /**
+     * Parses selectors to partials mappings.
+     *
+     * @param mappings entries in the S:P1,P2,... format
+     * @return map of selectors to partial names or regexps, in the order of the supplied mappings.
+     *     Invalid entries are logged and ignored.
+     */
+    public static @NotNull Map<String, String[]> parse(@NotNull String[] mappings) {
+        final Map<String, String[]> result = new LinkedHashMap<>();
+        for (String str : mappings) {
+            final String[] parts = str.split(":", 2);
+            if (parts.length < 2 || parts[1].trim().isEmpty()) {
+                log.warn("Invalid selectors_to_partials_mapping configuration string [{}]", str);
+                continue;
+            }
+            final String selector = parts[0].trim();
+            final String[] names = PartialRequirement.LIST_SEPARATOR.split(parts[1]);
+            for (int i = 0; i < names.length; i++) {
+                names[i] = names[i].trim();
+            }
+            if (log.isInfoEnabled()) {
+                log.info("Registering selector mapping: {} -> {}", selector, Arrays.asList(names));
+            }
+            result.put(selector, names);
+        }
+        return result;
+    }
+
+    /** Parse the mappings found in a service property, which can be a single String or an array of them */
+    static @NotNull Map<String, String[]> fromProperty(Object value) {
+        if (value instanceof String) {
+            return parse(new String[] {(String) value});
+        } else if (value instanceof String[]) {
+            return parse((String[]) value);
+        }
+        return new LinkedHashMap<>();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+import org.apache.sling.commons.metrics.MetricsService;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+/** AggregatorMetrics which publishes our metrics via Sling Commons Metrics.
+ *  That's an optional dependency, this component is only active if it's present.
+ */
+@Component(service = AggregatorMetrics.class)
+public class SlingCommonsMetrics implements AggregatorMetrics {
+
+    @Reference
+    private MetricsService metricsService;
+
+    /** Current supplier of each gauge, as a gauge cannot be registered twice */
+    private final Map<String, AtomicReference<LongSupplier>> gauges = new ConcurrentHashMap<>();
+
+    @Override
+    public void time(String name, long nanos) {
+        metricsService.timer(name).update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void count(String name, long n) {
+        metricsService.counter(name).increment(n);
+    }
+
+    @Override
+    public void update(String name, long value) {
+        metricsService.histogram(name).update(value);
+    }
+
+    @Override
+    public void gauge(String name, LongSupplier value) {
+        gauges.computeIfAbsent(name, n -> {
+                    final AtomicReference<LongSupplier> current = new AtomicReference<>();
+                    metricsService.gauge(n, () -> {
+                        final LongSupplier s = current.get();
+                        return s == null ? 0L : s.getAsLong();
+                    });
+                    return current;
+                })
+                .set(value);
+    }
+}
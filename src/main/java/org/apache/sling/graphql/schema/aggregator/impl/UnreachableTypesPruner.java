@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.Nullable;
+
+/** Computes which types are reachable from the QUERY and MUTATION sections of
+ *  a set of partials, and provides the content of their PROLOGUE and TYPES sections
+ *  without the definitions of unreachable types.
+ *  Directive and schema definitions are always kept, as are types which implement
+ *  a reachable interface, as those can be returned where the interface is used.
+ */
+final class UnreachableTypesPruner {
+    private static final Set<String> ROOT_TYPES = new HashSet<>(Arrays.asList("Query", "Mutation", "Subscription"));
+
+    private static final List<Partial.SectionName> PRUNED_SECTIONS =
+            Arrays.asList(Partial.SectionName.PROLOGUE, Partial.SectionName.TYPES);
+
+    private static final List<Partial.SectionName> ROOT_SECTIONS =
+            Arrays.asList(Partial.SectionName.QUERY, Partial.SectionName.MUTATION);
+
+    /** Kept content, by partial and section */
+    private final Map<String, String> keptContent = new HashMap<>();
+
+    private final Set<String> reachable = new HashSet<>();
+    private int removedCount;
+
+    UnreachableTypesPruner(Collection<Partial> selected) throws IOException {
+        final Map<String, String> texts = new HashMap<>();
+        final Map<String, List<SdlDefinitions.Definition>> definitions = new HashMap<>();
+        final Map<String, List<SdlDefinitions.Definition>> byName = new HashMap<>();
+        final Map<String, Set<String>> implementors = new HashMap<>();
+        final Set<String> roots = new LinkedHashSet<>(ROOT_TYPES);
+
+        for (Partial p : selected) {
+            for (Partial.SectionName s : PRUNED_SECTIONS) {
+                final String text = read(p, s);
+                if (text == null) {
+                    continue;
+                }
+                final String key = key(p, s);
+                final List<SdlDefinitions.Definition> defs = SdlDefinitions.parse(text);
+                texts.put(key, text);
+                definitions.put(key, defs);
+                for (SdlDefinitions.Definition d : defs) {
+                    if (isAlwaysKept(d)) {
+                        roots.addAll(d.getReferences());
+                        continue;
+                    }
+                    byName.computeIfAbsent(d.getName(), k -> new ArrayList<>()).add(d);
+                    for (String i : d.getInterfaces()) {
+                        implementors.computeIfAbsent(i, k -> new HashSet<>()).add(d.getName());
+                    }
+                }
+            }
+            for (Partial.SectionName s : ROOT_SECTIONS) {
+                final String text = read(p, s);
+                if (text != null) {
+                    roots.addAll(SdlDefinitions.references(text));
+                }
+            }
+        }
+
+        final Deque<String> toVisit = new ArrayDeque<>(roots);
+        while (!toVisit.isEmpty()) {
+            final String name = toVisit.pop();
+            if (reachable.add(name)) {
+                byName.getOrDefault(name, Collections.emptyList()).forEach(d -> toVisit.addAll(d.getReferences()));
+                toVisit.addAll(implementors.getOrDefault(name, Collections.emptySet()));
+            }
+        }
+
+        definitions.forEach((key, defs) -> {
+            final String text = texts.get(key);
+            final StringBuilder kept = new StringBuilder();
+            for (SdlDefinitions.Definition d : defs) {
+                if (isAlwaysKept(d) || reachable.contains(d.getName())) {
+                    kept.append(text, d.getStart(), d.getEnd());
+                } else {
+                    removedCount++;
+                }
+            }
+            if (kept.length() > 0) {
+                keptContent.put(key, kept.toString());
+            }
+        });
+    }
+
+    private static boolean isAlwaysKept(SdlDefinitions.Definition d) {
+        return d.getName() == null || "directive".equals(d.getKeyword());
+    }
+
+    private static String key(Partial p, Partial.SectionName s) {
+        return p.getPartialInfo() + "/" + s;
+    }
+
+    private static String read(Partial p, Partial.SectionName s) throws IOException {
+        final Optional<Partial.Section> section = p.getSection(s);
+        if (!section.isPresent()) {
+            return null;
+        }
+        try (Reader r = section.get().getContent()) {
+            return IOUtils.toString(r);
+        }
+    }
+
+    /** @return true if this pruner filters the supplied section */
+    boolean filters(Partial.SectionName s) {
+        return PRUNED_SECTIONS.contains(s);
+    }
+
+    /** @return the content of a PROLOGUE or TYPES section without unreachable types,
+     *  or null if nothing is left
+     */
+    @Nullable
+    String getContent(Partial p, Partial.SectionName s) {
+        return keptContent.get(key(p, s));
+    }
+
+    /** @return true if the supplied type or directive (prefixed with @) name is reachable */
+    boolean isReachable(String name) {
+        return reachable.contains(name);
+    }
+
+    /** @return the number of definitions that were removed */
+    int getRemovedCount() {
+        return removedCount;
+    }
+}
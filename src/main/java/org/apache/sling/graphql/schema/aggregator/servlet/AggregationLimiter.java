@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.servlet;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Limits the number of concurrent aggregations, with a bounded number
+ *  of requests waiting for a permit for a limited time. Requests which
+ *  cannot get a permit are rejected, to shed load instead of saturating
+ *  the CPU when many schemas need to be aggregated at once.
+ */
+class AggregationLimiter {
+    private final Semaphore permits;
+    private final int maxQueued;
+    private final long maxWaitMsec;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong rejections = new AtomicLong();
+
+    AggregationLimiter(int maxConcurrent, int maxQueued, long maxWaitMsec) {
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.maxQueued = maxQueued;
+        this.maxWaitMsec = maxWaitMsec;
+    }
+
+    /** Get a permit, waiting for one if the queue is not full.
+     *  If this returns true, {@link #release} must be called once done.
+     *  @return false if the request is rejected
+     */
+    boolean acquire() throws InterruptedException {
+        if (permits.tryAcquire()) {
+            return true;
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            rejections.incrementAndGet();
+            return false;
+        }
+        try {
+            if (permits.tryAcquire(maxWaitMsec, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } finally {
+            queued.decrementAndGet();
+        }
+        rejections.incrementAndGet();
+        return false;
+    }
+
+    void release() {
+        permits.release();
+    }
+
+    int getQueued() {
+        return queued.get();
+    }
+
+    long getRejections() {
+        return rejections.get();
+    }
+}
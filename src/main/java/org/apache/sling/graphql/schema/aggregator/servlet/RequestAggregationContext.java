@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.servlet;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletRequest;
+
+import org.apache.sling.graphql.schema.aggregator.api.AggregationContext;
+import org.jetbrains.annotations.NotNull;
+
+/** AggregationContext which cancels the aggregation for a request if the
+ *  request thread is interrupted or, for asynchronous requests, if the
+ *  request times out or fails, which is how containers report that the
+ *  client went away. The servlet starts asynchronous mode for that.
+ *  Phases are recorded to an optional ServerTiming.
+ */
+class RequestAggregationContext implements AggregationContext, AsyncListener {
+    private final AggregationContext timing;
+    private volatile boolean cancelled;
+
+    RequestAggregationContext(AggregationContext timing) {
+        this.timing = timing;
+    }
+
+    /** @param timing optional, receives the aggregation phases */
+    static RequestAggregationContext forRequest(ServletRequest request, AggregationContext timing) {
+        final RequestAggregationContext result = new RequestAggregationContext(timing);
+        if (request.isAsyncStarted()) {
+            request.getAsyncContext().addListener(result);
+        }
+        return result;
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public void recordPhase(@NotNull String phase, long nanos) {
+        if (timing != null) {
+            timing.recordPhase(phase, nanos);
+        }
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled || Thread.currentThread().isInterrupted();
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        // the response is complete, nobody will read what we aggregate now
+        cancel();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        cancel();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        cancel();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+        // nothing to do
+    }
+}
@@ -18,26 +18,50 @@
  */
 package org.apache.sling.graphql.schema.aggregator.servlet;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.Servlet;
 import javax.servlet.http.HttpServletResponse;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
 
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.apache.sling.graphql.schema.aggregator.api.AggregatedSchema;
+import org.apache.sling.graphql.schema.aggregator.api.PartialContribution;
 import org.apache.sling.graphql.schema.aggregator.api.SchemaAggregator;
+import org.apache.sling.graphql.schema.aggregator.api.SchemaChangeListener;
+import org.apache.sling.graphql.schema.aggregator.api.typeregistry.TypeRegistryProvider;
+import org.apache.sling.graphql.schema.aggregator.impl.AggregatorMetrics;
+import org.apache.sling.graphql.schema.aggregator.impl.JsonWriter;
+import org.apache.sling.graphql.schema.aggregator.impl.SelectorMappings;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
 import org.osgi.service.metatype.annotations.AttributeDefinition;
 import org.osgi.service.metatype.annotations.Designate;
 import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.osgi.service.metatype.annotations.Option;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -98,32 +122,225 @@ public class SchemaAggregatorServlet extends SlingSafeMethodsServlet {
                 description =
                         "Each entry is in the format S:P1,P2,... where S is the first selector of the incoming request "
                                 + "and P* lists the names of the corresponding schema partials to use, "
-                                + "and/or regular expressions such as /.*authoring.*/ to select all partials that match")
+                                + "and/or regular expressions such as /.*authoring.*/ to select all partials that match. "
+                                + "Names can use a version suffix like name-1.0.0, name-* for the latest version "
+                                + "or name-[1.0.0,2.0.0) for the latest version in a range")
         String[] selectors_to_partials_mapping() default {};
+
+        @AttributeDefinition(
+                name = "Maximum stale schema age (seconds)",
+                description = "If greater than zero, the last successfully aggregated schema of a selector is served, "
+                        + "flagged with an " + STALE_SCHEMA_HEADER + " response header, when aggregation fails "
+                        + "due to missing partials, for example while bundles are restarted. "
+                        + "This is the maximum time during which that stale schema is served.")
+        long stale_schema_max_age_seconds() default 0;
+
+        @AttributeDefinition(
+                name = "Stale schema retry interval (msec)",
+                description = "While a stale schema is served, aggregation is retried at most once per this interval")
+        long stale_schema_retry_interval_msec() default 1000;
+
+        @AttributeDefinition(
+                name = "Compact output",
+                description = "If true, the output omits source information and comments, "
+                        + "and redundant whitespace is removed from it")
+        boolean compact_output() default false;
+
+        @AttributeDefinition(
+                name = "Prune unreachable types",
+                description = "If true, the definitions of types which are not reachable from the Query and "
+                        + "Mutation types are omitted from the output")
+        boolean prune_unreachable_types() default false;
+
+        @AttributeDefinition(
+                name = "Schema validation",
+                description = "Validate aggregated schemas, which requires graphql-java. Validation is done once "
+                        + "per schema fingerprint. FLAG serves invalid schemas with an " + SCHEMA_ERRORS_HEADER
+                        + " response header which indicates the number of errors, REFUSE responds with "
+                        + "an error status instead of serving them.",
+                options = {
+                    @Option(label = "Off", value = "OFF"),
+                    @Option(label = "Flag invalid schemas", value = "FLAG"),
+                    @Option(label = "Refuse invalid schemas", value = "REFUSE")
+                })
+        String schema_validation() default "OFF";
+
+        @AttributeDefinition(
+                name = "Precompute introspection results",
+                description = "If true, and graphql-java is present, the introspection results served with the "
+                        + "'" + INTROSPECTION_SELECTOR + "' second selector are precomputed when schemas change, "
+                        + "instead of being computed for the first request")
+        boolean precompute_introspection() default false;
+
+        @AttributeDefinition(
+                name = "Server-Timing header",
+                description = "If true, schema responses include a Server-Timing header with the duration of the "
+                        + "aggregation phases: select, resolve, read, write and cache-hit")
+        boolean server_timing() default false;
+
+        @AttributeDefinition(
+                name = "Maximum concurrent aggregations",
+                description = "If greater than zero, limits the number of schemas which are aggregated concurrently "
+                        + "when they are not cached. Other requests wait for their turn, and are rejected with a "
+                        + "503 status and a Retry-After header if too many are waiting or if they wait too long.")
+        int max_concurrent_aggregations() default 0;
+
+        @AttributeDefinition(
+                name = "Maximum queued aggregations",
+                description = "Maximum number of requests waiting to aggregate a schema, if limited")
+        int max_queued_aggregations() default 10;
+
+        @AttributeDefinition(
+                name = "Aggregation queue timeout (msec)",
+                description = "Maximum time that a request waits to aggregate a schema, if limited")
+        long aggregation_queue_timeout_msec() default 2000;
+
+        @AttributeDefinition(
+                name = "Retry-After (seconds)",
+                description = "Value of the Retry-After header of rejected requests")
+        int retry_after_seconds() default 5;
+
+        @AttributeDefinition(
+                name = "Aggregation timeout (msec)",
+                description = "Maximum time that a request spends aggregating a schema, after which the aggregation "
+                        + "is cancelled, if the container supports asynchronous requests. Zero for no limit.")
+        long aggregation_timeout_msec() default 30000;
+
+        @AttributeDefinition(
+                name = "Schema versions retained for deltas",
+                description = "If greater than zero, this number of recent versions of the schema of each selector "
+                        + "are retained, to compute the deltas served with the '" + DELTA_SELECTOR + "' second "
+                        + "selector, which describe how to update a schema from a previous version")
+        int delta_history_size() default 0;
+    }
+
+    /** How invalid schemas are handled */
+    enum ValidationMode {
+        OFF,
+        FLAG,
+        REFUSE
     }
 
+    /** Response header set when serving a stale schema */
+    public static final String STALE_SCHEMA_HEADER = "X-Sling-GraphQL-Schema-Stale";
+
+    /** Second selector used to request the introspection result of a schema, as JSON */
+    public static final String INTROSPECTION_SELECTOR = "introspection";
+
+    /** Second selector used to request the size contributions of the partials of a schema, as JSON */
+    public static final String REPORT_SELECTOR = "report";
+
+    /** Second selector used to request the changes to a schema since a previous version, as JSON */
+    public static final String DELTA_SELECTOR = "delta";
+
+    /** Request parameter which indicates the fingerprint of the previous version, for delta requests */
+    public static final String DELTA_SINCE_PARAM = "since";
+
+    /** First selector used to request several schemas at once, as JSON */
+    public static final String BATCH_SELECTOR = "batch";
+
+    /** Request parameter which names the selectors of the schemas of a batch request */
+    public static final String BATCH_SELECTOR_PARAM = "selector";
+
+    /** Response header which indicates the number of validation errors, when serving an invalid schema */
+    public static final String SCHEMA_ERRORS_HEADER = "X-Sling-GraphQL-Schema-Errors";
+
     @Reference
     private transient SchemaAggregator aggregator;
 
+    /** Only available if graphql-java is present */
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private transient volatile TypeRegistryProvider typeRegistryProvider;
+
+    /** Only available if Sling Commons Metrics is present */
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private transient volatile AggregatorMetrics metrics;
+
+    private transient ValidationMode validationMode = ValidationMode.OFF;
+
     private Map<String, String[]> selectorsToPartialNames = new HashMap<>();
 
+    private transient Set<SchemaAggregator.Option> options = Collections.emptySet();
+
+    private transient boolean serverTiming;
+
+    /** Set if introspection results are precomputed */
+    private transient ServiceRegistration<SchemaChangeListener> introspectionPrecomputer;
+
+    /** null if the number of concurrent aggregations is not limited */
+    private transient AggregationLimiter limiter;
+
+    private transient int retryAfterSeconds;
+
+    /** Timeout of the asynchronous mode of schema requests, zero for none */
+    private transient long aggregationTimeoutMsec;
+
+    /** Fingerprint of the schema of the last introspection result served for each selector, under
+     *  the selector followed by ".introspection", to find out if computing that result is needed
+     */
+    private final transient Map<String, String> servedFingerprints = new ConcurrentHashMap<>();
+
+    /** null if deltas are disabled */
+    private transient SchemaHistory history;
+
+    /** null if serving stale schemas is disabled */
+    private transient StaleSchemaCache staleSchemas;
+
     @Activate
     public void activate(BundleContext ctx, Config cfg) {
-        for (String str : cfg.selectors_to_partials_mapping()) {
-            final String[] parts = str.split("[:,]");
-            if (parts.length < 2) {
-                log.warn("Invalid selectors_to_partials_mapping configuration string [{}]", str);
-                continue;
-            }
-            final String selector = parts[0].trim();
-            final String[] names = new String[parts.length - 1];
-            for (int i = 1; i < parts.length; i++) {
-                names[i - 1] = parts[i].trim();
-            }
-            if (log.isInfoEnabled()) {
-                log.info("Registering selector mapping: {} -> {}", selector, Arrays.asList(names));
-            }
-            selectorsToPartialNames.put(selector, names);
+        if (cfg.precompute_introspection()) {
+            introspectionPrecomputer =
+                    ctx.registerService(SchemaChangeListener.class, this::precomputeIntrospection, null);
+        }
+        if (cfg.stale_schema_max_age_seconds() > 0) {
+            staleSchemas = new StaleSchemaCache(
+                    cfg.stale_schema_max_age_seconds() * 1000L,
+                    cfg.stale_schema_retry_interval_msec(),
+                    System::currentTimeMillis);
+        }
+        if (cfg.max_concurrent_aggregations() > 0) {
+            limiter = new AggregationLimiter(
+                    cfg.max_concurrent_aggregations(),
+                    cfg.max_queued_aggregations(),
+                    cfg.aggregation_queue_timeout_msec());
+            retryAfterSeconds = cfg.retry_after_seconds();
+        }
+        if (cfg.delta_history_size() > 0) {
+            history = new SchemaHistory(cfg.delta_history_size());
+        }
+        aggregationTimeoutMsec = Math.max(0, cfg.aggregation_timeout_msec());
+        validationMode = parseValidationMode(cfg.schema_validation());
+        serverTiming = cfg.server_timing();
+        final Set<SchemaAggregator.Option> opts = EnumSet.noneOf(SchemaAggregator.Option.class);
+        if (cfg.compact_output()) {
+            opts.add(SchemaAggregator.Option.COMPACT);
+        }
+        if (cfg.prune_unreachable_types()) {
+            opts.add(SchemaAggregator.Option.PRUNE_UNREACHABLE_TYPES);
+        }
+        options = Collections.unmodifiableSet(opts);
+        selectorsToPartialNames.putAll(SelectorMappings.parse(cfg.selectors_to_partials_mapping()));
+    }
+
+    @Deactivate
+    public void deactivate() {
+        if (introspectionPrecomputer != null) {
+            introspectionPrecomputer.unregister();
+            introspectionPrecomputer = null;
+        }
+    }
+
+    private void precomputeIntrospection(String selector, String fingerprint) {
+        final String[] partialNames = selectorsToPartialNames.get(selector);
+        final TypeRegistryProvider provider = typeRegistryProvider;
+        if (partialNames == null || provider == null) {
+            return;
+        }
+        try {
+            provider.getIntrospectionResult(partialNames);
+            log.debug("Introspection result precomputed for selector {}, schema {}", selector, fingerprint);
+        } catch (IOException e) {
+            log.warn("Cannot precompute introspection result for selector {}: {}", selector, e.getMessage());
         }
     }
 
@@ -140,6 +357,10 @@ public class SchemaAggregatorServlet extends SlingSafeMethodsServlet {
 
         final String key = selectors[0];
         final String[] partialNames = selectorsToPartialNames.get(key);
+        if (partialNames == null && BATCH_SELECTOR.equals(key)) {
+            serveBatch(request, response);
+            return;
+        }
         if (partialNames == null) {
             response.sendError(HttpServletResponse.SC_BAD_REQUEST, "No partial names defined for selector " + key);
             return;
@@ -147,6 +368,451 @@ public class SchemaAggregatorServlet extends SlingSafeMethodsServlet {
         if (log.isDebugEnabled()) {
             log.debug("Selector {} maps to partial names {}", key, Arrays.asList(partialNames));
         }
-        aggregator.aggregate(response.getWriter(), partialNames);
+        if (selectors.length > 1 && INTROSPECTION_SELECTOR.equals(selectors[1])) {
+            final String servedKey = key + "." + INTROSPECTION_SELECTOR;
+            withPermit(
+                    key,
+                    () -> isUnchanged(servedKey, partialNames),
+                    response,
+                    () -> serveIntrospection(servedKey, partialNames, response));
+            return;
+        }
+        if (selectors.length > 1 && REPORT_SELECTOR.equals(selectors[1])) {
+            // contributions are not cached
+            withPermit(key, () -> false, response, () -> serveReport(key, partialNames, response));
+            return;
+        }
+        if (selectors.length > 1 && DELTA_SELECTOR.equals(selectors[1])) {
+            final CacheLookup lookup = lookup(partialNames);
+            withPermit(
+                    key,
+                    () -> lookup.schema != null,
+                    response,
+                    () -> serveDelta(key, partialNames, lookup, request, response));
+            return;
+        }
+        final long start = System.nanoTime();
+        final CacheLookup lookup = lookup(partialNames);
+        final boolean limited = limiter != null && lookup.schema == null;
+        if (limited && !acquirePermit(key, response)) {
+            return;
+        }
+        AsyncContext async = null;
+        try {
+            if (!checkValidity(key, partialNames, response)) {
+                return;
+            }
+            async = startAsync(request);
+            if (staleSchemas == null) {
+                response.getWriter()
+                        .append(getSchema(key, partialNames, lookup, request, response)
+                                .getText());
+            } else {
+                aggregateOrServeStale(key, partialNames, lookup, request, response);
+            }
+            complete(async);
+        } catch (InterruptedIOException e) {
+            AggregatorMetrics.orNoop(metrics).count(AggregatorMetrics.AGGREGATIONS_CANCELLED, 1);
+            log.debug("Aggregation cancelled for selector {}: {}", key, e.getMessage());
+            complete(async);
+        } catch (IOException | RuntimeException e) {
+            if (async == null) {
+                throw e;
+            }
+            fail(async, key, e, response);
+        } finally {
+            if (limited) {
+                limiter.release();
+            }
+            AggregatorMetrics.orNoop(metrics).time(AggregatorMetrics.servletTime(key), System.nanoTime() - start);
+        }
+    }
+
+    /** Serve the schemas of the selectors named by the request parameters, or of all
+     *  selectors if there are none, as JSON. Partials shared by several schemas are read once.
+     */
+    private void serveBatch(SlingHttpServletRequest request, SlingHttpServletResponse response) throws IOException {
+        final Map<String, String[]> selections = new LinkedHashMap<>();
+        final String[] requested = request.getParameterValues(BATCH_SELECTOR_PARAM);
+        if (requested == null) {
+            selections.putAll(new TreeMap<>(selectorsToPartialNames));
+        } else {
+            for (String selector : requested) {
+                final String[] partialNames = selectorsToPartialNames.get(selector);
+                if (partialNames == null) {
+                    response.sendError(
+                            HttpServletResponse.SC_BAD_REQUEST, "No partial names defined for selector " + selector);
+                    return;
+                }
+                selections.put(selector, partialNames);
+            }
+        }
+        final long start = System.nanoTime();
+        final Map<String, AggregatedSchema> cached = new HashMap<>();
+        final Map<String, String[]> uncached = new LinkedHashMap<>();
+        for (Map.Entry<String, String[]> e : selections.entrySet()) {
+            final AggregatedSchema schema = lookup(e.getValue()).schema;
+            if (schema == null) {
+                uncached.put(e.getKey(), e.getValue());
+            } else {
+                cached.put(e.getKey(), schema);
+            }
+        }
+        final boolean limited = limiter != null && !uncached.isEmpty();
+        if (limited && !acquirePermit(BATCH_SELECTOR, response)) {
+            return;
+        }
+        AsyncContext async = null;
+        try {
+            async = startAsync(request);
+            final Map<String, AggregatedSchema> aggregated = uncached.isEmpty()
+                    ? Collections.emptyMap()
+                    : aggregator.getSchemas(RequestAggregationContext.forRequest(request, null), options, uncached);
+            final Map<String, Object> result = new LinkedHashMap<>();
+            selections.keySet().forEach(selector -> {
+                final AggregatedSchema schema =
+                        cached.containsKey(selector) ? cached.get(selector) : aggregated.get(selector);
+                final Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("fingerprint", schema.getFingerprint());
+                entry.put("partials", schema.getPartials());
+                entry.put("schema", schema.getText().toString());
+                result.put(selector, entry);
+            });
+            response.setContentType("application/json");
+            JsonWriter.write(Collections.singletonMap("schemas", result), response.getWriter());
+            complete(async);
+        } catch (InterruptedIOException e) {
+            AggregatorMetrics.orNoop(metrics).count(AggregatorMetrics.AGGREGATIONS_CANCELLED, 1);
+            log.debug("Batch aggregation cancelled for selectors {}: {}", selections.keySet(), e.getMessage());
+            complete(async);
+        } catch (IOException | RuntimeException e) {
+            if (async == null) {
+                throw e;
+            }
+            fail(async, BATCH_SELECTOR, e, response);
+        } finally {
+            if (limited) {
+                limiter.release();
+            }
+            AggregatorMetrics.orNoop(metrics)
+                    .time(AggregatorMetrics.servletTime(BATCH_SELECTOR), System.nanoTime() - start);
+        }
+    }
+
+    /** @return true if the schema has the same fingerprint as the one of the last introspection
+     *  result served for the selector, in which case that result is cached. Computing the fingerprint
+     *  does not read the content of partials.
+     */
+    private boolean isUnchanged(String selector, String[] partialNames) {
+        try {
+            return aggregator.getFingerprint(partialNames).equals(servedFingerprints.get(selector));
+        } catch (IOException e) {
+            // aggregation will fail as well and report the error
+            return false;
+        }
+    }
+
+    /** The schema which the aggregator has cached for a request, looked up before limiting
+     *  aggregations so that the selection of partials is resolved only once to serve it
+     */
+    private static final class CacheLookup {
+        /** null if the Server-Timing header is disabled */
+        final ServerTiming timing;
+
+        /** null if the schema must be aggregated */
+        final AggregatedSchema schema;
+
+        CacheLookup(ServerTiming timing, AggregatedSchema schema) {
+            this.timing = timing;
+            this.schema = schema;
+        }
+    }
+
+    /** Ask the aggregator for the cached schema, only if aggregations are limited: otherwise
+     *  getting the schema checks the cache anyway.
+     */
+    private CacheLookup lookup(String[] partialNames) {
+        final ServerTiming timing = serverTiming ? new ServerTiming(System.nanoTime()) : null;
+        if (limiter == null) {
+            return new CacheLookup(timing, null);
+        }
+        try {
+            return new CacheLookup(
+                    timing, aggregator.getCachedSchema(new RequestAggregationContext(timing), options, partialNames));
+        } catch (IOException e) {
+            // aggregation will fail as well and report the error
+            return new CacheLookup(timing, null);
+        }
+    }
+
+    /** Something which aggregates, or uses aggregation results */
+    @FunctionalInterface
+    private interface Aggregation {
+        void run() throws IOException;
+    }
+
+    /** Run an aggregation, holding a permit of the limiter if there's one and the result is not cached */
+    private void withPermit(
+            String selector, BooleanSupplier cached, SlingHttpServletResponse response, Aggregation aggregation)
+            throws IOException {
+        final boolean limited = limiter != null && !cached.getAsBoolean();
+        if (limited && !acquirePermit(selector, response)) {
+            return;
+        }
+        try {
+            aggregation.run();
+        } finally {
+            if (limited) {
+                limiter.release();
+            }
+        }
+    }
+
+    /** Get a permit to aggregate, or respond with a 503 status
+     *  @return false if the request must not be processed further
+     */
+    private boolean acquirePermit(String selector, SlingHttpServletResponse response) throws IOException {
+        boolean acquired = false;
+        try {
+            acquired = limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!acquired) {
+            AggregatorMetrics.orNoop(metrics).count(AggregatorMetrics.AGGREGATIONS_REJECTED, 1);
+            log.debug("Too many concurrent aggregations, rejecting request for selector {}", selector);
+            response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+            response.sendError(
+                    HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    "Too many concurrent schema aggregations, please retry later");
+        }
+        return acquired;
+    }
+
+    /** Put the request in asynchronous mode if the container supports it, so that the container
+     *  notifies the RequestAggregationContext if the client goes away, if the request fails or if
+     *  the aggregation timeout expires, which cancels the aggregation. The response is still
+     *  written by the request thread.
+     *  @return null if asynchronous mode is not supported
+     */
+    private AsyncContext startAsync(SlingHttpServletRequest request) {
+        if (!request.isAsyncSupported() || request.isAsyncStarted()) {
+            return null;
+        }
+        final AsyncContext result = request.startAsync();
+        result.setTimeout(aggregationTimeoutMsec);
+        return result;
+    }
+
+    /** Complete the response if we started asynchronous mode, must be called once it's written
+     *  or once the aggregation is cancelled, and by fail() if it fails.
+     */
+    private void complete(AsyncContext async) {
+        if (async != null) {
+            try {
+                async.complete();
+            } catch (IllegalStateException ise) {
+                // the container already completed the response, after a timeout
+                log.debug("Response already completed: {}", ise.getMessage());
+            }
+        }
+    }
+
+    /** Respond with an error if an aggregation fails in asynchronous mode: the container
+     *  does not complete asynchronous responses when exceptions are thrown, so do it here.
+     */
+    private void fail(AsyncContext async, String selector, Exception e, SlingHttpServletResponse response)
+            throws IOException {
+        log.error("Schema aggregation failed for selector " + selector, e);
+        try {
+            if (!response.isCommitted()) {
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+            }
+        } finally {
+            complete(async);
+        }
+    }
+
+    /** Get the schema, unless the lookup found it in cache, and set the Server-Timing header
+     *  if enabled. The aggregation is cancelled with an InterruptedIOException if the request goes away.
+     */
+    private AggregatedSchema getSchema(
+            String selector,
+            String[] partialNames,
+            CacheLookup lookup,
+            SlingHttpServletRequest request,
+            SlingHttpServletResponse response)
+            throws IOException {
+        final ServerTiming timing = lookup.timing;
+        final AggregatedSchema result = lookup.schema != null
+                ? lookup.schema
+                : aggregator.getSchema(RequestAggregationContext.forRequest(request, timing), options, partialNames);
+        if (timing != null) {
+            response.setHeader(ServerTiming.HEADER, timing.getHeaderValue(System.nanoTime()));
+        }
+        if (history != null) {
+            history.record(selector, result);
+        }
+        return result;
+    }
+
+    /** Serve the delta between the version of the schema indicated by the request and the current one,
+     *  or the complete current schema in the same format if that version is not retained
+     */
+    private void serveDelta(
+            String selector,
+            String[] partialNames,
+            CacheLookup lookup,
+            SlingHttpServletRequest request,
+            SlingHttpServletResponse response)
+            throws IOException {
+        if (history == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Schema deltas are not enabled");
+            return;
+        }
+        final String since = request.getParameter(DELTA_SINCE_PARAM);
+        if (since == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing " + DELTA_SINCE_PARAM + " parameter");
+            return;
+        }
+        final AsyncContext async = startAsync(request);
+        try {
+            final AggregatedSchema current = getSchema(selector, partialNames, lookup, request, response);
+            final AggregatedSchema previous = history.find(selector, since);
+            if (previous == null) {
+                log.debug("Schema {} not retained for selector {}, serving a complete delta", since, selector);
+            }
+            response.setContentType("application/json");
+            JsonWriter.write(SchemaHistory.delta(previous, current), response.getWriter());
+            complete(async);
+        } catch (InterruptedIOException e) {
+            AggregatorMetrics.orNoop(metrics).count(AggregatorMetrics.AGGREGATIONS_CANCELLED, 1);
+            log.debug("Aggregation cancelled for selector {}: {}", selector, e.getMessage());
+            complete(async);
+        } catch (IOException | RuntimeException e) {
+            if (async == null) {
+                throw e;
+            }
+            fail(async, selector, e, response);
+        }
+    }
+
+    /** Serve the introspection result, recording the fingerprint of its schema
+     *  under servedKey as the provider caches it
+     */
+    private void serveIntrospection(String servedKey, String[] partialNames, SlingHttpServletResponse response)
+            throws IOException {
+        final TypeRegistryProvider provider = typeRegistryProvider;
+        if (provider == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Introspection requires graphql-java");
+            return;
+        }
+        final String fingerprint = aggregator.getFingerprint(partialNames);
+        final String json = provider.getIntrospectionResult(partialNames);
+        servedFingerprints.put(servedKey, fingerprint);
+        response.setContentType("application/json");
+        response.getWriter().write(json);
+    }
+
+    /** Serve a JSON report of the bytes contributed by each partial to the schema, largest first */
+    private void serveReport(String selector, String[] partialNames, SlingHttpServletResponse response)
+            throws IOException {
+        final List<PartialContribution> contributions = new ArrayList<>(aggregator.getContributions(partialNames));
+        contributions.sort(Comparator.comparingLong(PartialContribution::getTotalBytes)
+                .reversed()
+                .thenComparing(PartialContribution::getPartialName));
+        final List<Map<String, Object>> partials = new ArrayList<>();
+        long totalBytes = 0;
+        for (PartialContribution c : contributions) {
+            final Map<String, Object> partial = new LinkedHashMap<>();
+            partial.put("partial", c.getPartialName());
+            partial.put("direct", c.isDirect());
+            partial.put("requiredBy", c.getRequiredBy());
+            partial.put("sections", c.getSectionBytes());
+            partial.put("totalBytes", c.getTotalBytes());
+            partials.add(partial);
+            totalBytes += c.getTotalBytes();
+        }
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("selector", selector);
+        report.put("fingerprint", aggregator.getFingerprint(partialNames));
+        report.put("totalBytes", totalBytes);
+        report.put("partials", partials);
+        response.setContentType("application/json");
+        response.getWriter().write(JsonWriter.toJson(report));
+    }
+
+    ValidationMode parseValidationMode(String str) {
+        try {
+            return ValidationMode.valueOf(str.trim().toUpperCase());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            log.warn("Invalid schema validation mode {}, validation is disabled", str);
+            return ValidationMode.OFF;
+        }
+    }
+
+    /** Validate the schema if configured, and flag or refuse invalid ones
+     *  @return false if the request must not be processed further
+     */
+    private boolean checkValidity(String selector, String[] partialNames, SlingHttpServletResponse response)
+            throws IOException {
+        final TypeRegistryProvider validator = typeRegistryProvider;
+        if (validationMode == ValidationMode.OFF) {
+            return true;
+        } else if (validator == null) {
+            log.debug("No TypeRegistryProvider available, is graphql-java installed? Not validating {}", selector);
+            return true;
+        }
+        final List<String> errors;
+        try {
+            errors = validator.getValidationErrors(options, partialNames);
+        } catch (IOException e) {
+            // missing partials are handled when aggregating
+            return true;
+        }
+        if (errors.isEmpty()) {
+            return true;
+        }
+        log.warn("Schema of selector {} is invalid: {}", selector, errors);
+        if (validationMode == ValidationMode.REFUSE) {
+            response.sendError(
+                    HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                    String.format("Invalid schema for selector %s: %s", selector, errors));
+            return false;
+        }
+        response.setHeader(SCHEMA_ERRORS_HEADER, String.valueOf(errors.size()));
+        return true;
+    }
+
+    /** Get the schema before writing anything, so that we can serve the last good schema instead if that fails */
+    private void aggregateOrServeStale(
+            String selector,
+            String[] partialNames,
+            CacheLookup lookup,
+            SlingHttpServletRequest request,
+            SlingHttpServletResponse response)
+            throws IOException {
+        StaleSchemaCache.Entry stale = staleSchemas.getIfRetryPending(selector);
+        if (stale == null) {
+            try {
+                final String schema = getSchema(selector, partialNames, lookup, request, response)
+                        .getText()
+                        .toString();
+                staleSchemas.put(selector, schema);
+                response.getWriter().write(schema);
+                return;
+            } catch (InterruptedIOException e) {
+                // cancelled, not a failure of the aggregation
+                throw e;
+            } catch (IOException e) {
+                stale = staleSchemas.failed(selector);
+                if (stale == null) {
+                    throw e;
+                }
+                log.warn("Aggregation failed for selector {}, serving stale schema: {}", selector, e.getMessage());
+            }
+        }
+        response.setHeader(STALE_SCHEMA_HEADER, "true");
+        response.getWriter().write(stale.getSchema());
     }
 }
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.servlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.sling.graphql.schema.aggregator.api.AggregatedSchema;
+
+/** Keeps the recent versions of the schemas served for each selector,
+ *  to compute deltas which describe how to update an older version
+ *  into the current one.
+ */
+class SchemaHistory {
+    private final int maxVersions;
+    private final Map<String, Deque<AggregatedSchema>> versions = new HashMap<>();
+
+    SchemaHistory(int maxVersions) {
+        this.maxVersions = maxVersions;
+    }
+
+    /** Record a schema served for the selector, if it's a new version */
+    synchronized void record(String selector, AggregatedSchema schema) {
+        final Deque<AggregatedSchema> d = versions.computeIfAbsent(selector, k -> new ArrayDeque<>());
+        if (d.isEmpty() || !d.peekLast().getFingerprint().equals(schema.getFingerprint())) {
+            d.addLast(schema);
+            while (d.size() > maxVersions) {
+                d.removeFirst();
+            }
+        }
+    }
+
+    /** @return the retained version of a schema with the supplied fingerprint, null if none */
+    synchronized AggregatedSchema find(String selector, String fingerprint) {
+        final Deque<AggregatedSchema> d = versions.get(selector);
+        if (d != null) {
+            for (AggregatedSchema s : d) {
+                if (s.getFingerprint().equals(fingerprint)) {
+                    return s;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Compute the delta from one version of a schema to another, as a Map to serialize to JSON.
+     *  Concatenating the "segments" of the delta produces the new version, using the text of the
+     *  segment with the same "source" in the older version for segments that don't have a "text".
+     *
+     *  @param from the older version, null to include all segments in full
+     *  @param to the newer version
+     */
+    static Map<String, Object> delta(AggregatedSchema from, AggregatedSchema to) {
+        final Map<String, String> fromTexts = from == null ? new HashMap<>() : getTexts(from);
+        final List<Map<String, Object>> segments = new ArrayList<>();
+        for (AggregatedSchema.Segment s : to.getSegments()) {
+            final Map<String, Object> segment = new LinkedHashMap<>();
+            final String text = s.getText().toString();
+            if (s.getSource() != null) {
+                segment.put("source", s.getSource());
+            }
+            if (s.getSource() == null || !text.equals(fromTexts.get(s.getSource()))) {
+                segment.put("text", text);
+            }
+            segments.add(segment);
+        }
+
+        final Map<String, Map<String, String>> fromPartials = byPartial(fromTexts);
+        final Map<String, Map<String, String>> toPartials = byPartial(getTexts(to));
+        final List<String> added = new ArrayList<>();
+        final List<String> replaced = new ArrayList<>();
+        final List<String> removed = new ArrayList<>();
+        for (String p : to.getPartials()) {
+            if (from == null || !from.getPartials().contains(p)) {
+                added.add(p);
+            } else if (!Objects.equals(fromPartials.get(p), toPartials.get(p))) {
+                replaced.add(p);
+            }
+        }
+        if (from != null) {
+            from.getPartials().stream()
+                    .filter(p -> !to.getPartials().contains(p))
+                    .forEach(removed::add);
+        }
+
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("since", from == null ? null : from.getFingerprint());
+        result.put("fingerprint", to.getFingerprint());
+        result.put("added", added);
+        result.put("replaced", replaced);
+        result.put("removed", removed);
+        result.put("segments", segments);
+        return result;
+    }
+
+    /** @return the text of the segments which come from partials, by source */
+    private static Map<String, String> getTexts(AggregatedSchema schema) {
+        final Map<String, String> result = new HashMap<>();
+        schema.getSegments().stream()
+                .filter(s -> s.getSource() != null)
+                .forEach(s -> result.put(s.getSource(), s.getText().toString()));
+        return result;
+    }
+
+    /** @return segment texts grouped by partial, sources being like "partial/SECTION" */
+    private static Map<String, Map<String, String>> byPartial(Map<String, String> texts) {
+        final Map<String, Map<String, String>> result = new HashMap<>();
+        texts.forEach((source, text) -> result.computeIfAbsent(
+                        source.substring(0, source.lastIndexOf('/')), k -> new HashMap<>())
+                .put(source, text));
+        return result;
+    }
+}
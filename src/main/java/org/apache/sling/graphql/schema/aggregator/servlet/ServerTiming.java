@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.servlet;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.sling.graphql.schema.aggregator.api.AggregationContext;
+import org.jetbrains.annotations.NotNull;
+
+/** AggregationContext which collects the duration of the aggregation
+ *  phases of a request, to build a Server-Timing header.
+ */
+class ServerTiming implements AggregationContext {
+    static final String HEADER = "Server-Timing";
+
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private final long start;
+
+    ServerTiming(long startNanos) {
+        this.start = startNanos;
+    }
+
+    @Override
+    public void recordPhase(@NotNull String phase, long nanos) {
+        phases.merge(phase, nanos, Long::sum);
+    }
+
+    /** @return the Server-Timing header value, with durations in milliseconds,
+     *  including a "total" entry for the time elapsed since this was created.
+     */
+    String getHeaderValue(long nowNanos) {
+        final StringBuilder sb = new StringBuilder();
+        phases.forEach((phase, nanos) -> append(sb, phase, nanos));
+        append(sb, "total", nowNanos - start);
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, String name, long nanos) {
+        if (sb.length() > 0) {
+            sb.append(", ");
+        }
+        sb.append(name).append(";dur=").append(String.format(Locale.ROOT, "%.3f", nanos / 1e6));
+    }
+}
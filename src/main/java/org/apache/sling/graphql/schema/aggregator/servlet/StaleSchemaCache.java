@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.servlet;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/** Keeps the last successfully aggregated schema for each selector,
+ *  to serve it while partials are temporarily missing, for example
+ *  while their bundles are being restarted.
+ */
+class StaleSchemaCache {
+    private final long maxStaleMsec;
+    private final long retryIntervalMsec;
+    private final LongSupplier clock;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    static class Entry {
+        private final String schema;
+        private volatile long staleSinceMsec;
+        private volatile long lastFailureMsec;
+
+        Entry(String schema) {
+            this.schema = schema;
+        }
+
+        String getSchema() {
+            return schema;
+        }
+    }
+
+    StaleSchemaCache(long maxStaleMsec, long retryIntervalMsec, LongSupplier clock) {
+        this.maxStaleMsec = maxStaleMsec;
+        this.retryIntervalMsec = retryIntervalMsec;
+        this.clock = clock;
+    }
+
+    /** Record a successful aggregation */
+    void put(String selector, String schema) {
+        entries.put(selector, new Entry(schema));
+    }
+
+    /** @return the stale entry to serve without trying to aggregate again,
+     *  if the last aggregation failed less than the retry interval ago,
+     *  or null if aggregation should be attempted.
+     */
+    Entry getIfRetryPending(String selector) {
+        final Entry e = getUsable(selector);
+        if (e != null && e.lastFailureMsec > 0 && clock.getAsLong() - e.lastFailureMsec < retryIntervalMsec) {
+            return e;
+        }
+        return null;
+    }
+
+    /** Record a failed aggregation
+     *  @return the stale entry to serve instead, or null if there's
+     *      none or if it's been stale for too long.
+     */
+    Entry failed(String selector) {
+        final Entry e = entries.get(selector);
+        if (e == null) {
+            return null;
+        }
+        final long now = clock.getAsLong();
+        if (e.staleSinceMsec == 0) {
+            e.staleSinceMsec = now;
+        }
+        e.lastFailureMsec = now;
+        return getUsable(selector);
+    }
+
+    private Entry getUsable(String selector) {
+        final Entry e = entries.get(selector);
+        if (e != null && e.staleSinceMsec > 0 && clock.getAsLong() - e.staleSinceMsec > maxStaleMsec) {
+            entries.remove(selector, e);
+            return null;
+        }
+        return e;
+    }
+}
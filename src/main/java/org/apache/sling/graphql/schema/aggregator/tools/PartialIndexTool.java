@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.tools;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.sling.graphql.schema.aggregator.impl.PartialIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Build-time tool which creates the partials index of a provider bundle,
+ *  not used at runtime. Run it with the folder of partials as its only
+ *  argument, with the exec-maven-plugin for example: it fails with an
+ *  exception if any partial is invalid, which fails the build.
+ */
+public class PartialIndexTool {
+    private static final Logger log = LoggerFactory.getLogger(PartialIndexTool.class.getName());
+
+    private PartialIndexTool() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException(
+                    String.format("Usage: %s <folder of partials>", PartialIndexTool.class.getName()));
+        }
+        final File folder = new File(args[0]);
+        final int count = PartialIndex.writeIndex(folder);
+        log.info("{} partials indexed in {}", count, new File(folder, PartialIndex.INDEX_NAME).getPath());
+    }
+}
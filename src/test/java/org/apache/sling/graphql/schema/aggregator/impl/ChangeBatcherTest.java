@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeBatcherTest {
+    private ChangeBatcher batcher;
+    private final List<String> notifications = new CopyOnWriteArrayList<>();
+
+    @After
+    public void cleanup() {
+        if (batcher != null) {
+            batcher.close();
+        }
+    }
+
+    private void setup(long quietPeriodMsec) {
+        batcher = new ChangeBatcher(quietPeriodMsec);
+        batcher.addListener((generation, count) -> notifications.add(generation + ":" + count));
+    }
+
+    @Test
+    public void zeroQuietPeriodNotifiesImmediately() {
+        setup(0);
+        batcher.changed(1);
+        batcher.changed(1);
+        batcher.changed(0);
+        batcher.changed(3);
+        assertEquals("[1:1, 2:1, 3:3]", notifications.toString());
+        assertEquals(3, batcher.getGeneration());
+    }
+
+    @Test
+    public void changesAreBatched() throws Exception {
+        setup(100);
+        final CountDownLatch latch = new CountDownLatch(1);
+        batcher.addListener((generation, count) -> latch.countDown());
+        for (int i = 0; i < 5; i++) {
+            batcher.changed(1);
+        }
+        assertEquals("Expecting no notification before the quiet period", 0, notifications.size());
+        assertTrue("Expecting a notification", latch.await(5, TimeUnit.SECONDS));
+        assertEquals("[1:5]", notifications.toString());
+        assertEquals(1, batcher.getGeneration());
+    }
+
+    @Test
+    public void continuousChangesDoNotStarveListeners() throws Exception {
+        setup(20);
+        final CountDownLatch latch = new CountDownLatch(1);
+        batcher.addListener((generation, count) -> latch.countDown());
+        final long end = System.currentTimeMillis() + 20 * ChangeBatcher.MAX_DELAY_FACTOR * 3;
+        while (System.currentTimeMillis() < end && latch.getCount() > 0) {
+            batcher.changed(1);
+            Thread.sleep(5);
+        }
+        assertEquals("Expecting a notification while changes are still happening", 0, latch.getCount());
+    }
+
+    @Test
+    public void failingListenerDoesNotBlockOthers() {
+        batcher = new ChangeBatcher(0);
+        batcher.addListener((generation, count) -> {
+            throw new IllegalStateException("failing on purpose");
+        });
+        batcher.addListener((generation, count) -> notifications.add(generation + ":" + count));
+        batcher.changed(1);
+        assertEquals("[1:1]", notifications.toString());
+    }
+}
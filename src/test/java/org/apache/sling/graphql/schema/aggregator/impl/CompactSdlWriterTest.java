@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CompactSdlWriterTest {
+
+    private static String compact(String input) throws Exception {
+        final StringWriter result = new StringWriter();
+        try (CompactSdlWriter w = new CompactSdlWriter(result)) {
+            w.write(input);
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void whitespaceAndComments() throws Exception {
+        assertEquals(
+                "type Query{one:String@fetcher(name:\"one\")two(a:Int=12 b:Int):[Int!]}",
+                compact("# header comment\n\n  type Query {\n"
+                        + "    # a comment\n"
+                        + "    one : String @fetcher(name : \"one\") # trailing\n"
+                        + "    two(a: Int = 12   b: Int) : [ Int! ]\n"
+                        + "}\n\n"));
+    }
+
+    @Test
+    public void namesAreKeptApart() throws Exception {
+        assertEquals("union U=A|B\nenum E{X\nY}", compact("union U = A | B\n\nenum E {\n  X\n  Y\n}\n"));
+        assertEquals("scalar A scalar B", compact("scalar    A\tscalar B"));
+    }
+
+    @Test
+    public void stringsAreKeptAsIs() throws Exception {
+        assertEquals(
+                "\"a # not a comment  \\\" still\" type A{b:String=\"\"}",
+                compact("\"a # not a comment  \\\" still\"  type A { b : String = \"\" }"));
+    }
+
+    @Test
+    public void blockStringsAreKeptAsIs() throws Exception {
+        final String block = "\"\"\"\n  A block # with \"quotes\" and \\\"\"\" escaped\n\n  end\n\"\"\"";
+        assertEquals(block + "\ntype A{b:Int}", compact("  " + block + "\n type A {\n b:Int }"));
+    }
+
+    @Test
+    public void charByCharWrites() throws Exception {
+        final String input = "type A {\n  # comment\n  b : String }";
+        final StringWriter result = new StringWriter();
+        try (CompactSdlWriter w = new CompactSdlWriter(result)) {
+            for (char c : input.toCharArray()) {
+                w.write(c);
+            }
+        }
+        assertEquals(compact(input), result.toString());
+        assertEquals("type A{b:String}", result.toString());
+    }
+}
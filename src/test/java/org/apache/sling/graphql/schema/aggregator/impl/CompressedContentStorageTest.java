@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.function.Supplier;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompressedContentStorageTest {
+    private final CompressedContentStorage storage = new CompressedContentStorage();
+
+    private static String read(Supplier<Reader> s) throws IOException {
+        try (Reader r = s.get()) {
+            return IOUtils.toString(r);
+        }
+    }
+
+    @Test
+    public void compressesRepetitiveContent() throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            sb.append("type T").append(i).append(" {\n  id: ID!\n  caract\u00e8re: String\n}\n");
+        }
+        final String content = sb.toString();
+        final Supplier<Reader> stored = storage.store(content);
+        assertEquals(content, read(stored));
+        assertEquals("Expecting the same content on every read", content, read(stored));
+        assertTrue(
+                "Expecting at least a 5x compression ratio", storage.getStoredBytes() * 5 < storage.getContentBytes());
+    }
+
+    @Test
+    public void smallContentIsNotCompressed() throws IOException {
+        assertEquals("x", read(storage.store("x")));
+        assertEquals("", read(storage.store("")));
+        assertEquals(1, storage.getContentBytes());
+        assertEquals(1, storage.getStoredBytes());
+    }
+
+    @Test
+    public void releasedContentIsSubtracted() {
+        final ContentStorage.StoredContent small = storage.store("x");
+        final ContentStorage.StoredContent large = storage.store(String.join("", Collections.nCopies(100, "abc")));
+        assertEquals(301, storage.getContentBytes());
+        assertEquals(1 + large.getStoredBytes(), storage.getStoredBytes());
+
+        large.release();
+        large.release();
+        assertEquals("Releasing twice has no effect", 1, storage.getContentBytes());
+        assertEquals(1, storage.getStoredBytes());
+        small.release();
+        assertEquals(0, storage.getContentBytes());
+        assertEquals(0, storage.getStoredBytes());
+    }
+}
@@ -20,9 +20,26 @@ package org.apache.sling.graphql.schema.aggregator.impl;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
 import graphql.language.TypeDefinition;
@@ -30,13 +47,23 @@ import graphql.schema.idl.SchemaParser;
 import graphql.schema.idl.TypeDefinitionRegistry;
 import org.apache.commons.io.IOUtils;
 import org.apache.sling.graphql.schema.aggregator.U;
+import org.apache.sling.graphql.schema.aggregator.api.AggregatedSchema;
+import org.apache.sling.graphql.schema.aggregator.api.AggregationContext;
+import org.apache.sling.graphql.schema.aggregator.api.PartialContribution;
+import org.apache.sling.graphql.schema.aggregator.api.SchemaAggregator;
 import org.junit.Before;
 import org.junit.Test;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Version;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
@@ -69,7 +96,7 @@ public class DefaultSchemaAggregatorTest {
         bundleContext = mock(BundleContext.class);
         when(bundleContext.getBundle()).thenReturn(mock(Bundle.class));
         tracker = new ProviderBundleTracker();
-        tracker.activate(bundleContext);
+        tracker.activate(bundleContext, mock(ProviderBundleTracker.Config.class));
         f.set(dsa, tracker);
     }
 
@@ -113,6 +140,308 @@ public class DefaultSchemaAggregatorTest {
         U.assertPartialsFoundInSchema(target.toString(), "a.authoring.1", "a.authoring.2", "b.authoring", "b1");
     }
 
+    @Test
+    public void literalPrefix() {
+        assertEquals("authoring.", DefaultSchemaAggregator.literalPrefix("authoring\\..*"));
+        assertEquals("ab_c", DefaultSchemaAggregator.literalPrefix("ab_c"));
+        assertEquals("a", DefaultSchemaAggregator.literalPrefix("a.b_c"));
+        assertEquals("ab", DefaultSchemaAggregator.literalPrefix("ab+c"));
+        assertEquals("a", DefaultSchemaAggregator.literalPrefix("ab?c"));
+        assertEquals("a", DefaultSchemaAggregator.literalPrefix("ab*"));
+        assertEquals("a", DefaultSchemaAggregator.literalPrefix("ab{0,2}"));
+        assertEquals("ab", DefaultSchemaAggregator.literalPrefix("ab\\d"));
+        assertEquals("", DefaultSchemaAggregator.literalPrefix(".*\\.authoring.*"));
+        assertEquals("", DefaultSchemaAggregator.literalPrefix("[a-z]_test"));
+        assertEquals("", DefaultSchemaAggregator.literalPrefix("a.x|b.y"));
+        assertEquals("", DefaultSchemaAggregator.literalPrefix("(?i)abc"));
+    }
+
+    @Test
+    public void prefixRegexpSelection() throws Exception {
+        final StringWriter target = new StringWriter();
+        tracker.addingBundle(
+                U.mockProviderBundle(
+                        bundleContext, "A", 1, "authoring.b.txt", "authoring.a.txt", "authoringX.txt", "a.txt"),
+                null);
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "B", 2, "authoring.c-1.0.0.txt", "b.txt"), null);
+        dsa.aggregate(target, "/authoring\\..*/");
+        final String expected =
+                "End of Schema aggregated from {authoring.a,authoring.b,authoring.c-1.0.0} by DefaultSchemaAggregator";
+        assertTrue(
+                String.format("Expecting schema to contain [%s]: %s", expected, target),
+                target.toString().contains(expected));
+    }
+
+    @Test
+    public void pruneUnreachableTypes() throws Exception {
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "P", 1, "a.sdl.txt", "prune.partial.txt"), null);
+        final StringWriter target = new StringWriter();
+        dsa.aggregate(target, EnumSet.of(SchemaAggregator.Option.PRUNE_UNREACHABLE_TYPES), "a.sdl", "prune.partial");
+        final String sdl = target.toString();
+
+        Stream.of(
+                        "directive @fetcher",
+                        "\"Description of Reachable, with a { brace\"\ntype Reachable {",
+                        "type Child {",
+                        "extend type Child {",
+                        "type Extra {",
+                        "interface Node {",
+                        "type NodeImpl implements Node {")
+                .forEach(s -> assertTrue("Expecting [" + s + "] in " + sdl, sdl.contains(s)));
+        Stream.of("SlingResource", "PageInfo", "typeFromA", "Unreachable", "UnusedEnum")
+                .forEach(s -> assertFalse("Not expecting [" + s + "] in " + sdl, sdl.contains(s)));
+
+        // Same schema, compacted
+        final StringWriter compact = new StringWriter();
+        dsa.aggregate(
+                compact,
+                EnumSet.of(SchemaAggregator.Option.PRUNE_UNREACHABLE_TYPES, SchemaAggregator.Option.COMPACT),
+                "a.sdl",
+                "prune.partial");
+        assertTrue(compact.toString().contains("type Child{size:Int}"));
+        assertFalse(compact.toString().contains("Unreachable"));
+    }
+
+    @Test
+    public void cachedSchema() throws Exception {
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "a1.txt", "a2.txt"), null);
+        final AggregatedSchema first = dsa.getSchema("/a\\d/");
+        assertSame(first, dsa.getSchema("/a\\d/"));
+        assertEquals(Arrays.asList("a1", "a2"), first.getPartials());
+        assertEquals(dsa.getFingerprint("/a\\d/"), first.getFingerprint());
+
+        final StringWriter target = new StringWriter();
+        dsa.aggregate(target, "/a\\d/");
+        assertEquals(target.toString(), first.getText().toString());
+        assertEquals(
+                target.toString(),
+                StandardCharsets.UTF_8.decode(first.getUtf8Bytes()).toString());
+
+        final AggregatedSchema compact = dsa.getSchema(EnumSet.of(SchemaAggregator.Option.COMPACT), "/a\\d/");
+        assertNotSame(first, compact);
+        assertEquals(first.getFingerprint(), compact.getFingerprint());
+        assertFalse(compact.getText().toString().contains("#"));
+
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "B", 2, "a3.txt"), null);
+        final AggregatedSchema second = dsa.getSchema("/a\\d/");
+        assertNotSame(first, second);
+        assertNotEquals(first.getFingerprint(), second.getFingerprint());
+        assertEquals(Arrays.asList("a1", "a2", "a3"), second.getPartials());
+        assertTrue(second.getGeneration() > first.getGeneration());
+        assertSame(second, dsa.getSchema("/a\\d/"));
+    }
+
+    @Test
+    public void getCachedSchema() throws Exception {
+        final AggregationContext ctx = DefaultSchemaAggregator.NO_CONTEXT;
+        final Set<SchemaAggregator.Option> none = Collections.emptySet();
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "a1.txt", "a2.txt"), null);
+        assertNull("Not aggregated yet", dsa.getCachedSchema(ctx, none, "/a\\d/"));
+        final AggregatedSchema first = dsa.getSchema("/a\\d/");
+        assertSame(first, dsa.getCachedSchema(ctx, none, "/a\\d/"));
+        assertNull("Other options", dsa.getCachedSchema(ctx, EnumSet.of(SchemaAggregator.Option.COMPACT), "/a\\d/"));
+
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "B", 2, "a3.txt"), null);
+        assertNull("Selected partials changed", dsa.getCachedSchema(ctx, none, "/a\\d/"));
+        assertSame(dsa.getSchema("/a\\d/"), dsa.getCachedSchema(ctx, none, "/a\\d/"));
+    }
+
+    @Test
+    public void metrics() throws Exception {
+        final RecordingMetrics metrics = new RecordingMetrics();
+        final Field f = dsa.getClass().getDeclaredField("metrics");
+        f.setAccessible(true);
+        f.set(dsa, metrics);
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "a1.txt", "a2.txt"), null);
+
+        final StringWriter target = new StringWriter();
+        dsa.aggregate(target, "/a\\d/");
+        assertEquals(1, metrics.getCount(AggregatorMetrics.AGGREGATION_TIME));
+        assertEquals(target.toString().length(), metrics.getLast(AggregatorMetrics.AGGREGATION_SIZE));
+        assertEquals(2, metrics.getLast(AggregatorMetrics.AGGREGATION_PARTIALS));
+
+        final AggregatedSchema schema = dsa.getSchema("/a\\d/");
+        dsa.getSchema("/a\\d/");
+        assertEquals(2, metrics.getCount(AggregatorMetrics.AGGREGATION_TIME));
+        assertEquals(schema.getText().length(), metrics.getLast(AggregatorMetrics.AGGREGATION_SIZE));
+        assertEquals(1, metrics.getSum(AggregatorMetrics.SCHEMA_CACHE_MISSES));
+        assertEquals(1, metrics.getSum(AggregatorMetrics.SCHEMA_CACHE_HITS));
+    }
+
+    @Test
+    public void aggregationPhases() throws Exception {
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "a1.txt", "a2.txt"), null);
+        final Map<String, Long> phases = new HashMap<>();
+        final AggregationContext ctx = (phase, nanos) -> {
+            assertTrue("Expecting a positive duration for " + phase, nanos >= 0);
+            phases.merge(phase, nanos, Long::sum);
+        };
+        final Set<SchemaAggregator.Option> options = Collections.emptySet();
+        final AggregatedSchema first = dsa.getSchema(ctx, options, "a1", "a2");
+        assertEquals(
+                new TreeSet<>(Arrays.asList(
+                        AggregationContext.PHASE_SELECT,
+                        AggregationContext.PHASE_RESOLVE,
+                        AggregationContext.PHASE_READ,
+                        AggregationContext.PHASE_WRITE)),
+                new TreeSet<>(phases.keySet()));
+
+        phases.clear();
+        assertSame(first, dsa.getSchema(ctx, options, "a1", "a2"));
+        assertTrue(phases.containsKey(AggregationContext.PHASE_CACHE_HIT));
+        assertFalse(phases.containsKey(AggregationContext.PHASE_WRITE));
+
+        phases.clear();
+        final StringWriter target = new StringWriter();
+        dsa.aggregate(target, ctx, options, "a1", "a2");
+        assertEquals(first.getText().toString(), target.toString());
+        assertTrue(phases.containsKey(AggregationContext.PHASE_WRITE));
+    }
+
+    @Test
+    public void cancelledAggregation() throws Exception {
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "a1.txt", "a2.txt"), null);
+        final AtomicInteger checks = new AtomicInteger();
+        final AggregationContext ctx = new AggregationContext() {
+            @Override
+            public void recordPhase(String phase, long nanos) {
+                // not needed
+            }
+
+            @Override
+            public boolean isCancelled() {
+                // cancel after copying the QUERY section of a1, checks are done
+                // once per aggregation and then once per partial for each section
+                return checks.incrementAndGet() > 4;
+            }
+        };
+        final Set<SchemaAggregator.Option> options = Collections.emptySet();
+        final StringWriter target = new StringWriter();
+        assertThrows(InterruptedIOException.class, () -> dsa.aggregate(target, ctx, options, "a1", "a2"));
+        assertTrue(target.toString().contains("Fake query for a1.txt"));
+        assertFalse(target.toString().contains("Fake query for a2.txt"));
+
+        checks.set(0);
+        assertThrows(InterruptedIOException.class, () -> dsa.getSchema(ctx, options, "a1", "a2"));
+        assertEquals("Cancelled schemas are not cached", 0L, (long)
+                dsa.getCacheStatistics().get("schemaCacheSize"));
+        assertNotNull(dsa.getSchema(options, "a1", "a2"));
+    }
+
+    @Test
+    public void sectionContentIsClosed() throws Exception {
+        final AtomicInteger closed = new AtomicInteger();
+        final Partial.Section query = new Partial.Section() {
+            @Override
+            public Partial.SectionName getName() {
+                return Partial.SectionName.QUERY;
+            }
+
+            @Override
+            public String getDescription() {
+                return "";
+            }
+
+            @Override
+            public Reader getContent() {
+                return new StringReader("closeable: Int") {
+                    @Override
+                    public void close() {
+                        closed.incrementAndGet();
+                        super.close();
+                    }
+                };
+            }
+        };
+        final Partial partial = new Partial() {
+            @Override
+            public PartialInfo getPartialInfo() {
+                return new PartialInfo("closeable", Version.emptyVersion);
+            }
+
+            @Override
+            public Optional<Section> getSection(SectionName name) {
+                return name == SectionName.QUERY ? Optional.of(query) : Optional.empty();
+            }
+
+            @Override
+            public Set<PartialRequirement> getRequiredPartialNames() {
+                return Collections.emptySet();
+            }
+
+            @Override
+            public String getDigest() {
+                return "closeable-digest";
+            }
+        };
+        final NavigableMap<PartialInfo, Partial> providers = new TreeMap<>();
+        providers.put(partial.getPartialInfo(), partial);
+        final ProviderBundleTracker fixed = new ProviderBundleTracker() {
+            @Override
+            NavigableMap<PartialInfo, Partial> getSchemaProviders() {
+                return providers;
+            }
+
+            @Override
+            Partial resolve(PartialRequirement req) {
+                return providers.get(partial.getPartialInfo());
+            }
+        };
+        final Field f = dsa.getClass().getDeclaredField("tracker");
+        f.setAccessible(true);
+        f.set(dsa, fixed);
+
+        final StringWriter target = new StringWriter();
+        dsa.aggregate(target, Collections.emptySet(), "closeable");
+        assertTrue(target.toString().contains("closeable: Int"));
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void batchSchemas() throws Exception {
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "a1.txt", "a2.txt", "b1.txt"), null);
+        final Map<String, String[]> selections = new LinkedHashMap<>();
+        selections.put("S2", new String[] {"a1", "b1"});
+        selections.put("S1", new String[] {"a1", "a2"});
+        final Set<SchemaAggregator.Option> options = Collections.emptySet();
+        final Map<String, AggregatedSchema> schemas =
+                dsa.getSchemas(DefaultSchemaAggregator.NO_CONTEXT, options, selections);
+        assertEquals(Arrays.asList("S2", "S1"), new ArrayList<>(schemas.keySet()));
+        for (Map.Entry<String, String[]> e : selections.entrySet()) {
+            final StringWriter target = new StringWriter();
+            dsa.aggregate(target, options, e.getValue());
+            assertEquals(target.toString(), schemas.get(e.getKey()).getText().toString());
+            assertSame(schemas.get(e.getKey()), dsa.getSchema(options, e.getValue()));
+        }
+        assertThrows(
+                IOException.class,
+                () -> dsa.getSchemas(
+                        DefaultSchemaAggregator.NO_CONTEXT,
+                        options,
+                        Collections.singletonMap("S3", new String[] {"missing"})));
+    }
+
+    @Test
+    public void segments() throws Exception {
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "a1.txt", "a2.txt"), null);
+        final AggregatedSchema schema = dsa.getSchema("a1", "a2");
+        final StringBuilder text = new StringBuilder();
+        final List<String> sources = new ArrayList<>();
+        for (AggregatedSchema.Segment s : schema.getSegments()) {
+            assertTrue("Expecting no empty segments", s.getText().length() > 0);
+            text.append(s.getText());
+            if (s.getSource() != null) {
+                sources.add(s.getSource());
+                assertTrue(s.getText().toString().contains(s.getSource().substring(0, 2)));
+            }
+        }
+        assertEquals(schema.getText().toString(), text.toString());
+        assertTrue(sources.toString(), sources.contains("a1/QUERY"));
+        assertTrue(sources.toString(), sources.contains("a2/QUERY"));
+        // the header and block start, the two partials and the block end and footer
+        assertEquals(4, schema.getSegments().size());
+    }
+
     @Test
     public void verifyResultSyntax() throws Exception {
         final StringWriter target = new StringWriter();
@@ -142,6 +471,26 @@ public class DefaultSchemaAggregatorTest {
         assertOutput("/partials/result-syntax-output.txt", sdl);
     }
 
+    @Test
+    public void compactOutput() throws Exception {
+        final StringWriter target = new StringWriter();
+        tracker.addingBundle(
+                U.mockProviderBundle(bundleContext, "SDL", 1, "a.sdl.txt", "b.sdl.txt", "c.sdl.txt"), null);
+
+        dsa.aggregate(target, EnumSet.of(SchemaAggregator.Option.COMPACT), "/.*/");
+        final String sdl = target.toString();
+        assertFalse("Expecting no comments in " + sdl, sdl.contains("#"));
+        assertFalse("Expecting no blank lines in " + sdl, sdl.contains("\n\n"));
+        assertTrue("Expecting compact Query in " + sdl, sdl.contains("type Query{"));
+        assertTrue("Expecting compact type in " + sdl, sdl.contains("type PageInfo{count:Int}"));
+
+        // Parse the output with a real SDL parser
+        final TypeDefinitionRegistry reg = new SchemaParser().parse(sdl);
+        assertTrue(reg.getDirectiveDefinition("fetcher").isPresent());
+        assertTrue(reg.getType("SlingResourceConnection").isPresent());
+        assertTrue(reg.getType("Query").get().getChildren().toString().contains("oneSchemaQuery"));
+    }
+
     @Test
     public void verifyResultSyntaxMutationOnly() throws Exception {
         final StringWriter target = new StringWriter();
@@ -200,6 +549,112 @@ public class DefaultSchemaAggregatorTest {
         assertContainsIgnoreCase("required-2.0.0", iox.getMessage());
     }
 
+    @Test
+    public void latestAndRangeVersionSelection() throws IOException {
+        tracker.addingBundle(
+                U.mockProviderBundle(bundleContext, "lib", 1, "lib-1.0.0.txt", "lib-1.5.0.txt", "lib-2.0.0.txt"), null);
+
+        final StringWriter latest = new StringWriter();
+        dsa.aggregate(latest, "lib-*");
+        U.assertPartialsFoundInSchema(latest.toString(), "lib-2.0.0");
+        assertFalse(latest.toString().contains("lib-1.5.0"));
+
+        final StringWriter range = new StringWriter();
+        dsa.aggregate(range, "lib-[1.0.0,2.0.0)");
+        U.assertPartialsFoundInSchema(range.toString(), "lib-1.5.0");
+        assertFalse(range.toString().contains("lib-2.0.0"));
+
+        final IOException iox =
+                assertThrows(IOException.class, () -> dsa.aggregate(new StringWriter(), "lib-[3.0.0,4.0.0)"));
+        assertContainsIgnoreCase("lib-[3.0.0,4.0.0)", iox.getMessage());
+    }
+
+    @Test
+    public void rangeRequirements() throws IOException {
+        final StringWriter target = new StringWriter();
+        tracker.addingBundle(
+                U.mockProviderBundle(
+                        bundleContext,
+                        "required.partials",
+                        1,
+                        "required-1.0.0.txt",
+                        "required-2.0.0.txt",
+                        "versioned-1.0.0.txt",
+                        "versioned-2.0.0.txt"),
+                null);
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "range", 2, "requires.range.txt"), null);
+        dsa.aggregate(target, "requires.range");
+
+        // versioned-2.0.0 is the latest version, and it requires required-2.0.0 itself
+        final String expected =
+                "{requires.range,required-1.0.0,versioned-2.0.0,required-2.0.0} by DefaultSchemaAggregator";
+        assertTrue(
+                String.format("Expecting schema to contain [%s]: %s", expected, target),
+                target.toString().contains(expected));
+    }
+
+    @Test
+    public void contributions() throws IOException {
+        tracker.addingBundle(
+                U.mockProviderBundle(
+                        bundleContext,
+                        "required.partials",
+                        1,
+                        "required-1.0.0.txt",
+                        "required-2.0.0.txt",
+                        "versioned-1.0.0.txt",
+                        "versioned-2.0.0.txt"),
+                null);
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "range", 2, "requires.range.txt"), null);
+        final Map<String, PartialContribution> byName = new HashMap<>();
+        dsa.getContributions("requires.range").forEach(c -> byName.put(c.getPartialName(), c));
+        assertEquals(4, byName.size());
+
+        assertTrue(byName.get("requires.range").isDirect());
+        assertEquals(
+                "[requires.range]", byName.get("required-1.0.0").getRequiredBy().toString());
+        assertEquals(
+                "[requires.range]",
+                byName.get("versioned-2.0.0").getRequiredBy().toString());
+        assertEquals(
+                "[requires.range, versioned-2.0.0]",
+                byName.get("required-2.0.0").getRequiredBy().toString());
+        assertFalse(byName.get("required-2.0.0").isDirect());
+
+        final PartialContribution required = byName.get("required-1.0.0");
+        assertTrue(required.getSectionBytes().get("PROLOGUE") > 0);
+        assertEquals(
+                required.getSectionBytes().values().stream()
+                        .mapToLong(Long::longValue)
+                        .sum(),
+                required.getTotalBytes());
+
+        final IOException iox = assertThrows(IOException.class, () -> dsa.getContributions("missing"));
+        assertContainsIgnoreCase("missing providers", iox.getMessage());
+    }
+
+    @Test
+    public void utf8Length() throws IOException {
+        final String str = "a\u00e8\u20ac\ud83d\ude00";
+        assertEquals(
+                str.getBytes(StandardCharsets.UTF_8).length, DefaultSchemaAggregator.utf8Length(new StringReader(str)));
+    }
+
+    @Test
+    public void fingerprint() throws Exception {
+        tracker.addingBundle(
+                U.mockProviderBundle(bundleContext, "SDL", 1, "a.sdl.txt", "b.sdl.txt", "c.sdl.txt"), null);
+        final String fp = dsa.getFingerprint("c.sdl");
+        assertTrue("Expecting a SHA-256 fingerprint: " + fp, fp.startsWith("SHA-256: "));
+        assertEquals(fp, dsa.getFingerprint("c.sdl"));
+        assertEquals("Same partials in the same order", fp, dsa.getFingerprint("/c\\.sdl/"));
+        assertNotEquals(fp, dsa.getFingerprint("a.sdl"));
+        assertNotEquals("Order matters", dsa.getFingerprint("a.sdl", "b.sdl"), dsa.getFingerprint("b.sdl", "a.sdl"));
+
+        final IOException iox = assertThrows(IOException.class, () -> dsa.getFingerprint("c.sdl", "missing"));
+        assertContainsIgnoreCase("missing providers", iox.getMessage());
+    }
+
     @Test
     public void cycleInRequirements() throws Exception {
         final StringWriter target = new StringWriter();
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import graphql.language.FieldDefinition;
+import graphql.language.ObjectTypeDefinition;
+import graphql.schema.idl.TypeDefinitionRegistry;
+import org.apache.sling.graphql.schema.aggregator.U;
+import org.apache.sling.graphql.schema.aggregator.api.SchemaAggregator;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DefaultTypeRegistryProviderTest {
+    private DefaultTypeRegistryProvider provider;
+    private ProviderBundleTracker tracker;
+    private BundleContext bundleContext;
+
+    private static void inject(Object target, String fieldName, Object value) throws Exception {
+        final Field f = target.getClass().getDeclaredField(fieldName);
+        f.setAccessible(true);
+        f.set(target, value);
+    }
+
+    @Before
+    public void setup() throws Exception {
+        bundleContext = mock(BundleContext.class);
+        when(bundleContext.getBundle()).thenReturn(mock(Bundle.class));
+        tracker = new ProviderBundleTracker();
+        tracker.activate(bundleContext, mock(ProviderBundleTracker.Config.class));
+        final DefaultSchemaAggregator dsa = new DefaultSchemaAggregator();
+        inject(dsa, "tracker", tracker);
+        provider = new DefaultTypeRegistryProvider();
+        inject(provider, "tracker", tracker);
+        inject(provider, "aggregator", dsa);
+        provider.activate();
+    }
+
+    private static String fieldNames(TypeDefinitionRegistry reg, String typeName) {
+        final StringBuilder sb = new StringBuilder();
+        for (FieldDefinition f :
+                reg.getType(typeName, ObjectTypeDefinition.class).get().getFieldDefinitions()) {
+            sb.append(sb.length() > 0 ? "," : "").append(f.getName());
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void mergedRegistry() throws Exception {
+        tracker.addingBundle(
+                U.mockProviderBundle(bundleContext, "SDL", 1, "a.sdl.txt", "b.sdl.txt", "c.sdl.txt"), null);
+        final TypeDefinitionRegistry reg = provider.getTypeDefinitionRegistry("c.sdl");
+
+        assertTrue(reg.getDirectiveDefinition("fetcher").isPresent());
+        assertTrue(reg.getType("SlingResourceConnection").isPresent());
+        assertTrue(reg.getType("typeFromA").isPresent());
+        assertEquals("oneSchemaResource,oneSchemaQuery", fieldNames(reg, "Query"));
+        assertEquals("someMutation", fieldNames(reg, "Mutation"));
+        assertSame(reg, provider.getTypeDefinitionRegistry("c.sdl"));
+        assertEquals(3, provider.getParsedPartialsCount());
+    }
+
+    @Test
+    public void queryAlwaysPresent() throws Exception {
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "SDL", 1, "a.sdl.txt", "mutation.only.txt"), null);
+        final TypeDefinitionRegistry reg = provider.getTypeDefinitionRegistry("mutation.only");
+        assertEquals("", fieldNames(reg, "Query"));
+        assertEquals("theOnlyMutation", fieldNames(reg, "Mutation"));
+
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "B", 2, "b.sdl.txt"), null);
+        assertFalse(
+                provider.getTypeDefinitionRegistry("b.sdl").getType("Mutation").isPresent());
+    }
+
+    @Test
+    public void partialsAreParsedOnce() throws Exception {
+        tracker.addingBundle(
+                U.mockProviderBundle(bundleContext, "SDL", 1, "a.sdl.txt", "b.sdl.txt", "c.sdl.txt"), null);
+        final TypeDefinitionRegistry first = provider.getTypeDefinitionRegistry("a.sdl", "b.sdl");
+        assertEquals(2, provider.getParsedPartialsCount());
+        final TypeDefinitionRegistry second = provider.getTypeDefinitionRegistry("/.*sdl/");
+        assertNotSame(first, second);
+        assertEquals(3, provider.getParsedPartialsCount());
+        assertEquals("oneSchemaResource,oneSchemaQuery", fieldNames(second, "Query"));
+
+        // Parsed partials which are not provided anymore are dropped
+        final Bundle other = U.mockProviderBundle(bundleContext, "OTHER", 2, "mutation.only.txt");
+        tracker.addingBundle(other, null);
+        provider.getTypeDefinitionRegistry("mutation.only");
+        assertEquals(4, provider.getParsedPartialsCount());
+        tracker.removedBundle(other, null, null);
+        assertEquals(3, provider.getParsedPartialsCount());
+    }
+
+    @Test
+    public void missingPartial() {
+        final IOException iox = assertThrows(IOException.class, () -> provider.getTypeDefinitionRegistry("missing"));
+        assertTrue(iox.getMessage().contains("missing"));
+        assertThrows(IOException.class, () -> provider.getValidationErrors("missing"));
+    }
+
+    @Test
+    public void validation() throws Exception {
+        tracker.addingBundle(
+                U.mockProviderBundle(
+                        bundleContext, "SDL", 1, "a.sdl.txt", "validation.ok.txt", "validation.failed.txt"),
+                null);
+        final List<String> ok = provider.getValidationErrors("validation.ok");
+        assertTrue("Expecting no errors: " + ok, ok.isEmpty());
+
+        final List<String> failed = provider.getValidationErrors("validation.ok", "validation.failed");
+        assertFalse(failed.isEmpty());
+        assertTrue(
+                "Expecting the undefined type in " + failed, failed.toString().contains("NotDefinedAnywhere"));
+
+        // Validation results are cached by fingerprint
+        assertSame(failed, provider.getValidationErrors("validation.ok", "validation.failed"));
+    }
+
+    @Test
+    public void validationOfTheOutput() throws Exception {
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "SDL", 1, "validation.unreachable.txt"), null);
+        final List<String> merged = provider.getValidationErrors("validation.unreachable");
+        assertTrue(
+                "Expecting the undefined type in " + merged, merged.toString().contains("NotDefinedAnywhere"));
+        assertSame(merged, provider.getValidationErrors(Collections.emptySet(), "validation.unreachable"));
+
+        final Set<SchemaAggregator.Option> prune = EnumSet.of(SchemaAggregator.Option.PRUNE_UNREACHABLE_TYPES);
+        final List<String> pruned = provider.getValidationErrors(prune, "validation.unreachable");
+        assertTrue("Expecting the pruned output to be valid: " + pruned, pruned.isEmpty());
+        assertSame(pruned, provider.getValidationErrors(prune, "validation.unreachable"));
+
+        final Set<SchemaAggregator.Option> compact = EnumSet.of(SchemaAggregator.Option.COMPACT);
+        final List<String> compacted = provider.getValidationErrors(compact, "validation.unreachable");
+        assertTrue(
+                "Expecting the undefined type in " + compacted,
+                compacted.toString().contains("NotDefinedAnywhere"));
+    }
+
+    @Test
+    public void introspection() throws Exception {
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "SDL", 1, "a.sdl.txt", "validation.ok.txt"), null);
+        final String json = provider.getIntrospectionResult("validation.ok");
+        assertTrue(json, json.startsWith("{\"data\":{\"__schema\":"));
+        assertTrue(json, json.contains("\"name\":\"SlingResource\""));
+        assertSame(json, provider.getIntrospectionResult("validation.ok"));
+
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "FAILED", 2, "validation.failed.txt"), null);
+        assertThrows(IOException.class, () -> provider.getIntrospectionResult("validation.failed"));
+    }
+}
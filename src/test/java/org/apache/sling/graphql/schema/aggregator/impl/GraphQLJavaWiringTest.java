@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class GraphQLJavaWiringTest {
+
+    private static BundleWire packageWire(String packageName) {
+        final BundleCapability capability = mock(BundleCapability.class);
+        when(capability.getAttributes())
+                .thenReturn(Collections.singletonMap(PackageNamespace.PACKAGE_NAMESPACE, packageName));
+        final BundleWire wire = mock(BundleWire.class);
+        when(wire.getCapability()).thenReturn(capability);
+        return wire;
+    }
+
+    private static BundleContext bundleContext(String... importedPackages) {
+        final List<BundleWire> wires = new ArrayList<>();
+        Arrays.stream(importedPackages).map(GraphQLJavaWiringTest::packageWire).forEach(wires::add);
+        final BundleWiring wiring = mock(BundleWiring.class);
+        when(wiring.getRequiredWires(PackageNamespace.PACKAGE_NAMESPACE)).thenReturn(wires);
+        final Bundle bundle = mock(Bundle.class);
+        when(bundle.adapt(BundleWiring.class)).thenReturn(wiring);
+        final BundleContext ctx = mock(BundleContext.class);
+        when(ctx.getBundle()).thenReturn(bundle);
+        return ctx;
+    }
+
+    @Test
+    public void availableIfWired() {
+        final BundleContext ctx = bundleContext("org.slf4j", "graphql.language", "graphql.schema");
+        assertTrue(GraphQLJavaWiring.isWired(ctx.getBundle()));
+
+        @SuppressWarnings("unchecked")
+        final ServiceRegistration<GraphQLJavaWiring.Available> reg = mock(ServiceRegistration.class);
+        when(ctx.registerService(
+                        eq(GraphQLJavaWiring.Available.class), any(GraphQLJavaWiring.Available.class), isNull()))
+                .thenReturn(reg);
+        final GraphQLJavaWiring w = new GraphQLJavaWiring();
+        w.activate(ctx);
+        w.deactivate();
+        verify(reg).unregister();
+    }
+
+    @Test
+    public void notAvailableIfNotWired() {
+        final BundleContext ctx = bundleContext("org.slf4j", "org.apache.commons.io");
+        assertFalse(GraphQLJavaWiring.isWired(ctx.getBundle()));
+        final GraphQLJavaWiring w = new GraphQLJavaWiring();
+        w.activate(ctx);
+        w.deactivate();
+        verify(ctx, never())
+                .registerService(
+                        eq(GraphQLJavaWiring.Available.class), any(GraphQLJavaWiring.Available.class), isNull());
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.graphql.schema.aggregator.U;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/** The jdk.jfr API is used via reflection as we're building for Java 8 */
+public class JfrEventsTest {
+    private BundleContext bundleContext;
+    private ProviderBundleTracker tracker;
+    private DefaultSchemaAggregator dsa;
+
+    @Before
+    public void setup() throws Exception {
+        Assume.assumeTrue("Requires JFR", JfrEvents.isAvailable());
+        bundleContext = mock(BundleContext.class);
+        when(bundleContext.getBundle()).thenReturn(mock(Bundle.class));
+        tracker = new ProviderBundleTracker();
+        tracker.activate(bundleContext, mock(ProviderBundleTracker.Config.class));
+        dsa = new DefaultSchemaAggregator();
+        final Field f = dsa.getClass().getDeclaredField("tracker");
+        f.setAccessible(true);
+        f.set(dsa, tracker);
+    }
+
+    @Test
+    public void disabledWithoutRecording() {
+        assertNull(JfrEvents.AGGREGATION.begin());
+        JfrEvents.AGGREGATION.commit(null, "ignored");
+    }
+
+    @Test
+    public void eventsAreRecorded() throws Exception {
+        final Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+        final Object recording = recordingClass.getConstructor().newInstance();
+        final Method enable = recordingClass.getMethod("enable", String.class);
+        for (JfrEvents.EventKind k : new JfrEvents.EventKind[] {
+            JfrEvents.AGGREGATION,
+            JfrEvents.SELECTION,
+            JfrEvents.SECTION_COPY,
+            JfrEvents.PARTIAL_PARSE,
+            JfrEvents.PARTIAL_DIGEST,
+            JfrEvents.BUNDLE_ADDED,
+            JfrEvents.BUNDLE_REMOVED
+        }) {
+            enable.invoke(recording, k.getName());
+        }
+        final Path dump = Files.createTempFile(getClass().getSimpleName(), ".jfr");
+        try {
+            recordingClass.getMethod("start").invoke(recording);
+            final Bundle b = U.mockProviderBundle(bundleContext, "A", 1, "a1.txt", "a2.txt");
+            tracker.addingBundle(b, null);
+            dsa.aggregate(new StringWriter(), "a1", "a2");
+            tracker.removedBundle(b, null, null);
+            recordingClass.getMethod("stop").invoke(recording);
+            recordingClass.getMethod("dump", Path.class).invoke(recording, dump);
+
+            final Map<String, Integer> counts = new HashMap<>();
+            final Class<?> recordingFile = Class.forName("jdk.jfr.consumer.RecordingFile");
+            final List<?> events = (List<?>)
+                    recordingFile.getMethod("readAllEvents", Path.class).invoke(null, dump);
+            for (Object e : events) {
+                final Object type = e.getClass().getMethod("getEventType").invoke(e);
+                final String name =
+                        (String) type.getClass().getMethod("getName").invoke(type);
+                counts.merge(name.substring(JfrEvents.PREFIX.length()), 1, Integer::sum);
+                if (name.equals(JfrEvents.AGGREGATION.getName())) {
+                    final Method getLong = e.getClass().getMethod("getLong", String.class);
+                    assertEquals(2L, getLong.invoke(e, "partials"));
+                    assertTrue((long) getLong.invoke(e, "size") > 0);
+                }
+            }
+            assertEquals(Integer.valueOf(1), counts.get("BundleAdded"));
+            assertEquals(Integer.valueOf(1), counts.get("BundleRemoved"));
+            assertEquals(Integer.valueOf(2), counts.get("PartialParse"));
+            assertEquals(Integer.valueOf(2), counts.get("PartialDigest"));
+            assertEquals(Integer.valueOf(1), counts.get("Selection"));
+            assertEquals(Integer.valueOf(1), counts.get("Aggregation"));
+            assertEquals(Integer.valueOf(4), counts.get("SectionCopy"));
+        } finally {
+            recordingClass.getMethod("close").invoke(recording);
+            Files.deleteIfExists(dump);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonWriterTest {
+
+    @Test
+    public void values() {
+        assertEquals("null", JsonWriter.toJson(null));
+        assertEquals("true", JsonWriter.toJson(true));
+        assertEquals("42", JsonWriter.toJson(42));
+        assertEquals("1.0E10", JsonWriter.toJson(1e10));
+        assertEquals("\"NaN\"", JsonWriter.toJson(Double.NaN));
+        assertEquals(
+                "\"a \\\"quoted\\\" \\\\ \\n\\t\\u0001 \u00e9\"",
+                JsonWriter.toJson("a \"quoted\" \\ \n\t\u0001 \u00e9"));
+    }
+
+    @Test
+    public void structures() {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        map.put("list", Arrays.asList(1, "two", null));
+        map.put("array", new String[] {"x"});
+        map.put("empty", new LinkedHashMap<>());
+        final Map<String, Object> root = new LinkedHashMap<>();
+        root.put("data", map);
+        assertEquals("{\"data\":{\"list\":[1,\"two\",null],\"array\":[\"x\"],\"empty\":{}}}", JsonWriter.toJson(root));
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.io.StringReader;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MemoizedPartialTest {
+
+    @Test
+    public void contentIsReadOnce() throws Exception {
+        final AtomicInteger reads = new AtomicInteger();
+        final Partial.Section section = mock(Partial.Section.class);
+        when(section.getContent()).thenAnswer(invocation -> {
+            reads.incrementAndGet();
+            return new StringReader("type Q { x: Int }");
+        });
+        final Partial p = mock(Partial.class);
+        when(p.getSection(Partial.SectionName.TYPES)).thenReturn(Optional.of(section));
+        when(p.getSection(Partial.SectionName.QUERY)).thenReturn(Optional.empty());
+
+        final Partial memo = new MemoizedPartial(p);
+        for (int i = 0; i < 3; i++) {
+            final Partial.Section s = memo.getSection(Partial.SectionName.TYPES).get();
+            assertEquals("type Q { x: Int }", IOUtils.toString(s.getContent()));
+        }
+        assertEquals(1, reads.get());
+        assertFalse(memo.getSection(Partial.SectionName.QUERY).isPresent());
+    }
+}
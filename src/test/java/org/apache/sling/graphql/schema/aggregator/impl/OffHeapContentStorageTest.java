@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class OffHeapContentStorageTest {
+    private final OffHeapContentStorage storage = new OffHeapContentStorage();
+
+    private static String content(int index, int length) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("content ").append(index).append(" caract\u00e8re ");
+        while (sb.length() < length) {
+            sb.append((char) ('a' + sb.length() % 26));
+        }
+        return sb.toString();
+    }
+
+    private static String read(Supplier<Reader> s) throws IOException {
+        try (Reader r = s.get()) {
+            return IOUtils.toString(r);
+        }
+    }
+
+    @Test
+    public void storeAndReadRepeatedly() throws IOException {
+        final List<Supplier<Reader>> stored = new ArrayList<>();
+        final int count = 1000;
+        long expectedBytes = 0;
+        for (int i = 0; i < count; i++) {
+            final String c = content(i, i * 7);
+            expectedBytes += c.getBytes(StandardCharsets.UTF_8).length;
+            stored.add(storage.store(c));
+        }
+        for (int i = 0; i < count; i++) {
+            assertEquals(content(i, i * 7), read(stored.get(i)));
+            assertEquals("Expecting the same content on every read", content(i, i * 7), read(stored.get(i)));
+        }
+        assertEquals(expectedBytes, storage.getContentBytes());
+        assertEquals(4 * OffHeapContentStorage.CHUNK_SIZE, storage.getStoredBytes());
+    }
+
+    @Test
+    public void largeContentGetsItsOwnBuffer() throws IOException {
+        final Supplier<Reader> small = storage.store("small");
+        final String large = content(1, OffHeapContentStorage.MAX_SHARED_SIZE + 1);
+        final Supplier<Reader> big = storage.store(large);
+        final Supplier<Reader> other = storage.store("other");
+        assertEquals("small", read(small));
+        assertEquals(large, read(big));
+        assertEquals("other", read(other));
+        final long largeBytes = large.getBytes(StandardCharsets.UTF_8).length;
+        assertEquals(OffHeapContentStorage.CHUNK_SIZE + largeBytes, storage.getStoredBytes());
+    }
+
+    @Test
+    public void releasedContentIsSubtracted() throws IOException {
+        final ContentStorage.StoredContent first = storage.store("first");
+        final String large = content(1, OffHeapContentStorage.MAX_SHARED_SIZE + 1);
+        final ContentStorage.StoredContent big = storage.store(large);
+        final ContentStorage.StoredContent second = storage.store("second");
+
+        big.release();
+        assertEquals("first".length() + "second".length(), storage.getContentBytes());
+        assertEquals(OffHeapContentStorage.CHUNK_SIZE, storage.getStoredBytes());
+        assertEquals("Content in use is still readable after release", large, read(big));
+
+        first.release();
+        first.release();
+        assertEquals("Releasing twice has no effect", "second".length(), storage.getContentBytes());
+        assertEquals("The chunk still holds content", OffHeapContentStorage.CHUNK_SIZE, storage.getStoredBytes());
+        assertEquals("second", read(second));
+
+        second.release();
+        assertEquals(0, storage.getContentBytes());
+        assertEquals("Empty chunk is freed", 0, storage.getStoredBytes());
+    }
+
+    @Test
+    public void emptyChunksAreFreed() {
+        final List<ContentStorage.StoredContent> stored = new ArrayList<>();
+        // One character is two bytes in UTF-8, so that's four contents per chunk
+        final String c = content(1, OffHeapContentStorage.MAX_SHARED_SIZE - 1);
+        for (int i = 0; i < 8; i++) {
+            stored.add(storage.store(c));
+        }
+        assertEquals(2 * OffHeapContentStorage.CHUNK_SIZE, storage.getStoredBytes());
+        stored.subList(0, 4).forEach(ContentStorage.StoredContent::release);
+        assertEquals(OffHeapContentStorage.CHUNK_SIZE, storage.getStoredBytes());
+
+        // New content goes to a new chunk, as the current one is full
+        final ContentStorage.StoredContent more = storage.store(c);
+        assertEquals(2 * OffHeapContentStorage.CHUNK_SIZE, storage.getStoredBytes());
+        stored.subList(4, 8).forEach(ContentStorage.StoredContent::release);
+        more.release();
+        assertEquals(0, storage.getStoredBytes());
+        assertEquals(0, storage.getContentBytes());
+    }
+
+    @Test
+    public void emptyContent() throws IOException {
+        assertEquals("", read(storage.store("")));
+        assertEquals(0, storage.getContentBytes());
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.sling.graphql.schema.aggregator.U;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class PartialIndexTest {
+    private File folder;
+
+    @Before
+    public void setup() throws IOException {
+        folder = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        folder.deleteOnExit();
+    }
+
+    private void copy(String... names) throws IOException {
+        for (String name : names) {
+            final File f = new File(folder, name);
+            f.deleteOnExit();
+            try (InputStream is = U.testFileURL(name).openStream()) {
+                Files.copy(is, f.toPath());
+            }
+        }
+    }
+
+    private static Supplier<Reader> source(File f) {
+        return () -> {
+            try {
+                return new InputStreamReader(Files.newInputStream(f.toPath()), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    @Test
+    public void indexedPartialsAreSameAsParsed() throws Exception {
+        copy("example.partial.txt", "requires.range.txt", "utf8.partial.txt");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PartialIndex.build(folder).write(out);
+        final PartialIndex index = PartialIndex.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(3, index.getEntries().size());
+
+        for (PartialIndex.Entry e : index.getEntries()) {
+            final File f = new File(folder, e.getEntryName());
+            final PartialInfo info = PartialInfo.fromPath(f.toPath());
+            assertEquals(info.toString(), e.getPartialName());
+            final PartialReader parsed = new PartialReader(info, source(f));
+            final PartialReader indexed = new PartialReader(info, source(f), e, null);
+            assertEquals(parsed.getDigest(), indexed.getDigest());
+            assertEquals(parsed.getSize(), indexed.getSize());
+            assertEquals(parsed.getRequiredPartialNames(), indexed.getRequiredPartialNames());
+            assertEquals(parsed.getSectionSizes(), indexed.getSectionSizes());
+            assertEquals(contents(parsed), contents(indexed));
+            final PartialReader stored = new PartialReader(info, source(f), e, new CompressedContentStorage());
+            assertEquals(contents(parsed), contents(stored));
+        }
+    }
+
+    private static Map<Partial.SectionName, String> contents(Partial p) throws IOException {
+        final Map<Partial.SectionName, String> result = new HashMap<>();
+        for (Partial.SectionName name : Partial.SectionName.values()) {
+            final Optional<Partial.Section> s = p.getSection(name);
+            if (s.isPresent()) {
+                result.put(
+                        name,
+                        s.get().getDescription() + "|"
+                                + IOUtils.toString(s.get().getContent()));
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void syntaxErrorsFailTheBuild() throws Exception {
+        copy("example.partial.txt", "duplicate.section.partial.txt");
+        final IOException iox = assertThrows(IOException.class, () -> PartialIndex.build(folder));
+        assertTrue(iox.getMessage(), iox.getMessage().contains("duplicate.section.partial.txt"));
+        assertFalse(iox.getMessage(), iox.getMessage().contains("example.partial.txt"));
+
+        assertThrows(IOException.class, () -> PartialIndex.writeIndex(folder));
+        assertFalse(new File(folder, PartialIndex.INDEX_NAME).exists());
+    }
+
+    @Test
+    public void writeIndex() throws Exception {
+        copy("example.partial.txt");
+        assertEquals(1, PartialIndex.writeIndex(folder));
+        final File indexFile = new File(folder, PartialIndex.INDEX_NAME);
+        indexFile.deleteOnExit();
+        try (InputStream is = Files.newInputStream(indexFile.toPath())) {
+            assertEquals(1, PartialIndex.read(is).getEntries().size());
+        }
+        assertEquals("The index is not indexed", 1, PartialIndex.writeIndex(folder));
+    }
+
+    @Test
+    public void onlyPartialFilesAreIndexed() throws Exception {
+        copy("example.partial.txt");
+        for (String name : new String[] {"README.md", "notes", "backup.txt.orig"}) {
+            final File f = new File(folder, name);
+            f.deleteOnExit();
+            Files.write(f.toPath(), "Not a partial".getBytes(StandardCharsets.UTF_8));
+        }
+        final PartialIndex index = PartialIndex.build(folder);
+        assertEquals(1, index.getEntries().size());
+        assertEquals("example.partial.txt", index.getEntries().get(0).getEntryName());
+    }
+
+    @Test
+    public void changedPartialDoesNotMatchIndex() throws Exception {
+        copy("example.partial.txt");
+        final PartialIndex.Entry e = PartialIndex.build(folder).getEntries().get(0);
+        final File f = new File(folder, e.getEntryName());
+        final PartialInfo info = PartialInfo.fromPath(f.toPath());
+        final String content = new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+
+        Files.write(f.toPath(), (content + "\nQUERY: added later\n").getBytes(StandardCharsets.UTF_8));
+        assertThrows(PartialReader.IndexMismatchException.class, () -> new PartialReader(info, source(f), e, null));
+
+        // Same size, different content
+        Files.write(f.toPath(), content.replace('a', 'b').getBytes(StandardCharsets.UTF_8));
+        assertThrows(PartialReader.IndexMismatchException.class, () -> new PartialReader(info, source(f), e, null));
+    }
+
+    @Test
+    public void invalidIndex() {
+        final String[] invalid = {
+            "", "version\t2\n", "version\t1\npartial\tx.txt\n", "version\t1\nsection\tQUERY\t0\t1\t\n"
+        };
+        for (String str : invalid) {
+            assertThrows(
+                    str,
+                    IOException.class,
+                    () -> PartialIndex.read(new ByteArrayInputStream(str.getBytes(StandardCharsets.UTF_8))));
+        }
+    }
+}
@@ -241,4 +241,45 @@ public class PartialReaderTest {
             assertEquals("56789", IOUtils.toString(r));
         }
     }
+
+    private void assertSameContentWithStorage(ContentStorage storage) throws IOException {
+        for (String name : new String[] {"example.partial", "utf8.partial", "versioned-1.0.0"}) {
+            final String resource = "/partials/" + name + ".txt";
+            final PartialInfo info = PartialInfo.fromPath(Paths.get(resource));
+            final PartialReader fromSource = new PartialReader(info, getResourceReaderSupplier(resource));
+            final PartialReader stored = new PartialReader(info, getResourceReaderSupplier(resource), storage);
+            assertEquals(fromSource.getDigest(), stored.getDigest());
+            assertEquals(fromSource.getRequiredPartialNames(), stored.getRequiredPartialNames());
+            assertEquals(fromSource.getSectionSizes(), stored.getSectionSizes());
+            assertEquals(0, fromSource.getRetainedBytes());
+            assertTrue(stored.getRetainedBytes() > 0);
+            for (SectionName section : SectionName.values()) {
+                final Optional<Partial.Section> expected = fromSource.getSection(section);
+                final Optional<Partial.Section> actual = stored.getSection(section);
+                assertEquals(name + ":" + section, expected.isPresent(), actual.isPresent());
+                if (expected.isPresent()) {
+                    assertEquals(expected.get().getDescription(), actual.get().getDescription());
+                    try (Reader e = expected.get().getContent();
+                            Reader a = actual.get().getContent()) {
+                        assertEquals(name + ":" + section, IOUtils.toString(e), IOUtils.toString(a));
+                    }
+                }
+            }
+        }
+        assertTrue(storage.getContentBytes() > 0);
+    }
+
+    @Test
+    public void offHeapStorage() throws IOException {
+        final OffHeapContentStorage storage = new OffHeapContentStorage();
+        assertSameContentWithStorage(storage);
+        assertEquals(OffHeapContentStorage.CHUNK_SIZE, storage.getStoredBytes());
+    }
+
+    @Test
+    public void compressedStorage() throws IOException {
+        final CompressedContentStorage storage = new CompressedContentStorage();
+        assertSameContentWithStorage(storage);
+        assertTrue(storage.getStoredBytes() < storage.getContentBytes());
+    }
 }
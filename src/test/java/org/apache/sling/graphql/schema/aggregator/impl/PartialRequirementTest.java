@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.util.Set;
+
+import org.junit.Test;
+import org.osgi.framework.Version;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PartialRequirementTest {
+
+    private static PartialInfo info(String name, String version) {
+        return new PartialInfo(name, Version.parseVersion(version));
+    }
+
+    @Test
+    public void exactRequirements() {
+        final PartialRequirement unversioned = PartialRequirement.parse("partial");
+        assertEquals("partial", unversioned.getName());
+        assertEquals(Version.emptyVersion, unversioned.getExactVersion());
+        assertTrue(unversioned.matches(info("partial", "0.0.0")));
+        assertFalse(unversioned.matches(info("partial", "1.0.0")));
+
+        final PartialRequirement versioned = PartialRequirement.parse(" partial-1.2.3 ");
+        assertEquals(Version.parseVersion("1.2.3"), versioned.getExactVersion());
+        assertTrue(versioned.matches(info("partial", "1.2.3")));
+        assertFalse(versioned.matches(info("partial", "1.2.4")));
+        assertFalse(versioned.matches(info("other", "1.2.3")));
+        assertEquals("partial-1.2.3", versioned.toString());
+    }
+
+    @Test
+    public void multiDigitVersions() {
+        final PartialRequirement exact = PartialRequirement.parse("partial-1.10.0");
+        assertEquals(Version.parseVersion("1.10.0"), exact.getExactVersion());
+        assertTrue(exact.matches(info("partial", "1.10.0")));
+        assertFalse(exact.matches(info("partial", "1.1.0")));
+
+        final PartialRequirement range = PartialRequirement.parse("partial-[1.9.0,1.11.0)");
+        assertTrue(range.matches(info("partial", "1.10.0")));
+        assertEquals(
+                "[partial-12.0.0]",
+                PartialRequirement.fromRequiresSection("partial-12.0.0").toString());
+    }
+
+    @Test
+    public void latestRequirement() {
+        final PartialRequirement latest = PartialRequirement.parse("partial-*");
+        assertNull(latest.getRange());
+        assertNull(latest.getExactVersion());
+        assertTrue(latest.matches(info("partial", "0.0.0")));
+        assertTrue(latest.matches(info("partial", "9.9.9")));
+        assertEquals("partial-*", latest.toString());
+    }
+
+    @Test
+    public void rangeRequirement() {
+        final PartialRequirement range = PartialRequirement.parse("partial-[1.0.0,2.0.0)");
+        assertNull(range.getExactVersion());
+        assertTrue(range.matches(info("partial", "1.0.0")));
+        assertTrue(range.matches(info("partial", "1.9.9")));
+        assertFalse(range.matches(info("partial", "2.0.0")));
+        assertEquals("partial-[1.0.0,2.0.0)", range.toString());
+    }
+
+    @Test
+    public void invalidRequirements() {
+        assertNull(PartialRequirement.parse("0"));
+        assertNull(PartialRequirement.parse("partial-1.x"));
+        assertNull(PartialRequirement.parse("partial-[2.0.0,x)"));
+    }
+
+    @Test
+    public void fromRequiresSection() {
+        final Set<PartialRequirement> parsed =
+                PartialRequirement.fromRequiresSection("b, a-1.0.0, 0, c-[1.0.0,2.0.0), d-*");
+        assertEquals("[b, a-1.0.0, c-[1.0.0,2.0.0), d-*]", parsed.toString());
+    }
+}
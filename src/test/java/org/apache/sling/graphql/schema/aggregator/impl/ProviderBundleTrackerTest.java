@@ -18,8 +18,15 @@
  */
 package org.apache.sling.graphql.schema.aggregator.impl;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ch.qos.logback.classic.Level;
 import org.apache.commons.io.IOUtils;
@@ -31,6 +38,7 @@ import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -46,7 +54,7 @@ public class ProviderBundleTrackerTest {
         bundleContext = mock(BundleContext.class);
         when(bundleContext.getBundle()).thenReturn(mock(Bundle.class));
         tracker = new ProviderBundleTracker();
-        tracker.activate(bundleContext);
+        tracker.activate(bundleContext, mock(ProviderBundleTracker.Config.class));
     }
 
     @Test
@@ -86,6 +94,53 @@ public class ProviderBundleTrackerTest {
         assertEquals(2, tracker.getSchemaProviders().size());
     }
 
+    @Test
+    public void resolveVersions() throws Exception {
+        final Bundle a = U.mockProviderBundle(bundleContext, "A", ++bundleId, "v-1.0.0.txt", "v-1.1.0.txt");
+        final Bundle b = U.mockProviderBundle(bundleContext, "B", ++bundleId, "v-2.0.0.txt", "other.txt");
+        tracker.addingBundle(a, null);
+        tracker.addingBundle(b, null);
+        assertEquals("v-2.0.0", resolved("v-*"));
+        assertEquals("v-1.1.0", resolved("v-[1.0.0,2.0.0)"));
+        assertEquals("v-1.0.0", resolved("v-1.0.0"));
+        assertNull(resolved("v"));
+        assertEquals("other", resolved("other-*"));
+
+        tracker.removedBundle(b, null, null);
+        assertEquals("v-1.1.0", resolved("v-*"));
+        assertNull(resolved("other-*"));
+        assertNull(resolved("v-[2.0.0,3.0.0)"));
+    }
+
+    private String resolved(String requirement) {
+        final Partial p = tracker.resolve(PartialRequirement.parse(requirement));
+        return p == null ? null : p.getPartialInfo().toString();
+    }
+
+    @Test
+    public void changesAreNotifiedOncePerBatch() throws Exception {
+        final ProviderBundleTracker.Config cfg = mock(ProviderBundleTracker.Config.class);
+        when(cfg.quiet_period_msec()).thenReturn(100L);
+        tracker = new ProviderBundleTracker();
+        tracker.activate(bundleContext, cfg);
+        try {
+            final CountDownLatch latch = new CountDownLatch(1);
+            final AtomicInteger changes = new AtomicInteger();
+            tracker.addChangeListener((generation, count) -> {
+                changes.set(count);
+                latch.countDown();
+            });
+            tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", ++bundleId, "a1.txt", "a2.txt"), null);
+            tracker.addingBundle(U.mockProviderBundle(bundleContext, "B", ++bundleId, "b1.txt"), null);
+            assertEquals(0, tracker.getGeneration());
+            assertTrue("Expecting a change notification", latch.await(5, TimeUnit.SECONDS));
+            assertEquals(3, changes.get());
+            assertEquals(1, tracker.getGeneration());
+        } finally {
+            tracker.deactivate();
+        }
+    }
+
     private void assertSectionContent(Partial p, Partial.SectionName name, String expected) throws IOException {
         final Optional<Partial.Section> os = p.getSection(name);
         assertTrue("Expecting section " + name, os.isPresent());
@@ -99,4 +154,209 @@ public class ProviderBundleTrackerTest {
         final Partial p = tracker.getSchemaProviders().values().iterator().next();
         assertSectionContent(p, Partial.SectionName.QUERY, "Fake query for a1.txt");
     }
+
+    private void assertContentStorage(String mode, Class<?> expectedStorage) throws Exception {
+        final ProviderBundleTracker.Config cfg = mock(ProviderBundleTracker.Config.class);
+        when(cfg.content_storage()).thenReturn(mode);
+        tracker = new ProviderBundleTracker();
+        tracker.activate(bundleContext, cfg);
+        try {
+            assertTrue(expectedStorage.isInstance(tracker.getContentStorage()));
+            tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", ++bundleId, "a1.txt"), null);
+            final Partial p = tracker.getSchemaProviders().values().iterator().next();
+            assertSectionContent(p, Partial.SectionName.QUERY, "Fake query for a1.txt");
+            assertSectionContent(p, Partial.SectionName.QUERY, "Fake query for a1.txt");
+            assertTrue(tracker.getContentStorage().getContentBytes() > 0);
+        } finally {
+            tracker.deactivate();
+        }
+    }
+
+    @Test
+    public void offHeapContentStorage() throws Exception {
+        assertContentStorage("OFF_HEAP", OffHeapContentStorage.class);
+    }
+
+    @Test
+    public void compressedContentStorage() throws Exception {
+        assertContentStorage("COMPRESSED", CompressedContentStorage.class);
+    }
+
+    @Test
+    public void compressedStorageTotalsFollowBundles() throws Exception {
+        final ProviderBundleTracker.Config cfg = mock(ProviderBundleTracker.Config.class);
+        when(cfg.content_storage()).thenReturn("COMPRESSED");
+        tracker = new ProviderBundleTracker();
+        tracker.activate(bundleContext, cfg);
+        try {
+            final ContentStorage storage = tracker.getContentStorage();
+            final Bundle a = U.mockProviderBundle(bundleContext, "A", ++bundleId, "a1.txt");
+            final Bundle b = U.mockProviderBundle(bundleContext, "B", ++bundleId, "b1.txt", "b2.txt");
+            tracker.addingBundle(a, null);
+            final long contentOfA = storage.getContentBytes();
+            final long storedOfA = storage.getStoredBytes();
+            assertTrue(contentOfA > 0);
+
+            tracker.addingBundle(b, null);
+            assertTrue(storage.getContentBytes() > contentOfA);
+            tracker.removedBundle(b, null, null);
+            assertEquals(contentOfA, storage.getContentBytes());
+            assertEquals(storedOfA, storage.getStoredBytes());
+
+            tracker.removedBundle(a, null, null);
+            assertEquals(0, storage.getContentBytes());
+            assertEquals(0, storage.getStoredBytes());
+        } finally {
+            tracker.deactivate();
+        }
+    }
+
+    @Test
+    public void metrics() throws Exception {
+        final RecordingMetrics metrics = new RecordingMetrics();
+        final Field f = tracker.getClass().getDeclaredField("metrics");
+        f.setAccessible(true);
+        f.set(tracker, metrics);
+        final Bundle a = U.mockProviderBundle(bundleContext, "A", ++bundleId, "a1.txt", "a2.txt");
+        tracker.addingBundle(a, null);
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "B", ++bundleId, "b1.txt"), null);
+        assertEquals(2, metrics.getSum(AggregatorMetrics.BUNDLES_ADDED));
+        assertEquals(3, metrics.getSum(AggregatorMetrics.PARTIALS_ADDED));
+        assertEquals(3, metrics.getCount(AggregatorMetrics.PARTIAL_PARSE_TIME));
+        assertEquals(3, metrics.getCount(AggregatorMetrics.PARTIAL_SIZE));
+        assertTrue(metrics.getLast(AggregatorMetrics.PARTIAL_SIZE) > 0);
+
+        tracker.removedBundle(a, null, null);
+        assertEquals(1, metrics.getSum(AggregatorMetrics.BUNDLES_REMOVED));
+        assertEquals(2, metrics.getSum(AggregatorMetrics.PARTIALS_REMOVED));
+    }
+
+    @Test
+    public void storageGauges() throws Exception {
+        final RecordingMetrics metrics = new RecordingMetrics();
+        tracker.bindMetrics(metrics);
+        assertEquals("No storage by default", 0, metrics.getGauge(AggregatorMetrics.STORAGE_CONTENT_BYTES));
+
+        final ProviderBundleTracker.Config cfg = mock(ProviderBundleTracker.Config.class);
+        when(cfg.content_storage()).thenReturn("COMPRESSED");
+        tracker = new ProviderBundleTracker();
+        tracker.bindMetrics(metrics);
+        tracker.activate(bundleContext, cfg);
+        try {
+            final Bundle a = U.mockProviderBundle(bundleContext, "A", ++bundleId, "a1.txt", "a2.txt");
+            final Bundle b = U.mockProviderBundle(bundleContext, "B", ++bundleId, "b1.txt");
+            tracker.addingBundle(a, null);
+            final long content = metrics.getGauge(AggregatorMetrics.STORAGE_CONTENT_BYTES);
+            final long stored = metrics.getGauge(AggregatorMetrics.STORAGE_STORED_BYTES);
+            assertEquals(tracker.getContentStorage().getContentBytes(), content);
+            assertEquals(tracker.getContentStorage().getStoredBytes(), stored);
+            assertTrue(content > 0);
+            assertEquals(stored * 100 / content, metrics.getGauge(AggregatorMetrics.STORAGE_STORED_PERCENT));
+
+            tracker.addingBundle(b, null);
+            assertTrue(metrics.getGauge(AggregatorMetrics.STORAGE_CONTENT_BYTES) > content);
+            tracker.removedBundle(b, null, null);
+            assertEquals(
+                    "Gauges follow the removed bundle",
+                    content,
+                    metrics.getGauge(AggregatorMetrics.STORAGE_CONTENT_BYTES));
+            assertEquals(stored, metrics.getGauge(AggregatorMetrics.STORAGE_STORED_BYTES));
+
+            tracker.removedBundle(a, null, null);
+            assertEquals(0, metrics.getGauge(AggregatorMetrics.STORAGE_CONTENT_BYTES));
+            assertEquals(0, metrics.getGauge(AggregatorMetrics.STORAGE_STORED_BYTES));
+            assertEquals(0, metrics.getGauge(AggregatorMetrics.STORAGE_STORED_PERCENT));
+        } finally {
+            tracker.deactivate();
+        }
+    }
+
+    @Test
+    public void indexedBundle() throws Exception {
+        final File folder =
+                Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        U.fakePartialURL(folder, "a1.txt");
+        U.fakePartialURL(folder, "a2.txt");
+        assertEquals(2, PartialIndex.writeIndex(folder));
+        final File index = new File(folder, PartialIndex.INDEX_NAME);
+        index.deleteOnExit();
+
+        // the bundle's entries are not enumerated if it has an index
+        final Bundle b = U.mockProviderBundle(bundleContext, "I", ++bundleId);
+        final String path = b.getHeaders().get(ProviderBundleTracker.SCHEMA_PATH_HEADER);
+        when(b.getEntry(path + "/" + PartialIndex.INDEX_NAME))
+                .thenReturn(index.toURI().toURL());
+        when(b.getEntry(path + "/a1.txt"))
+                .thenReturn(new File(folder, "a1.txt").toURI().toURL());
+        when(b.getEntry(path + "/a2.txt"))
+                .thenReturn(new File(folder, "a2.txt").toURI().toURL());
+        tracker.addingBundle(b, null);
+        assertEquals("[a1, a2]", tracker.getSchemaProviders().keySet().toString());
+        final Partial p = tracker.getSchemaProviders().values().iterator().next();
+        assertSectionContent(p, Partial.SectionName.QUERY, "Fake query for a1.txt");
+
+        tracker.removedBundle(b, null, null);
+        assertTrue(tracker.getSchemaProviders().isEmpty());
+    }
+
+    @Test
+    public void outdatedIndexEntryIsParsed() throws Exception {
+        final File folder =
+                Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        U.fakePartialURL(folder, "a1.txt");
+        assertEquals(1, PartialIndex.writeIndex(folder));
+        final File index = new File(folder, PartialIndex.INDEX_NAME);
+        index.deleteOnExit();
+        final File a1 = new File(folder, "a1.txt");
+        Files.write(a1.toPath(), "PARTIAL: changed\nQUERY: changed\nChanged query\n".getBytes(StandardCharsets.UTF_8));
+
+        final Bundle b = U.mockProviderBundle(bundleContext, "I", ++bundleId);
+        final String path = b.getHeaders().get(ProviderBundleTracker.SCHEMA_PATH_HEADER);
+        when(b.getEntry(path + "/" + PartialIndex.INDEX_NAME))
+                .thenReturn(index.toURI().toURL());
+        when(b.getEntry(path + "/a1.txt")).thenReturn(a1.toURI().toURL());
+        tracker.addingBundle(b, null);
+        assertEquals("[a1]", tracker.getSchemaProviders().keySet().toString());
+        final Partial p = tracker.getSchemaProviders().values().iterator().next();
+        assertSectionContent(p, Partial.SectionName.QUERY, "Changed query");
+    }
+
+    @Test
+    public void definitionsIndex() throws Exception {
+        final Bundle sdl =
+                U.mockProviderBundle(bundleContext, "SDL", ++bundleId, "a.sdl.txt", "b.sdl.txt", "c.sdl.txt");
+        tracker.addingBundle(sdl, null);
+        assertEquals("[a.sdl]", tracker.getProviders("SlingResource").toString());
+        assertEquals("[a.sdl]", tracker.getProviders("@fetcher").toString());
+        assertEquals("[b.sdl]", tracker.getProviders("typeFromB").toString());
+        assertEquals("[c.sdl]", tracker.getProviders("Query.oneSchemaQuery").toString());
+        assertEquals("[c.sdl]", tracker.getProviders("Mutation.someMutation").toString());
+        assertTrue(tracker.getProviders("Query.someMutation").isEmpty());
+        assertTrue(tracker.getConflicts().isEmpty());
+        assertEquals(bundleId, tracker.getBundleId("c.sdl"));
+        assertEquals(-1, tracker.getBundleId("c.sdl-2.0.0"));
+
+        // type extensions are not conflicts
+        final Bundle conflicting = U.mockProviderBundle(bundleContext, "C", ++bundleId, "conflicting.txt");
+        tracker.addingBundle(conflicting, null);
+        assertEquals("[a.sdl, conflicting]", tracker.getProviders("PageInfo").toString());
+        assertEquals(
+                "{PageInfo=[a.sdl, conflicting], Query.oneSchemaQuery=[c.sdl, conflicting]}",
+                tracker.getConflicts().toString());
+
+        tracker.removedBundle(conflicting, null, null);
+        assertEquals("[a.sdl]", tracker.getProviders("PageInfo").toString());
+        assertTrue(tracker.getConflicts().isEmpty());
+    }
+
+    @Test
+    public void versionsAreNotConflicts() throws Exception {
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "V1", ++bundleId, "shared-1.0.0.txt"), null);
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "V2", ++bundleId, "shared-2.0.0.txt"), null);
+        assertEquals(
+                "[shared-1.0.0, shared-2.0.0]", tracker.getProviders("Shared").toString());
+        assertTrue(tracker.getConflicts().isEmpty());
+        assertEquals(bundleId - 1, tracker.getBundleId("shared-1.0.0"));
+        assertEquals(bundleId, tracker.getBundleId("shared-2.0.0"));
+    }
 }
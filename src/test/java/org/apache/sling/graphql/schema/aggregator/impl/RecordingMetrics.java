@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+
+/** AggregatorMetrics which records everything, for tests */
+public class RecordingMetrics implements AggregatorMetrics {
+    private final Map<String, List<Long>> values = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    private void record(String name, long value) {
+        values.computeIfAbsent(name, k -> new CopyOnWriteArrayList<>()).add(value);
+    }
+
+    @Override
+    public void time(String name, long nanos) {
+        record(name, nanos);
+    }
+
+    @Override
+    public void count(String name, long n) {
+        record(name, n);
+    }
+
+    @Override
+    public void update(String name, long value) {
+        record(name, value);
+    }
+
+    @Override
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /** @return the current value of the named gauge, -1 if not set */
+    public long getGauge(String name) {
+        final LongSupplier s = gauges.get(name);
+        return s == null ? -1 : s.getAsLong();
+    }
+
+    /** @return how many times the named metric was recorded */
+    public int getCount(String name) {
+        final List<Long> v = values.get(name);
+        return v == null ? 0 : v.size();
+    }
+
+    /** @return the sum of the values recorded for the named metric */
+    public long getSum(String name) {
+        final List<Long> v = values.get(name);
+        return v == null ? 0 : v.stream().mapToLong(Long::longValue).sum();
+    }
+
+    /** @return the last value recorded for the named metric */
+    public long getLast(String name) {
+        final List<Long> v = values.get(name);
+        return v == null || v.isEmpty() ? -1 : v.get(v.size() - 1);
+    }
+}
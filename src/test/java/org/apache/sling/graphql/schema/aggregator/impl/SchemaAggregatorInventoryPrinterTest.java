@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import javax.servlet.Servlet;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+
+import org.apache.felix.inventory.Format;
+import org.apache.sling.graphql.schema.aggregator.U;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SchemaAggregatorInventoryPrinterTest {
+    private final SchemaAggregatorInventoryPrinter printer = new SchemaAggregatorInventoryPrinter();
+
+    private static void setField(Object target, String name, Object value) throws Exception {
+        final Field f = target.getClass().getDeclaredField(name);
+        f.setAccessible(true);
+        f.set(target, value);
+    }
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        final BundleContext bundleContext = mock(BundleContext.class);
+        when(bundleContext.getBundle()).thenReturn(mock(Bundle.class));
+        final ProviderBundleTracker.Config cfg = mock(ProviderBundleTracker.Config.class);
+        when(cfg.content_storage()).thenReturn("COMPRESSED");
+        final ProviderBundleTracker tracker = new ProviderBundleTracker();
+        tracker.activate(bundleContext, cfg);
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "a1.txt", "a2.txt"), null);
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "B", 2, "b1.txt"), null);
+
+        final DefaultSchemaAggregator dsa = new DefaultSchemaAggregator();
+        setField(dsa, "tracker", tracker);
+        final ServiceReference<Servlet> ref = mock(ServiceReference.class);
+        when(ref.getProperty(Constants.SERVICE_ID)).thenReturn(42L);
+        when(ref.getProperty(SelectorMappings.MAPPING_PROPERTY)).thenReturn(new String[] {"X:a1", "Y:/a.*/"});
+        dsa.bindMappingServlet(ref);
+        dsa.getSchema("a1");
+        dsa.getSchema("a1");
+
+        setField(printer, "tracker", tracker);
+        setField(printer, "aggregator", dsa);
+    }
+
+    private String print(Format format) {
+        final StringWriter sw = new StringWriter();
+        printer.print(new PrintWriter(sw), format, false);
+        return sw.toString();
+    }
+
+    private static void assertContains(String expected, String actual) {
+        assertTrue(String.format("Expecting [%s] in [%s]", expected, actual), actual.contains(expected));
+    }
+
+    @Test
+    public void text() {
+        final String text = print(Format.TEXT);
+        assertContains("partials: 3", text);
+        assertContains("contentStorage: CompressedContentStorage", text);
+        assertContains("schemaCacheHits: 1", text);
+        assertContains("schemaCacheMisses: 1", text);
+        assertContains("  a1-0.0.0", text);
+        assertContains("    bundle: A (1)", text);
+        assertContains("usedBySelectors: [X, Y]", text);
+        assertContains("usedBySelectors: []", text);
+        assertContains("QUERY: ", text);
+        assertContains("retainedBytes: ", text);
+    }
+
+    @Test
+    public void json() {
+        final String json = print(Format.JSON);
+        assertTrue(json.startsWith("{\"summary\":{\"partials\":3,"));
+        assertContains("\"name\":\"a2\",\"version\":\"0.0.0\",\"bundle\":\"A (1)\"", json);
+        assertContains("\"usedBySelectors\":[\"Y\"]", json);
+        assertContains("\"sectionSizesChars\":{\"PARTIAL\":", json);
+    }
+}
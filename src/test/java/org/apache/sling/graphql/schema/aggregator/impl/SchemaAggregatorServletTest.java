@@ -42,14 +42,17 @@ public class SchemaAggregatorServletTest {
     public void selectorMappingConfig() throws Exception {
         final SchemaAggregatorServlet s = new SchemaAggregatorServlet();
         final SchemaAggregatorServlet.Config cfg = mock(SchemaAggregatorServlet.Config.class);
-        final String[] cfgMappings = {"\t S1\t :one, two,   \t three  \t", "selector_2:4,5"};
+        final String[] cfgMappings = {
+            "\t S1\t :one, two,   \t three  \t", "selector_2:4,5", "ranges:a-[1.0.0,2.0.0), b-*", "invalid:"
+        };
         when(cfg.selectors_to_partials_mapping()).thenReturn(cfgMappings);
         s.activate(null, cfg);
         final Field f = s.getClass().getDeclaredField("selectorsToPartialNames");
         f.setAccessible(true);
         final Map<String, String[]> actualMappings = (Map<String, String[]>) f.get(s);
-        assertEquals(2, actualMappings.size());
+        assertEquals(3, actualMappings.size());
         assertMappings(actualMappings, "S1", "one,two,three");
         assertMappings(actualMappings, "selector_2", "4,5");
+        assertMappings(actualMappings, "ranges", "a-[1.0.0,2.0.0),b-*");
     }
 }
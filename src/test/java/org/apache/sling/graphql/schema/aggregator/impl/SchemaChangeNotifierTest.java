@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import javax.servlet.Servlet;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.sling.graphql.schema.aggregator.U;
+import org.apache.sling.graphql.schema.aggregator.api.SchemaAggregator;
+import org.apache.sling.graphql.schema.aggregator.api.SchemaChangeListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SchemaChangeNotifierTest {
+    private DefaultSchemaAggregator dsa;
+    private ProviderBundleTracker tracker;
+    private BundleContext bundleContext;
+    private final List<String> changes = new ArrayList<>();
+    private final List<Event> events = new ArrayList<>();
+
+    @Before
+    public void setup() throws Exception {
+        bundleContext = mock(BundleContext.class);
+        when(bundleContext.getBundle()).thenReturn(mock(Bundle.class));
+        tracker = new ProviderBundleTracker();
+        tracker.activate(bundleContext, mock(ProviderBundleTracker.Config.class));
+
+        dsa = new DefaultSchemaAggregator();
+        setField("tracker", tracker);
+        setField("eventAdmin", new EventAdmin() {
+            @Override
+            public void postEvent(Event event) {
+                events.add(event);
+            }
+
+            @Override
+            public void sendEvent(Event event) {
+                events.add(event);
+            }
+        });
+        getListeners().add((selector, fingerprint) -> changes.add(selector));
+        dsa.bindMappingServlet(mappingServlet(42L, new String[] {"X:x1,/y.*/", "Z:z1"}));
+        dsa.activate();
+    }
+
+    @After
+    public void cleanup() {
+        dsa.deactivate();
+        tracker.deactivate();
+    }
+
+    private void setField(String name, Object value) throws Exception {
+        final Field f = dsa.getClass().getDeclaredField(name);
+        f.setAccessible(true);
+        f.set(dsa, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<SchemaChangeListener> getListeners() throws Exception {
+        final Field f = dsa.getClass().getDeclaredField("schemaChangeListeners");
+        f.setAccessible(true);
+        return (List<SchemaChangeListener>) f.get(dsa);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ServiceReference<Servlet> mappingServlet(long serviceId, String[] mappings) {
+        final ServiceReference<Servlet> ref = mock(ServiceReference.class);
+        when(ref.getProperty(Constants.SERVICE_ID)).thenReturn(serviceId);
+        when(ref.getProperty(SelectorMappings.MAPPING_PROPERTY)).thenReturn(mappings);
+        return ref;
+    }
+
+    @Test
+    public void notifiesOnlyChangedSelectors() throws Exception {
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "x1.txt", "y1.txt"), null);
+        assertEquals("[X]", changes.toString());
+        assertEquals(1, events.size());
+        final Event e = events.get(0);
+        assertEquals(SchemaAggregator.TOPIC_SCHEMA_CHANGED, e.getTopic());
+        assertEquals("X", e.getProperty(SchemaAggregator.PROPERTY_SELECTOR));
+        assertArrayEquals(new String[] {"x1", "y1"}, (String[]) e.getProperty(SchemaAggregator.PROPERTY_PARTIALS));
+
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "B", 2, "other.txt"), null);
+        assertEquals("Unrelated partial, no change expected", "[X]", changes.toString());
+
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "C", 3, "z1.txt", "y2.txt"), null);
+        assertEquals("[X, X, Z]", changes.toString());
+        assertNotEquals(
+                events.get(0).getProperty(SchemaAggregator.PROPERTY_FINGERPRINT),
+                events.get(1).getProperty(SchemaAggregator.PROPERTY_FINGERPRINT));
+    }
+
+    @Test
+    public void missingPartialsAreNotNotified() throws Exception {
+        final Bundle a = U.mockProviderBundle(bundleContext, "A", 1, "x1.txt");
+        tracker.addingBundle(a, null);
+        assertEquals("[X]", changes.toString());
+        tracker.removedBundle(a, null, null);
+        assertEquals("[X]", changes.toString());
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "x1.txt"), null);
+        assertEquals("Expecting a notification when the schema is available again", "[X, X]", changes.toString());
+    }
+
+    @Test
+    public void listenersAreCalledOutsideTheLock() throws Exception {
+        final Field f = dsa.getClass().getDeclaredField("notifier");
+        f.setAccessible(true);
+        final Object notifier = f.get(dsa);
+        final List<Boolean> locked = new ArrayList<>();
+        getListeners().add((selector, fingerprint) -> locked.add(Thread.holdsLock(notifier)));
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "x1.txt", "z1.txt"), null);
+        assertEquals("[false, false]", locked.toString());
+    }
+
+    @Test
+    public void unboundMappingsAreNotWatched() throws Exception {
+        dsa.unbindMappingServlet(mappingServlet(42L, new String[0]));
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "x1.txt", "z1.txt"), null);
+        assertEquals("[]", changes.toString());
+    }
+
+    @Test
+    public void availableSchemasAreNotifiedOnActivation() throws Exception {
+        dsa.deactivate();
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "x1.txt", "z1.txt"), null);
+        assertEquals("Not active, no notifications", "[]", changes.toString());
+        dsa.activate();
+        assertEquals("[X, Z]", changes.toString());
+        assertEquals(2, events.size());
+    }
+
+    @Test
+    public void newMappingsAreNotified() throws Exception {
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "x1.txt"), null);
+        assertEquals("[X]", changes.toString());
+        dsa.bindMappingServlet(mappingServlet(43L, new String[] {"W:x1"}));
+        assertEquals("[X, W]", changes.toString());
+    }
+
+    @Test
+    public void newListenersGetTheCurrentSchemas() throws Exception {
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "x1.txt", "z1.txt"), null);
+        final List<String> notified = new ArrayList<>();
+        final SchemaChangeListener listener = (selector, fingerprint) -> notified.add(selector);
+        dsa.bindSchemaChangeListener(listener);
+        Collections.sort(notified);
+        assertEquals("[X, Z]", notified.toString());
+        assertEquals("Existing listeners are not notified again", "[X, Z]", changes.toString());
+
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "B", 2, "y1.txt"), null);
+        assertEquals("[X, Z, X]", notified.toString());
+        dsa.unbindSchemaChangeListener(listener);
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "C", 3, "y2.txt"), null);
+        assertEquals("[X, Z, X]", notified.toString());
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SdlDefinitionsTest {
+    private static final String SDL = "# A comment with type Ignored { }\n"
+            + "directive @fetcher(name : String, source : String = \"\") on FIELD_DEFINITION\n"
+            + "\"Described { type\"\n"
+            + "type A implements B & C @deprecated {\n"
+            + "  field(arg : Input = {x: 1}) : [D!]! @fetcher(name: \"type X {\")\n"
+            + "}\n"
+            + "\"\"\"\nBlock \\\"\"\" description } type Y\n\"\"\"\n"
+            + "union U = A | D\n"
+            + "scalar S\n"
+            + "extend type A { other : S }\n"
+            + "schema { query : A }\n";
+
+    private static String names(List<SdlDefinitions.Definition> defs) {
+        return defs.stream().map(Object::toString).collect(Collectors.joining(","));
+    }
+
+    @Test
+    public void definitions() {
+        final List<SdlDefinitions.Definition> defs = SdlDefinitions.parse(SDL);
+        assertEquals("directive @fetcher,type A,union U,scalar S,extend type A,schema null", names(defs));
+
+        final SdlDefinitions.Definition a = defs.get(1);
+        assertEquals("A", a.getName());
+        assertFalse(a.isExtension());
+        assertEquals(Arrays.asList("B", "C"), Arrays.asList(a.getInterfaces().toArray()));
+        assertEquals(
+                Arrays.asList("B", "C", "@deprecated", "Input", "D", "@fetcher"),
+                Arrays.asList(a.getReferences().toArray()));
+        assertTrue(SDL.substring(a.getStart(), a.getEnd()).trim().startsWith("\"Described { type\""));
+        assertTrue(SDL.substring(a.getStart(), a.getEnd()).endsWith("}"));
+
+        assertTrue(defs.get(4).isExtension());
+        assertEquals("A", defs.get(4).getName());
+        assertNull(defs.get(5).getName());
+        assertEquals(
+                Arrays.asList("A"), Arrays.asList(defs.get(5).getReferences().toArray()));
+    }
+
+    @Test
+    public void blockDescriptionBelongsToDefinition() {
+        final List<SdlDefinitions.Definition> defs = SdlDefinitions.parse(SDL);
+        final SdlDefinitions.Definition u = defs.get(2);
+        final String text = SDL.substring(u.getStart(), u.getEnd());
+        assertTrue(text, text.trim().startsWith("\"\"\"\nBlock"));
+        assertTrue(text, text.endsWith("union U = A | D"));
+        assertEquals(Arrays.asList("A", "D"), Arrays.asList(u.getReferences().toArray()));
+    }
+
+    @Test
+    public void definitionsCoverTheWholeText() {
+        final List<SdlDefinitions.Definition> defs = SdlDefinitions.parse(SDL);
+        final StringBuilder sb = new StringBuilder();
+        defs.forEach(d -> sb.append(SDL, d.getStart(), d.getEnd()));
+        assertEquals(SDL.trim(), sb.toString());
+    }
+
+    @Test
+    public void fieldReferences() {
+        assertEquals(
+                Arrays.asList("SlingResource", "@fetcher", "Int", "Page"),
+                Arrays.asList(SdlDefinitions.references("# comment Ignored\n"
+                                + "one : SlingResource @fetcher(name:\"test/pipe\" source:\"$\")\n"
+                                + "two(limit : Int = 10) : Page")
+                        .toArray()));
+    }
+
+    @Test
+    public void fieldNames() {
+        assertEquals(
+                Arrays.asList("one", "two"),
+                Arrays.asList(SdlDefinitions.fieldNames(
+                                "\"Described\" one : SlingResource @fetcher(name:\"test/pipe\" source:\"$\")\n"
+                                        + "two(limit : Int = 10, other: Input = {field: 1}) : Page")
+                        .toArray()));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.impl;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.Histogram;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.apache.sling.commons.metrics.Timer;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SlingCommonsMetricsTest {
+    private final SlingCommonsMetrics metrics = new SlingCommonsMetrics();
+    private final MetricsService metricsService = mock(MetricsService.class);
+    private final Timer timer = mock(Timer.class);
+    private final Counter counter = mock(Counter.class);
+    private final Histogram histogram = mock(Histogram.class);
+
+    @Before
+    public void setup() throws Exception {
+        when(metricsService.timer(AggregatorMetrics.AGGREGATION_TIME)).thenReturn(timer);
+        when(metricsService.counter(AggregatorMetrics.SCHEMA_CACHE_HITS)).thenReturn(counter);
+        when(metricsService.histogram(AggregatorMetrics.AGGREGATION_SIZE)).thenReturn(histogram);
+        final Field f = metrics.getClass().getDeclaredField("metricsService");
+        f.setAccessible(true);
+        f.set(metrics, metricsService);
+    }
+
+    @Test
+    public void publishesToMetricsService() {
+        metrics.time(AggregatorMetrics.AGGREGATION_TIME, 42);
+        metrics.count(AggregatorMetrics.SCHEMA_CACHE_HITS, 3);
+        metrics.update(AggregatorMetrics.AGGREGATION_SIZE, 1234);
+        verify(timer).update(42, TimeUnit.NANOSECONDS);
+        verify(counter).increment(3);
+        verify(histogram).update(1234);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void gaugesAreRegisteredOnce() {
+        final List<Supplier<Long>> registered = new ArrayList<>();
+        when(metricsService.gauge(any(String.class), any(Supplier.class))).thenAnswer(i -> {
+            registered.add(i.getArgument(1));
+            return null;
+        });
+        metrics.gauge(AggregatorMetrics.STORAGE_CONTENT_BYTES, () -> 12);
+        assertEquals(1, registered.size());
+        assertEquals(12L, (long) registered.get(0).get());
+
+        // replacing the supplier, as after reactivating the tracker
+        metrics.gauge(AggregatorMetrics.STORAGE_CONTENT_BYTES, () -> 34);
+        assertEquals(1, registered.size());
+        assertEquals(34L, (long) registered.get(0).get());
+    }
+}
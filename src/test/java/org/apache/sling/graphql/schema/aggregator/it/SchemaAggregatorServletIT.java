@@ -18,7 +18,10 @@
  */
 package org.apache.sling.graphql.schema.aggregator.it;
 
+import javax.inject.Inject;
+
 import org.apache.sling.graphql.schema.aggregator.U;
+import org.apache.sling.servlethelpers.MockSlingHttpServletResponse;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.ops4j.pax.exam.Configuration;
@@ -26,7 +29,12 @@ import org.ops4j.pax.exam.Option;
 import org.ops4j.pax.exam.junit.PaxExam;
 import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
 import org.ops4j.pax.exam.spi.reactors.PerClass;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.ops4j.pax.exam.cm.ConfigurationAdminOptions.factoryConfiguration;
 
 @RunWith(PaxExam.class)
@@ -36,12 +44,19 @@ public class SchemaAggregatorServletIT extends SchemaAggregatorTestSupport {
             "org.apache.sling.graphql.schema.aggregator.SchemaAggregatorServlet";
     private static final String GQL_SCHEMA_EXT = "GQLschema";
 
+    // the servlet package is not exported
+    private static final String STALE_SCHEMA_HEADER = "X-Sling-GraphQL-Schema-Stale";
+
+    @Inject
+    private BundleContext bundleContext;
+
     @Configuration
     public Option[] configuration() {
         return new Option[] {
             baseConfiguration(),
             U.tinyProviderBundle("firstProvider", "firstA", "firstB", "secondN"),
             U.tinyProviderBundle("secondProvider", "secondA", "secondB", "secondOther"),
+            U.tinyProviderBundle("staleProvider", "staleA"),
 
             // Configure the org.apache.sling.graphql.schema.aggregator.SchemaAggregatorServlet
             factoryConfiguration(AGGREGATOR_SERVLET_CONFIG_PID)
@@ -51,13 +66,15 @@ public class SchemaAggregatorServletIT extends SchemaAggregatorTestSupport {
                     // The GraphQLServlet uses an internal GET request for the schema
                     .put("sling.servlet.methods", new String[] {"GET"})
                     // Several selectors can be configured to setup API planes, each with their own GraphQL schema
-                    .put("sling.servlet.selectors", new String[] {"X", "Y", "nomappings"})
+                    .put("sling.servlet.selectors", new String[] {"X", "Y", "S", "nomappings"})
                     // This mapping defines which partials to use to build the schema for each selector
                     // The lists can use either the exact names of partials, or (Java flavored) regular expressions on
                     // their names, identified by a starting an ending slash.
                     .put(
                             "selectors.to.partials.mapping",
-                            new String[] {"X:firstA,secondB", "Y:secondA,firstB,/second.*/"})
+                            new String[] {"X:firstA,secondB", "Y:secondA,firstB,/second.*/", "S:staleA"})
+                    // Serve the last good schema while partials are missing, for at most 5 minutes
+                    .put("stale.schema.max.age.seconds", 300L)
                     .asOption(),
         };
     }
@@ -69,6 +86,37 @@ public class SchemaAggregatorServletIT extends SchemaAggregatorTestSupport {
                 getContent("/.Y." + GQL_SCHEMA_EXT), "secondA", "firstB", "secondB", "secondOther", "secondN");
     }
 
+    @Test
+    public void staleSchemaWhileProviderIsStopped() throws Exception {
+        final String schema = getContent("/.S." + GQL_SCHEMA_EXT);
+        U.assertPartialsFoundInSchema(schema, "staleA");
+        assertNull(executeRequest("GET", "/.S." + GQL_SCHEMA_EXT, null, null, null, 200)
+                .getHeader(STALE_SCHEMA_HEADER));
+
+        Bundle provider = null;
+        for (Bundle b : bundleContext.getBundles()) {
+            if ("staleProvider".equals(b.getSymbolicName())) {
+                provider = b;
+            }
+        }
+        assertNotNull("Expecting the staleProvider bundle", provider);
+        provider.stop();
+        try {
+            final MockSlingHttpServletResponse stale =
+                    executeRequest("GET", "/.S." + GQL_SCHEMA_EXT, null, null, null, 200);
+            assertEquals("true", stale.getHeader(STALE_SCHEMA_HEADER));
+            assertEquals(schema, stale.getOutputAsString());
+        } finally {
+            provider.start();
+        }
+    }
+
+    @Test
+    public void introspectionWithoutGraphqlJava() throws Exception {
+        // graphql-java is an optional dependency, which is not installed here
+        executeRequest("GET", "/.X.introspection." + GQL_SCHEMA_EXT, null, null, null, 404);
+    }
+
     @Test
     public void unmappedSelector() throws Exception {
         executeRequest("GET", "/.nomappings." + GQL_SCHEMA_EXT, null, null, null, 400);
@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.servlet;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AggregationLimiterTest {
+
+    @Test
+    public void rejectWhenQueueIsFull() throws Exception {
+        final AggregationLimiter limiter = new AggregationLimiter(1, 0, 10000);
+        assertTrue(limiter.acquire());
+        assertFalse(limiter.acquire());
+        assertEquals(1, limiter.getRejections());
+        limiter.release();
+        assertTrue(limiter.acquire());
+        limiter.release();
+    }
+
+    @Test
+    public void rejectAfterMaxWait() throws Exception {
+        final AggregationLimiter limiter = new AggregationLimiter(1, 1, 10);
+        assertTrue(limiter.acquire());
+        assertFalse(limiter.acquire());
+        assertEquals(1, limiter.getRejections());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    @Test
+    public void queuedRequestGetsPermit() throws Exception {
+        final AggregationLimiter limiter = new AggregationLimiter(1, 1, 10000);
+        assertTrue(limiter.acquire());
+        final AtomicBoolean acquired = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(1);
+        final Thread t = new Thread(() -> {
+            try {
+                acquired.set(limiter.acquire());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        });
+        t.start();
+        final long timeout = System.currentTimeMillis() + 5000;
+        while (limiter.getQueued() == 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, limiter.getQueued());
+        assertFalse("Queue is full", limiter.acquire());
+        limiter.release();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(acquired.get());
+        assertEquals(1, limiter.getRejections());
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.servlet;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletRequest;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.sling.graphql.schema.aggregator.api.AggregationContext;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RequestAggregationContextTest {
+
+    @Test
+    public void recordsToTiming() {
+        final ServerTiming timing = new ServerTiming(0);
+        final RequestAggregationContext ctx = new RequestAggregationContext(timing);
+        ctx.recordPhase(AggregationContext.PHASE_READ, 2_000_000);
+        assertTrue(timing.getHeaderValue(2_000_000).startsWith("read;dur=2.000"));
+        new RequestAggregationContext(null).recordPhase(AggregationContext.PHASE_READ, 1);
+    }
+
+    @Test
+    public void cancelledWhenInterrupted() {
+        final RequestAggregationContext ctx = new RequestAggregationContext(null);
+        assertFalse(ctx.isCancelled());
+        Thread.currentThread().interrupt();
+        try {
+            assertTrue(ctx.isCancelled());
+        } finally {
+            // clear the interrupted flag
+            assertTrue(Thread.interrupted());
+        }
+        assertFalse(ctx.isCancelled());
+    }
+
+    @Test
+    public void cancelledOnAsyncTimeout() throws Exception {
+        final AtomicReference<AsyncListener> listener = new AtomicReference<>();
+        final AsyncContext async = mock(AsyncContext.class);
+        doAnswer(i -> {
+                    listener.set(i.getArgument(0));
+                    return null;
+                })
+                .when(async)
+                .addListener(any(AsyncListener.class));
+        final ServletRequest request = mock(ServletRequest.class);
+        when(request.isAsyncStarted()).thenReturn(true);
+        when(request.getAsyncContext()).thenReturn(async);
+
+        final RequestAggregationContext ctx = RequestAggregationContext.forRequest(request, null);
+        assertNotNull(listener.get());
+        assertEquals(ctx, listener.get());
+        assertFalse(ctx.isCancelled());
+        listener.get().onTimeout(null);
+        assertTrue(ctx.isCancelled());
+    }
+}
@@ -0,0 +1,540 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.servlet;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.graphql.schema.aggregator.U;
+import org.apache.sling.graphql.schema.aggregator.api.AggregatedSchema;
+import org.apache.sling.graphql.schema.aggregator.api.typeregistry.TypeRegistryProvider;
+import org.apache.sling.graphql.schema.aggregator.impl.AggregatorMetrics;
+import org.apache.sling.graphql.schema.aggregator.impl.DefaultSchemaAggregator;
+import org.apache.sling.graphql.schema.aggregator.impl.ProviderBundleTracker;
+import org.apache.sling.graphql.schema.aggregator.impl.RecordingMetrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SchemaAggregatorServletTest {
+    private BundleContext bundleContext;
+    private ProviderBundleTracker tracker;
+    private DefaultSchemaAggregator aggregator;
+    private SchemaAggregatorServlet servlet;
+    private SchemaAggregatorServlet.Config cfg;
+    private final RecordingMetrics metrics = new RecordingMetrics();
+
+    @Before
+    public void setup() throws Exception {
+        bundleContext = mock(BundleContext.class);
+        when(bundleContext.getBundle()).thenReturn(mock(Bundle.class));
+        tracker = new ProviderBundleTracker();
+        tracker.activate(bundleContext, mock(ProviderBundleTracker.Config.class));
+        aggregator = new DefaultSchemaAggregator();
+        inject(aggregator, "tracker", tracker);
+
+        cfg = mock(SchemaAggregatorServlet.Config.class);
+        when(cfg.selectors_to_partials_mapping()).thenReturn(new String[] {"A:a1,a2", "B:b1"});
+        when(cfg.schema_validation()).thenReturn("OFF");
+        servlet = new SchemaAggregatorServlet();
+        inject(servlet, "aggregator", aggregator);
+        inject(servlet, "metrics", metrics);
+    }
+
+    @After
+    public void cleanup() {
+        servlet.deactivate();
+        tracker.deactivate();
+    }
+
+    private static void inject(Object target, String fieldName, Object value) throws Exception {
+        final Field f = target.getClass().getDeclaredField(fieldName);
+        f.setAccessible(true);
+        f.set(target, value);
+    }
+
+    private static SlingHttpServletRequest request(String... selectors) {
+        final SlingHttpServletRequest request = mock(SlingHttpServletRequest.class);
+        final RequestPathInfo pathInfo = mock(RequestPathInfo.class);
+        when(pathInfo.getSelectors()).thenReturn(selectors);
+        when(request.getRequestPathInfo()).thenReturn(pathInfo);
+        return request;
+    }
+
+    /** Serve a request and return the response body */
+    private String serve(SlingHttpServletRequest request, SlingHttpServletResponse response) throws Exception {
+        final StringWriter body = new StringWriter();
+        when(response.getWriter()).thenReturn(new PrintWriter(body, true));
+        servlet.doGet(request, response);
+        return body.toString();
+    }
+
+    private String serve(SlingHttpServletRequest request) throws Exception {
+        return serve(request, mock(SlingHttpServletResponse.class));
+    }
+
+    private SlingHttpServletRequest deltaRequest(String since) {
+        final SlingHttpServletRequest request = request("D", SchemaAggregatorServlet.DELTA_SELECTOR);
+        when(request.getParameter(SchemaAggregatorServlet.DELTA_SINCE_PARAM)).thenReturn(since);
+        return request;
+    }
+
+    private void activateWithDeltas() {
+        when(cfg.selectors_to_partials_mapping()).thenReturn(new String[] {"D:/d.*/"});
+        when(cfg.delta_history_size()).thenReturn(2);
+        servlet.activate(bundleContext, cfg);
+    }
+
+    @Test
+    public void deltaSinceUnknownOrExpiredFingerprint() throws Exception {
+        activateWithDeltas();
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "d1.txt"), null);
+        serve(request("D"));
+        final String expired = aggregator.getFingerprint("/d.*/");
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "B", 2, "d2.txt"), null);
+        serve(request("D"));
+        final String retained = aggregator.getFingerprint("/d.*/");
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "C", 3, "d3.txt"), null);
+
+        // a complete delta is served for unknown fingerprints, and for those which are not retained anymore
+        for (String since : new String[] {"SHA-256: unknown", expired}) {
+            final SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+            final String delta = serve(deltaRequest(since), response);
+            assertTrue(delta, delta.startsWith("{\"since\":null,"));
+            assertTrue(delta, delta.contains("\"added\":[\"d1\",\"d2\",\"d3\"],\"replaced\":[],\"removed\":[]"));
+            for (String partial : new String[] {"d1", "d2", "d3"}) {
+                assertTrue(delta, delta.contains("Fake query for " + partial + ".txt"));
+            }
+            verify(response).setContentType("application/json");
+        }
+
+        final String delta = serve(deltaRequest(retained));
+        assertTrue(delta, delta.startsWith("{\"since\":\"" + retained + "\","));
+        assertTrue(delta, delta.contains("\"added\":[\"d3\"]"));
+    }
+
+    @Test
+    public void deltaSinceCurrentFingerprint() throws Exception {
+        activateWithDeltas();
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "d1.txt", "d2.txt"), null);
+        serve(request("D"));
+        final String current = aggregator.getFingerprint("/d.*/");
+
+        final String delta = serve(deltaRequest(current));
+        assertTrue(delta, delta.startsWith("{\"since\":\"" + current + "\",\"fingerprint\":\"" + current + "\","));
+        assertTrue(delta, delta.contains("\"added\":[],\"replaced\":[],\"removed\":[]"));
+        assertTrue(delta, delta.contains("{\"source\":\"d1/QUERY\"},{\"source\":\"d2/QUERY\"}"));
+        assertFalse("Unchanged partials are not served", delta.contains("Fake query"));
+    }
+
+    @Test
+    public void deltaWithAddedAndRemovedPartials() throws Exception {
+        activateWithDeltas();
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "d1.txt"), null);
+        final Bundle b = U.mockProviderBundle(bundleContext, "B", 2, "d2.txt");
+        tracker.addingBundle(b, null);
+        serve(request("D"));
+        final String since = aggregator.getFingerprint("/d.*/");
+        tracker.removedBundle(b, null, null);
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "C", 3, "d3.txt"), null);
+
+        final String delta = serve(deltaRequest(since));
+        assertTrue(delta, delta.startsWith("{\"since\":\"" + since + "\","));
+        assertTrue(delta, delta.contains("\"added\":[\"d3\"],\"replaced\":[],\"removed\":[\"d2\"]"));
+        assertTrue(delta, delta.contains("{\"source\":\"d1/QUERY\"}"));
+        assertTrue(delta, delta.contains("Fake query for d3.txt"));
+        assertFalse(delta, delta.contains("Fake query for d1.txt"));
+        assertFalse(delta, delta.contains("Fake query for d2.txt"));
+    }
+
+    @Test
+    public void invalidDeltaRequests() throws Exception {
+        servlet.activate(bundleContext, cfg);
+        final SlingHttpServletResponse disabled = mock(SlingHttpServletResponse.class);
+        serve(request("A", SchemaAggregatorServlet.DELTA_SELECTOR), disabled);
+        verify(disabled).sendError(HttpServletResponse.SC_NOT_FOUND, "Schema deltas are not enabled");
+
+        servlet.deactivate();
+        servlet = new SchemaAggregatorServlet();
+        inject(servlet, "aggregator", aggregator);
+        activateWithDeltas();
+        final SlingHttpServletResponse noSince = mock(SlingHttpServletResponse.class);
+        serve(deltaRequest(null), noSince);
+        verify(noSince).sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing since parameter");
+    }
+
+    @Test
+    public void staleSchemaIsServedWhilePartialsAreMissing() throws Exception {
+        when(cfg.stale_schema_max_age_seconds()).thenReturn(60L);
+        servlet.activate(bundleContext, cfg);
+        final AtomicLong clock = new AtomicLong(1000);
+        inject(servlet, "staleSchemas", new StaleSchemaCache(60_000, 1000, clock::get));
+        final Bundle a = U.mockProviderBundle(bundleContext, "A", 1, "a1.txt", "a2.txt");
+        tracker.addingBundle(a, null);
+        final String schema = serve(request("A"));
+        assertTrue(schema, schema.contains("Fake query for a2.txt"));
+
+        // a2 disappears while its bundle restarts, the last good schema is served
+        tracker.removedBundle(a, null, null);
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "B", 2, "a1.txt"), null);
+        final SlingHttpServletResponse stale = mock(SlingHttpServletResponse.class);
+        assertEquals(schema, serve(request("A"), stale));
+        verify(stale).setHeader(SchemaAggregatorServlet.STALE_SCHEMA_HEADER, "true");
+
+        // aggregation is not retried until the retry interval has passed
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "C", 3, "a2.txt"), null);
+        clock.addAndGet(500);
+        final SlingHttpServletResponse pending = mock(SlingHttpServletResponse.class);
+        assertEquals(schema, serve(request("A"), pending));
+        verify(pending).setHeader(SchemaAggregatorServlet.STALE_SCHEMA_HEADER, "true");
+        clock.addAndGet(1000);
+        final SlingHttpServletResponse fresh = mock(SlingHttpServletResponse.class);
+        final String current = serve(request("A"), fresh);
+        assertTrue(current, current.contains("Fake query for a2.txt"));
+        verify(fresh, never()).setHeader(SchemaAggregatorServlet.STALE_SCHEMA_HEADER, "true");
+    }
+
+    @Test
+    public void staleSchemaExpires() throws Exception {
+        when(cfg.stale_schema_max_age_seconds()).thenReturn(60L);
+        servlet.activate(bundleContext, cfg);
+        final AtomicLong clock = new AtomicLong(1000);
+        inject(servlet, "staleSchemas", new StaleSchemaCache(60_000, 1000, clock::get));
+        final Bundle a = U.mockProviderBundle(bundleContext, "A", 1, "a1.txt", "a2.txt");
+        tracker.addingBundle(a, null);
+        final String schema = serve(request("A"));
+        tracker.removedBundle(a, null, null);
+        assertEquals(schema, serve(request("A")));
+
+        clock.addAndGet(60_001);
+        final IOException e = assertThrows(IOException.class, () -> serve(request("A")));
+        assertTrue(e.getMessage(), e.getMessage().contains("Missing providers"));
+    }
+
+    @Test
+    public void noStaleSchemaByDefault() throws Exception {
+        servlet.activate(bundleContext, cfg);
+        final Bundle a = U.mockProviderBundle(bundleContext, "A", 1, "a1.txt", "a2.txt");
+        tracker.addingBundle(a, null);
+        serve(request("A"));
+        tracker.removedBundle(a, null, null);
+        assertThrows(IOException.class, () -> serve(request("A")));
+    }
+
+    private TypeRegistryProvider activateWithValidation(String mode, List<String> errors) throws Exception {
+        when(cfg.schema_validation()).thenReturn(mode);
+        final TypeRegistryProvider provider = mock(TypeRegistryProvider.class);
+        when(provider.getValidationErrors(Collections.emptySet(), "a1", "a2")).thenReturn(errors);
+        inject(servlet, "typeRegistryProvider", provider);
+        servlet.activate(bundleContext, cfg);
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "a1.txt", "a2.txt"), null);
+        return provider;
+    }
+
+    @Test
+    public void invalidSchemaIsFlagged() throws Exception {
+        activateWithValidation("FLAG", Arrays.asList("first error", "second error"));
+        final SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+        final String schema = serve(request("A"), response);
+        assertTrue(schema, schema.contains("Fake query for a2.txt"));
+        verify(response).setHeader(SchemaAggregatorServlet.SCHEMA_ERRORS_HEADER, "2");
+        verify(response, never()).sendError(anyInt(), anyString());
+    }
+
+    @Test
+    public void invalidSchemaIsRefused() throws Exception {
+        activateWithValidation("REFUSE", Arrays.asList("first error", "second error"));
+        final SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+        assertEquals("", serve(request("A"), response));
+        verify(response)
+                .sendError(
+                        HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                        "Invalid schema for selector A: [first error, second error]");
+        verify(response, never()).setHeader(SchemaAggregatorServlet.SCHEMA_ERRORS_HEADER, "2");
+    }
+
+    @Test
+    public void validSchemaIsNotFlagged() throws Exception {
+        for (String mode : new String[] {"FLAG", "REFUSE"}) {
+            servlet = new SchemaAggregatorServlet();
+            inject(servlet, "aggregator", aggregator);
+            activateWithValidation(mode, Collections.emptyList());
+            final SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+            final String schema = serve(request("A"), response);
+            assertTrue(mode, schema.contains("Fake query for a2.txt"));
+            verify(response, never()).setHeader(SchemaAggregatorServlet.SCHEMA_ERRORS_HEADER, "0");
+            servlet.deactivate();
+        }
+    }
+
+    @Test
+    public void noValidationByDefault() throws Exception {
+        final TypeRegistryProvider provider = activateWithValidation("OFF", Arrays.asList("ignored error"));
+        final SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+        assertTrue(serve(request("A"), response).contains("Fake query for a2.txt"));
+        verify(provider, never()).getValidationErrors(Collections.emptySet(), "a1", "a2");
+        verify(response, never()).setHeader(SchemaAggregatorServlet.SCHEMA_ERRORS_HEADER, "1");
+    }
+
+    @Test
+    public void introspection() throws Exception {
+        final TypeRegistryProvider provider = activateWithValidation("OFF", Collections.emptyList());
+        final String json = "{\"data\":{\"__schema\":{}}}";
+        when(provider.getIntrospectionResult("a1", "a2")).thenReturn(json);
+        final SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+        assertEquals(json, serve(request("A", SchemaAggregatorServlet.INTROSPECTION_SELECTOR), response));
+        verify(response).setContentType("application/json");
+
+        // unknown selectors are rejected before introspecting
+        final SlingHttpServletResponse unknown = mock(SlingHttpServletResponse.class);
+        assertEquals("", serve(request("nope", SchemaAggregatorServlet.INTROSPECTION_SELECTOR), unknown));
+        verify(unknown).sendError(HttpServletResponse.SC_BAD_REQUEST, "No partial names defined for selector nope");
+    }
+
+    @Test
+    public void introspectionRequiresGraphqlJava() throws Exception {
+        servlet.activate(bundleContext, cfg);
+        final SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+        assertEquals("", serve(request("A", SchemaAggregatorServlet.INTROSPECTION_SELECTOR), response));
+        verify(response).sendError(HttpServletResponse.SC_NOT_FOUND, "Introspection requires graphql-java");
+    }
+
+    private SlingHttpServletRequest batchRequest(String... selectors) {
+        final SlingHttpServletRequest request = request(SchemaAggregatorServlet.BATCH_SELECTOR);
+        when(request.getParameterValues(SchemaAggregatorServlet.BATCH_SELECTOR_PARAM))
+                .thenReturn(selectors.length == 0 ? null : selectors);
+        return request;
+    }
+
+    @Test
+    public void batchOfSeveralSelectors() throws Exception {
+        servlet.activate(bundleContext, cfg);
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "a1.txt", "a2.txt", "b1.txt"), null);
+        final String fingerprintA = aggregator.getFingerprint("a1", "a2");
+        final String fingerprintB = aggregator.getFingerprint("b1");
+
+        final SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+        final String json = serve(batchRequest("B", "A"), response);
+        verify(response).setContentType("application/json");
+        assertTrue(json, json.startsWith("{\"schemas\":{\"B\":{\"fingerprint\":\"" + fingerprintB + "\","));
+        assertTrue(json, json.contains("\"A\":{\"fingerprint\":\"" + fingerprintA + "\",\"partials\":[\"a1\",\"a2\"]"));
+        assertTrue(json, json.contains("Fake query for a2.txt"));
+        assertTrue(json, json.contains("\"partials\":[\"b1\"]"));
+
+        // all selectors, sorted, if none are specified
+        final String all = serve(batchRequest());
+        assertTrue(all, all.startsWith("{\"schemas\":{\"A\":{\"fingerprint\":\"" + fingerprintA + "\","));
+        assertTrue(all, all.contains("\"B\":{\"fingerprint\":\"" + fingerprintB + "\","));
+    }
+
+    @Test
+    public void batchWithUnknownSelector() throws Exception {
+        servlet.activate(bundleContext, cfg);
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "a1.txt", "a2.txt"), null);
+        final SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+        assertEquals("", serve(batchRequest("A", "nope"), response));
+        verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, "No partial names defined for selector nope");
+    }
+
+    @Test
+    public void batchIsRejectedByLimiter() throws Exception {
+        when(cfg.max_concurrent_aggregations()).thenReturn(1);
+        when(cfg.max_queued_aggregations()).thenReturn(0);
+        when(cfg.retry_after_seconds()).thenReturn(7);
+        servlet.activate(bundleContext, cfg);
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "a1.txt", "a2.txt", "b1.txt"), null);
+        final Field f = servlet.getClass().getDeclaredField("limiter");
+        f.setAccessible(true);
+        final AggregationLimiter limiter = (AggregationLimiter) f.get(servlet);
+
+        // another request is aggregating
+        assertTrue(limiter.acquire());
+        final SlingHttpServletResponse rejected = mock(SlingHttpServletResponse.class);
+        assertEquals("", serve(batchRequest("A", "B"), rejected));
+        verify(rejected).setHeader("Retry-After", "7");
+        verify(rejected)
+                .sendError(
+                        HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                        "Too many concurrent schema aggregations, please retry later");
+        assertEquals(1, metrics.getSum(AggregatorMetrics.AGGREGATIONS_REJECTED));
+
+        limiter.release();
+        assertTrue(serve(batchRequest("A", "B")).contains("Fake query for b1.txt"));
+
+        // schemas which were already served are cached, and not limited
+        assertTrue(limiter.acquire());
+        assertTrue(serve(batchRequest("A", "B")).contains("Fake query for b1.txt"));
+        assertEquals(1, metrics.getSum(AggregatorMetrics.AGGREGATIONS_REJECTED));
+        limiter.release();
+    }
+
+    @Test
+    public void schemasCachedByTheAggregatorAreNotLimited() throws Exception {
+        when(cfg.max_concurrent_aggregations()).thenReturn(1);
+        when(cfg.max_queued_aggregations()).thenReturn(0);
+        servlet.activate(bundleContext, cfg);
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "a1.txt", "a2.txt", "b1.txt"), null);
+        final Field f = servlet.getClass().getDeclaredField("limiter");
+        f.setAccessible(true);
+        final AggregationLimiter limiter = (AggregationLimiter) f.get(servlet);
+
+        // aggregated in-process, never served by the servlet
+        final AggregatedSchema a = aggregator.getSchema(Collections.emptySet(), "a1", "a2");
+
+        // another request is aggregating
+        assertTrue(limiter.acquire());
+        assertEquals(a.getText().toString(), serve(request("A")));
+        final SlingHttpServletResponse rejected = mock(SlingHttpServletResponse.class);
+        assertEquals("B is not cached yet", "", serve(batchRequest("A", "B"), rejected));
+        verify(rejected).sendError(eq(HttpServletResponse.SC_SERVICE_UNAVAILABLE), anyString());
+        assertEquals(1, metrics.getSum(AggregatorMetrics.AGGREGATIONS_REJECTED));
+        limiter.release();
+        final AggregatedSchema b = aggregator.getSchema(Collections.emptySet(), "b1");
+
+        assertTrue(limiter.acquire());
+        final String all = serve(batchRequest("A", "B"));
+        assertTrue(all, all.indexOf("\"A\":") < all.indexOf("\"B\":"));
+        assertTrue(all, all.contains("\"B\":{\"fingerprint\":\"" + b.getFingerprint() + "\","));
+        assertEquals(1, metrics.getSum(AggregatorMetrics.AGGREGATIONS_REJECTED));
+        limiter.release();
+    }
+
+    @Test
+    public void aggregationIsCancelledIfClientGoesAway() throws Exception {
+        final AtomicReference<AsyncListener> listener = new AtomicReference<>();
+        final AtomicBoolean disconnect = new AtomicBoolean(true);
+        final AsyncContext async = mock(AsyncContext.class);
+        doAnswer(i -> {
+                    listener.set(i.getArgument(0));
+                    return null;
+                })
+                .when(async)
+                .addListener(any(AsyncListener.class));
+
+        // the client goes away while the content of a2 is read
+        final Bundle bundle = U.mockProviderBundle(bundleContext, "A", 1, "a1.txt");
+        final File folder =
+                Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        final URL a2 = U.fakePartialURL(folder, "a2.txt");
+        final URLStreamHandler handler = new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL u) throws IOException {
+                if (listener.get() != null && disconnect.get()) {
+                    listener.get().onError(new AsyncEvent(async));
+                }
+                return a2.openConnection();
+            }
+        };
+        final String a2Path = "A/path/1/resource/a2.txt";
+        when(bundle.getEntryPaths("A/path/1"))
+                .thenAnswer(i -> Collections.enumeration(Arrays.asList("A/path/1/resource/a1.txt", a2Path)));
+        when(bundle.getEntry(a2Path))
+                .thenReturn(new URL(a2.getProtocol(), a2.getHost(), a2.getPort(), a2.getFile(), handler));
+        tracker.addingBundle(bundle, null);
+        servlet.activate(bundleContext, cfg);
+
+        assertEquals("Nothing is served to a client which went away", "", serve(withAsync(request("A"), async)));
+        assertEquals(1, metrics.getSum(AggregatorMetrics.AGGREGATIONS_CANCELLED));
+        verify(async).complete();
+
+        disconnect.set(false);
+        assertTrue(
+                "The cancelled schema was not cached",
+                serve(withAsync(request("A"), async)).contains("Fake query for a2.txt"));
+    }
+
+    /** Make the request support asynchronous mode, using the supplied context */
+    private static SlingHttpServletRequest withAsync(SlingHttpServletRequest request, AsyncContext async) {
+        final AtomicBoolean started = new AtomicBoolean();
+        when(request.isAsyncSupported()).thenReturn(true);
+        when(request.isAsyncStarted()).thenAnswer(i -> started.get());
+        when(request.startAsync()).thenAnswer(i -> {
+            started.set(true);
+            return async;
+        });
+        when(request.getAsyncContext()).thenReturn(async);
+        return request;
+    }
+
+    @Test
+    public void asyncAggregationTimeout() throws Exception {
+        when(cfg.aggregation_timeout_msec()).thenReturn(5000L);
+        servlet.activate(bundleContext, cfg);
+        tracker.addingBundle(U.mockProviderBundle(bundleContext, "A", 1, "a1.txt", "a2.txt"), null);
+        final AsyncContext async = mock(AsyncContext.class);
+        assertTrue(serve(withAsync(request("A"), async)).contains("Fake query for a2.txt"));
+        verify(async).setTimeout(5000L);
+        verify(async).complete();
+    }
+
+    @Test
+    public void failedAsyncAggregationsAreCompleted() throws Exception {
+        servlet.activate(bundleContext, cfg);
+        final AsyncContext async = mock(AsyncContext.class);
+        final SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+        serve(withAsync(request("A"), async), response);
+        verify(response).sendError(eq(HttpServletResponse.SC_INTERNAL_SERVER_ERROR), contains("Missing providers"));
+        verify(async).complete();
+
+        final AsyncContext batchAsync = mock(AsyncContext.class);
+        final SlingHttpServletResponse batchResponse = mock(SlingHttpServletResponse.class);
+        serve(withAsync(batchRequest("A"), batchAsync), batchResponse);
+        verify(batchResponse)
+                .sendError(eq(HttpServletResponse.SC_INTERNAL_SERVER_ERROR), contains("Missing providers"));
+        verify(batchAsync).complete();
+    }
+}
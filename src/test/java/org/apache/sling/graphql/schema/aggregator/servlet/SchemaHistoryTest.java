@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.servlet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.graphql.schema.aggregator.api.AggregatedSchema;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SchemaHistoryTest {
+
+    /** Schema made of segments, each supplied as a source and its text, null sources
+     *  being for generated text. The partial names are derived from the sources.
+     */
+    private static AggregatedSchema schema(String fingerprint, String... sourcesAndTexts) {
+        final List<AggregatedSchema.Segment> segments = new ArrayList<>();
+        final List<String> partials = new ArrayList<>();
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < sourcesAndTexts.length; i += 2) {
+            final String source = sourcesAndTexts[i];
+            final String segmentText = sourcesAndTexts[i + 1];
+            text.append(segmentText);
+            if (source != null && !partials.contains(source.split("/")[0])) {
+                partials.add(source.split("/")[0]);
+            }
+            segments.add(new AggregatedSchema.Segment() {
+                @Override
+                public String getSource() {
+                    return source;
+                }
+
+                @Override
+                public @NotNull CharSequence getText() {
+                    return segmentText;
+                }
+            });
+        }
+        return new AggregatedSchema() {
+            @Override
+            public @NotNull CharSequence getText() {
+                return text;
+            }
+
+            @Override
+            public @NotNull ByteBuffer getUtf8Bytes() {
+                return ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public @NotNull String getFingerprint() {
+                return fingerprint;
+            }
+
+            @Override
+            public @NotNull List<String> getPartials() {
+                return partials;
+            }
+
+            @Override
+            public long getGeneration() {
+                return 0;
+            }
+
+            @Override
+            public @NotNull List<Segment> getSegments() {
+                return segments;
+            }
+        };
+    }
+
+    /** Apply a delta like a client would */
+    @SuppressWarnings("unchecked")
+    private static String apply(AggregatedSchema previous, Map<String, Object> delta) {
+        final Map<String, String> texts = new LinkedHashMap<>();
+        if (previous != null) {
+            previous.getSegments()
+                    .forEach(s -> texts.put(s.getSource(), s.getText().toString()));
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (Map<String, Object> segment : (List<Map<String, Object>>) delta.get("segments")) {
+            final Object text = segment.get("text");
+            sb.append(text != null ? text : texts.get(segment.get("source")));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void retainsRecentVersions() {
+        final SchemaHistory h = new SchemaHistory(2);
+        final AggregatedSchema v1 = schema("v1");
+        final AggregatedSchema v2 = schema("v2");
+        h.record("S", v1);
+        h.record("S", v2);
+        h.record("S", schema("v2"));
+        assertSame(v1, h.find("S", "v1"));
+        h.record("S", schema("v3"));
+        assertNull(h.find("S", "v1"));
+        assertSame(v2, h.find("S", "v2"));
+        assertNull(h.find("other", "v2"));
+    }
+
+    @Test
+    public void delta() {
+        final AggregatedSchema v1 = schema(
+                "v1", null, "# header\n", "a/QUERY", "qa\n", "b/QUERY", "qb\n", "c/TYPES", "tc\n", null, "# end\n");
+        final AggregatedSchema v2 = schema(
+                "v2", null, "# header\n", "a/QUERY", "qa\n", "c/TYPES", "tc2\n", "d/TYPES", "td\n", null, "# end2\n");
+        final Map<String, Object> delta = SchemaHistory.delta(v1, v2);
+        assertEquals("v1", delta.get("since"));
+        assertEquals("v2", delta.get("fingerprint"));
+        assertEquals("[d]", delta.get("added").toString());
+        assertEquals("[c]", delta.get("replaced").toString());
+        assertEquals("[b]", delta.get("removed").toString());
+        assertEquals(
+                "[{text=# header\n}, {source=a/QUERY}, {source=c/TYPES, text=tc2\n}, "
+                        + "{source=d/TYPES, text=td\n}, {text=# end2\n}]",
+                delta.get("segments").toString());
+        assertEquals(v2.getText().toString(), apply(v1, delta));
+    }
+
+    @Test
+    public void completeDelta() {
+        final AggregatedSchema v = schema("v", null, "# header\n", "a/QUERY", "qa\n");
+        final Map<String, Object> delta = SchemaHistory.delta(null, v);
+        assertNull(delta.get("since"));
+        assertEquals("[a]", delta.get("added").toString());
+        assertEquals(v.getText().toString(), apply(null, delta));
+    }
+}
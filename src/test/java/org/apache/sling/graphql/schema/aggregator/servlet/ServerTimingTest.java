@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.servlet;
+
+import org.apache.sling.graphql.schema.aggregator.api.AggregationContext;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ServerTimingTest {
+    @Test
+    public void headerValue() {
+        final ServerTiming t = new ServerTiming(1_000_000L);
+        t.recordPhase(AggregationContext.PHASE_SELECT, 1_500_000L);
+        t.recordPhase(AggregationContext.PHASE_READ, 250_000L);
+        t.recordPhase(AggregationContext.PHASE_WRITE, 42L);
+        t.recordPhase(AggregationContext.PHASE_READ, 250_000L);
+        assertEquals(
+                "select;dur=1.500, read;dur=0.500, write;dur=0.000, total;dur=3.000", t.getHeaderValue(4_000_000L));
+    }
+
+    @Test
+    public void totalOnly() {
+        assertEquals("total;dur=0.123", new ServerTiming(0).getHeaderValue(123_456L));
+    }
+}
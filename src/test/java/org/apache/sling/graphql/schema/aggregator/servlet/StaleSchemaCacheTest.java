@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.servlet;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class StaleSchemaCacheTest {
+    private static final long MAX_STALE = 10000;
+    private static final long RETRY = 1000;
+    private final AtomicLong now = new AtomicLong(1);
+    private StaleSchemaCache cache;
+
+    @Before
+    public void setup() {
+        cache = new StaleSchemaCache(MAX_STALE, RETRY, now::get);
+    }
+
+    @Test
+    public void nothingToServeWithoutSuccess() {
+        assertNull(cache.failed("S"));
+        assertNull(cache.getIfRetryPending("S"));
+    }
+
+    @Test
+    public void serveStaleUntilMaxAge() {
+        cache.put("S", "schema");
+        assertNull("No retry pending before any failure", cache.getIfRetryPending("S"));
+
+        now.addAndGet(MAX_STALE * 5);
+        assertEquals(
+                "Staleness starts at the first failure",
+                "schema",
+                cache.failed("S").getSchema());
+        assertNotNull(cache.getIfRetryPending("S"));
+
+        now.addAndGet(RETRY);
+        assertNull("Retry expected after the retry interval", cache.getIfRetryPending("S"));
+        assertNotNull(cache.failed("S"));
+
+        now.addAndGet(MAX_STALE);
+        assertNull("Too stale", cache.failed("S"));
+        assertNull(cache.getIfRetryPending("S"));
+    }
+
+    @Test
+    public void successResetsStaleness() {
+        cache.put("S", "schema");
+        cache.failed("S");
+        now.addAndGet(MAX_STALE - 1);
+        cache.put("S", "new schema");
+        assertNull(cache.getIfRetryPending("S"));
+        now.addAndGet(MAX_STALE - 1);
+        assertEquals("new schema", cache.failed("S").getSchema());
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.graphql.schema.aggregator.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.sling.graphql.schema.aggregator.U;
+import org.apache.sling.graphql.schema.aggregator.impl.PartialIndex;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class PartialIndexToolTest {
+
+    @Test
+    public void writesIndex() throws Exception {
+        final File folder =
+                Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        folder.deleteOnExit();
+        U.fakePartialURL(folder, "a1.txt");
+        final File index = new File(folder, PartialIndex.INDEX_NAME);
+        index.deleteOnExit();
+        PartialIndexTool.main(new String[] {folder.getAbsolutePath()});
+        assertTrue(index.exists());
+    }
+
+    @Test
+    public void failsOnInvalidPartials() throws Exception {
+        final File folder =
+                Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        folder.deleteOnExit();
+        final File invalid = new File(folder, "invalid.txt");
+        invalid.deleteOnExit();
+        Files.write(invalid.toPath(), "QUERY:\nfoo\nQUERY:\nbar\n".getBytes());
+        assertThrows(IOException.class, () -> PartialIndexTool.main(new String[] {folder.getAbsolutePath()}));
+        assertFalse(new File(folder, PartialIndex.INDEX_NAME).exists());
+    }
+
+    @Test
+    public void requiresFolderArgument() {
+        assertThrows(IllegalArgumentException.class, () -> PartialIndexTool.main(new String[0]));
+    }
+}